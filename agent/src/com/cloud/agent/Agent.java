@@ -52,6 +52,7 @@ import com.cloud.agent.api.ShutdownCommand;
 import com.cloud.agent.api.StartupAnswer;
 import com.cloud.agent.api.StartupCommand;
 import com.cloud.agent.transport.Request;
+import com.cloud.agent.transport.Request.Version;
 import com.cloud.agent.transport.Response;
 import com.cloud.exception.AgentControlChannelException;
 import com.cloud.resource.ServerResource;
@@ -109,6 +110,8 @@ public class Agent implements HandlerFactory, IAgentControl {
     ServerResource _resource;
     Link _link;
     Long _id;
+    // highest wire version the management server advertised on the current link
+    volatile Version _serverVersion = Version.v1;
 
     Timer _timer = new Timer("Agent Timer");
 
@@ -204,6 +207,7 @@ public class Agent implements HandlerFactory, IAgentControl {
 
     protected void setLink(final Link link) {
         _link = link;
+        _serverVersion = Version.v1;
     }
 
     public ServerResource getResource() {
@@ -249,6 +253,7 @@ public class Agent implements HandlerFactory, IAgentControl {
             try {
                 if (_link != null) {
                     final Request req = new Request(_id != null ? _id : -1, -1, cmd, false);
+                    req.negotiateVersion(_serverVersion);
                     _link.send(req.toBytes());
                 }
             } catch (final ClosedChannelException e) {
@@ -322,6 +327,7 @@ public class Agent implements HandlerFactory, IAgentControl {
             }
             final Request request = new Request(_id != null ? _id : -1, -1, commands, false, false);
             request.setSequence(getNextSequence());
+            request.negotiateVersion(_serverVersion);
 
             if (s_logger.isDebugEnabled()) {
                 s_logger.debug("Sending Startup: " + request.toString());
@@ -607,6 +613,7 @@ public class Agent implements HandlerFactory, IAgentControl {
             final PingCommand ping = _resource.getCurrentStatus(getId());
             final Request request = new Request(_id, -1, ping, false);
             request.setSequence(getNextSequence());
+            request.negotiateVersion(_serverVersion);
             if (s_logger.isDebugEnabled()) {
                 s_logger.debug("Sending ping: " + request.toString());
             }
@@ -705,6 +712,7 @@ public class Agent implements HandlerFactory, IAgentControl {
     private void postRequest(final Request request) throws AgentControlChannelException {
         if (_link != null) {
             try {
+                request.negotiateVersion(_serverVersion);
                 _link.send(request.toBytes());
             } catch (final ClosedChannelException e) {
                 s_logger.warn("Unable to post agent control reques: " + request.toString());
@@ -854,6 +862,7 @@ public class Agent implements HandlerFactory, IAgentControl {
                 Request request;
                 try {
                     request = Request.parse(task.getData());
+                    _serverVersion = request.getAcceptedVersion();
                     if (request instanceof Response) {
                         //It's for pinganswer etc, should be processed immediately.
                         processResponse((Response)request, task.getLink());
@@ -20,20 +20,28 @@ package org.apache.cloudstack.acl;
 import com.cloud.exception.InvalidParameterValueException;
 import com.google.common.base.Strings;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Pattern;
 
 public final class Rule {
     private final String rule;
+    private final Pattern matchingPattern;
     private final static Pattern ALLOWED_PATTERN = Pattern.compile("^[a-zA-Z0-9*]+$");
+    // Rules are created for every role permission read from the database, so keep their compiled
+    // patterns; the number of distinct rules is small, the map is only reset as a safety net
+    private final static int MAX_COMPILED_PATTERNS = 4096;
+    private final static ConcurrentMap<String, Pattern> COMPILED_PATTERNS = new ConcurrentHashMap<>();
 
     public Rule(final String rule) {
         validate(rule);
         this.rule = rule;
+        this.matchingPattern = compile(rule);
     }
 
     public boolean matches(final String commandName) {
         return !Strings.isNullOrEmpty(commandName)
-                && commandName.toLowerCase().matches(rule.toLowerCase().replace("*", "\\w*"));
+                && matchingPattern.matcher(commandName.toLowerCase()).matches();
     }
 
     public String getRuleString() {
@@ -45,6 +53,18 @@ public final class Rule {
         return rule;
     }
 
+    private static Pattern compile(final String rule) {
+        Pattern pattern = COMPILED_PATTERNS.get(rule);
+        if (pattern == null) {
+            if (COMPILED_PATTERNS.size() >= MAX_COMPILED_PATTERNS) {
+                COMPILED_PATTERNS.clear();
+            }
+            pattern = Pattern.compile(rule.toLowerCase().replace("*", "\\w*"));
+            COMPILED_PATTERNS.put(rule, pattern);
+        }
+        return pattern;
+    }
+
     private static boolean validate(final String rule) {
         if (Strings.isNullOrEmpty(rule) || !ALLOWED_PATTERN.matcher(rule).matches()) {
             throw new InvalidParameterValueException("Only API names and wildcards are allowed, invalid rule provided: " + rule);
@@ -245,6 +245,7 @@ public class ApiConstants {
     public static final String SNAPSHOT_TYPE = "snapshottype";
     public static final String SNAPSHOT_QUIESCEVM = "quiescevm";
     public static final String SOURCE_ZONE_ID = "sourcezoneid";
+    public static final String START_AFTER = "startafter";
     public static final String START_DATE = "startdate";
     public static final String START_IP = "startip";
     public static final String START_IPV6 = "startipv6";
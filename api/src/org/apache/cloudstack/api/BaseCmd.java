@@ -22,9 +22,9 @@ import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 import javax.inject.Inject;
@@ -92,7 +92,7 @@ public abstract class BaseCmd {
     public static final String USER_ERROR_MESSAGE = "Internal error executing command, please contact your system administrator";
     public static Pattern newInputDateFormat = Pattern.compile("[\\d]+-[\\d]+-[\\d]+ [\\d]+:[\\d]+:[\\d]+");
     private static final DateFormat s_outputFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
-    protected static final Map<Class<?>, List<Field>> fieldsForCmdClass = new HashMap<Class<?>, List<Field>>();
+    protected static final Map<Class<?>, List<Field>> fieldsForCmdClass = new ConcurrentHashMap<Class<?>, List<Field>>();
     public static enum HTTPMethod {
         GET, POST, PUT, DELETE
     }
@@ -287,7 +287,7 @@ public abstract class BaseCmd {
 
         // If list of fields was not cached yet
         if (filteredFields == null) {
-            final List<Field> allFields = ReflectUtil.getAllFieldsForClass(this.getClass(), BaseCmd.class);
+            final List<Field> allFields = ReflectUtil.getAllFieldsForClass(clazz, BaseCmd.class);
             filteredFields = new ArrayList<Field>();
 
             for (final Field field : allFields) {
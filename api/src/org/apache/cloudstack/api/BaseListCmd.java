@@ -25,6 +25,7 @@ public abstract class BaseListCmd extends BaseCmd implements IBaseListCmd {
 
     private static Long s_maxPageSize = null;
     public static final Long s_pageSizeUnlimited = -1L;
+    public static final String START_AFTER_FIRST_PAGE = "0";
 
     // ///////////////////////////////////////////////////
     // ///////// BaseList API parameters /////////////////
@@ -117,6 +118,29 @@ public abstract class BaseListCmd extends BaseCmd implements IBaseListCmd {
         return startIndex;
     }
 
+    /**
+     * Keyset pagination tokens carry the id of the last row of a page, list
+     * commands that support them only return the rows after it.  Clients pass
+     * back the token of the previous response without interpreting it, and
+     * START_AFTER_FIRST_PAGE to get the first page.  Keyset pages are ordered
+     * by id and their count is the number of items in the page rather than
+     * the total, which would take a scan of all the matching rows.
+     */
+    public static String toStartAfterToken(final long id) {
+        return Long.toString(id, Character.MAX_RADIX);
+    }
+
+    public static Long fromStartAfterToken(final String token) {
+        if (token == null) {
+            return null;
+        }
+        try {
+            return Long.valueOf(token, Character.MAX_RADIX);
+        } catch (final NumberFormatException e) {
+            throw new InvalidParameterValueException("Invalid " + ApiConstants.START_AFTER + " value: " + token);
+        }
+    }
+
     @Override
     public ApiCommandJobType getInstanceType() {
         return ApiCommandJobType.None;
@@ -133,6 +157,7 @@ public abstract class BaseListCmd extends BaseCmd implements IBaseListCmd {
         }
 
         if (params.get(ApiConstants.PAGE) == null &&
+                params.get(ApiConstants.START_AFTER) == null &&
                 pageSize != null &&
                 !pageSize.equals(BaseListCmd.s_pageSizeUnlimited)) {
             final ServerApiException ex = new ServerApiException(ApiErrorCode.PARAM_ERROR, "\"page\" parameter is required when \"pagesize\" is specified");
@@ -76,6 +76,12 @@ public class GetUsageRecordsCmd extends BaseListCmd {
     @Parameter(name = ApiConstants.USAGE_ID, type = CommandType.STRING, description = "List usage records for the specified usage UUID. Can be used only together with TYPE parameter.")
     private String usageId;
 
+    @Parameter(name = ApiConstants.START_AFTER,
+               type = CommandType.STRING,
+               description = "list the usage records after the page that returned this token, 0 for the first page. Pages are then ordered by id and count is the number of usage records in the page, not the total",
+               since = "4.10.0")
+    private String startAfter;
+
     /////////////////////////////////////////////////////
     /////////////////// Accessors ///////////////////////
     /////////////////////////////////////////////////////
@@ -111,6 +117,10 @@ public class GetUsageRecordsCmd extends BaseListCmd {
     public String getUsageId() {
         return usageId;
     }
+
+    public Long getStartAfter() {
+        return fromStartAfterToken(startAfter);
+    }
     public void setAccountName(String accountName) {
         this.accountName = accountName;
     }
@@ -157,6 +167,14 @@ public class GetUsageRecordsCmd extends BaseListCmd {
                 usageResponses.add(usageResponse);
             }
             response.setResponses(usageResponses, usageRecords.second());
+
+            List<? extends Usage> records = usageRecords.first();
+            if (!records.isEmpty()) {
+                Long pageSize = getPageSizeVal();
+                if (pageSize != null && records.size() >= pageSize) {
+                    response.setStartAfter(toStartAfterToken(records.get(records.size() - 1).getId()));
+                }
+            }
         }
 
         response.setResponseName(getCommandName());
@@ -65,6 +65,12 @@ public class ListEventsCmd extends BaseListProjectAndAccountResourcesCmd {
     @Parameter(name = ApiConstants.TYPE, type = CommandType.STRING, description = "the event type (see event types)")
     private String type;
 
+    @Parameter(name = ApiConstants.START_AFTER,
+               type = CommandType.STRING,
+               description = "list the events after the page that returned this token, 0 for the first page. Pages are then ordered by id, newest first, and count is the number of events in the page, not the total. Can't be combined with entrytime and duration",
+               since = "4.10.0")
+    private String startAfter;
+
     /////////////////////////////////////////////////////
     /////////////////// Accessors ///////////////////////
     /////////////////////////////////////////////////////
@@ -97,6 +103,10 @@ public class ListEventsCmd extends BaseListProjectAndAccountResourcesCmd {
         return type;
     }
 
+    public Long getStartAfter() {
+        return fromStartAfterToken(startAfter);
+    }
+
     /////////////////////////////////////////////////////
     /////////////// API Implementation///////////////////
     /////////////////////////////////////////////////////
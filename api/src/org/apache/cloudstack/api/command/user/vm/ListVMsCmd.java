@@ -133,6 +133,12 @@ public class ListVMsCmd extends BaseListTaggedResourcesCmd {
     @Parameter(name = ApiConstants.USER_ID, type = CommandType.UUID, entityType = UserResponse.class, required = false, description = "the user ID that created the VM and is under the account that owns the VM")
     private Long userId;
 
+    @Parameter(name = ApiConstants.START_AFTER,
+               type = CommandType.STRING,
+               description = "list the virtual machines after the page that returned this token, 0 for the first page. Pages are then ordered by id and count is the number of virtual machines in the page, not the total",
+               since = "4.10.0")
+    private String startAfter;
+
     /////////////////////////////////////////////////////
     /////////////////// Accessors ///////////////////////
     /////////////////////////////////////////////////////
@@ -199,6 +205,10 @@ public class ListVMsCmd extends BaseListTaggedResourcesCmd {
         return keypair;
     }
 
+    public Long getStartAfter() {
+        return fromStartAfterToken(startAfter);
+    }
+
     public EnumSet<VMDetails> getDetails() throws InvalidParameterValueException {
         EnumSet<VMDetails> dv;
         if (viewDetails == null || viewDetails.size() <= 0) {
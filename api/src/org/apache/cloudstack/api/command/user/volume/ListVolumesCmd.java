@@ -90,6 +90,12 @@ public class ListVolumesCmd extends BaseListTaggedResourcesCmd {
     @Parameter(name = ApiConstants.DISPLAY_VOLUME, type = CommandType.BOOLEAN, description = "list resources by display flag; only ROOT admin is eligible to pass this parameter", since = "4.4", authorized = {RoleType.Admin})
     private Boolean display;
 
+    @Parameter(name = ApiConstants.START_AFTER,
+               type = CommandType.STRING,
+               description = "list the volumes after the page that returned this token, 0 for the first page. Pages are then ordered by id, newest first, and count is the number of volumes in the page, not the total",
+               since = "4.10.0")
+    private String startAfter;
+
     /////////////////////////////////////////////////////
     /////////////////// Accessors ///////////////////////
     /////////////////////////////////////////////////////
@@ -130,6 +136,10 @@ public class ListVolumesCmd extends BaseListTaggedResourcesCmd {
         return storageId;
     }
 
+    public Long getStartAfter() {
+        return fromStartAfterToken(startAfter);
+    }
+
     @Override
     public Boolean getDisplay() {
         if (display != null) {
@@ -24,6 +24,7 @@ import org.apache.cloudstack.api.ResponseObject;
 public class ListResponse<T extends ResponseObject> extends BaseResponse {
     List<T> responses;
     private transient Integer count;
+    private transient String startAfter;
 
     public List<T> getResponses() {
         return responses;
@@ -38,6 +39,21 @@ public class ListResponse<T extends ResponseObject> extends BaseResponse {
         this.count = count;
     }
 
+    /**
+     * @return keyset pagination token of the next page, null if this is the last page.
+     */
+    public String getStartAfter() {
+        return startAfter;
+    }
+
+    public void setStartAfter(String startAfter) {
+        this.startAfter = startAfter;
+    }
+
+    /**
+     * @return total number of items, or the number of items in this page for
+     *         keyset pages, which skip counting all the matching rows.
+     */
     public Integer getCount() {
         if (count != null) {
             return count;
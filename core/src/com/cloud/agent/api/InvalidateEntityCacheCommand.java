@@ -0,0 +1,49 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+
+package com.cloud.agent.api;
+
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Sent to MS peers when entities held in the cache of a DAO are changed or removed,
+ * so that the peers drop their cached copy instead of serving it until it expires.
+ * Invalidations are batched, ids are listed by the name of the DAO cache.
+ */
+public class InvalidateEntityCacheCommand extends Command {
+    private Map<String, List<String>> ids;
+
+    protected InvalidateEntityCacheCommand() {
+    }
+
+    public InvalidateEntityCacheCommand(final Map<String, List<String>> ids) {
+        this.ids = ids;
+    }
+
+    public Map<String, List<String>> getIds() {
+        return ids;
+    }
+
+    @Override
+    public boolean executeInSequence() {
+        return false;
+    }
+}
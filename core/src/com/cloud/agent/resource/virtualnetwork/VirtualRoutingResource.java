@@ -29,7 +29,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -38,6 +41,7 @@ import javax.naming.ConfigurationException;
 import org.apache.log4j.Logger;
 
 import com.cloud.agent.api.Answer;
+import com.cloud.agent.api.BumpUpPriorityCommand;
 import com.cloud.agent.api.CheckRouterAnswer;
 import com.cloud.agent.api.CheckRouterCommand;
 import com.cloud.agent.api.CheckS2SVpnConnectionsAnswer;
@@ -66,9 +70,17 @@ import com.cloud.utils.exception.CloudRuntimeException;
 public class VirtualRoutingResource {
 
     private static final Logger s_logger = Logger.getLogger(VirtualRoutingResource.class);
+    // what vr_cfg.sh prints for the script that stopped an aggregated run
+    private static final String VR_CFG_FAILURE = "VR config: execution failed: \"";
     private VirtualRouterDeployer _vrDeployer;
     private Map<String, Queue<NetworkElementCommand>> _vrAggregateCommandsSet;
     protected Map<String, Lock> _vrLockMap = new HashMap<String, Lock>();
+    // config commands waiting for the router lock, whoever gets the lock applies all of them in one go
+    private final ConcurrentHashMap<String, Queue<PendingCommand>> _vrPendingCommands = new ConcurrentHashMap<String, Queue<PendingCommand>>();
+    private final AtomicLong _coalescedPushes = new AtomicLong();
+    private final AtomicLong _coalescedCommands = new AtomicLong();
+    private final AtomicLong _coalescedPushMillis = new AtomicLong();
+    private final AtomicLong _coalescedFailures = new AtomicLong();
 
     private String _name;
     private int _sleep;
@@ -82,16 +94,37 @@ public class VirtualRoutingResource {
         _vrDeployer = deployer;
     }
 
+    private static class PendingCommand {
+        final NetworkElementCommand _cmd;
+        Answer _answer;
+        boolean _aggregated;
+
+        PendingCommand(NetworkElementCommand cmd) {
+            _cmd = cmd;
+        }
+    }
+
+    private Lock getRouterLock(String routerName) {
+        synchronized (_vrLockMap) {
+            Lock lock = _vrLockMap.get(routerName);
+            if (lock == null) {
+                lock = new ReentrantLock();
+                _vrLockMap.put(routerName, lock);
+            }
+            return lock;
+        }
+    }
+
     public Answer executeRequest(final NetworkElementCommand cmd) {
         boolean aggregated = false;
         String routerName = cmd.getAccessDetail(NetworkElementCommand.ROUTER_NAME);
-        Lock lock;
-        if (_vrLockMap.containsKey(routerName)) {
-            lock = _vrLockMap.get(routerName);
-        } else {
-            lock = new ReentrantLock();
-            _vrLockMap.put(routerName, lock);
+        Lock lock = getRouterLock(routerName);
+
+        // bumping the priority is not a data bag update and must not be pushed twice by the coalescing fallback
+        if (routerName != null && !cmd.isQuery() && !(cmd instanceof AggregationControlCommand) && !(cmd instanceof BumpUpPriorityCommand)) {
+            return executeCoalescedRequest(cmd, routerName, lock);
         }
+
         lock.lock();
 
         try {
@@ -138,6 +171,186 @@ public class VirtualRoutingResource {
         }
     }
 
+    /**
+     * Config commands for the same router are serialized on the router lock. Instead of every waiting thread applying its own
+     * config once it gets the lock, the first one in applies everything that queued up while the previous push was running
+     * as a single aggregated config file and hands the answers back to the other threads.
+     */
+    private Answer executeCoalescedRequest(final NetworkElementCommand cmd, final String routerName, final Lock lock) {
+        PendingCommand pending = new PendingCommand(cmd);
+        Queue<PendingCommand> queue = _vrPendingCommands.get(routerName);
+        if (queue == null) {
+            _vrPendingCommands.putIfAbsent(routerName, new ConcurrentLinkedQueue<PendingCommand>());
+            queue = _vrPendingCommands.get(routerName);
+        }
+        queue.add(pending);
+
+        lock.lock();
+        try {
+            if (pending._answer == null) {
+                List<PendingCommand> batch = new ArrayList<PendingCommand>();
+                PendingCommand next;
+                while ((next = queue.poll()) != null) {
+                    batch.add(next);
+                }
+                applyPendingCommands(routerName, batch);
+            }
+            return pending._answer;
+        } finally {
+            lock.unlock();
+            if (!pending._aggregated) {
+                ExecutionResult rc = _vrDeployer.cleanupCommand(cmd);
+                if (!rc.isSuccess()) {
+                    s_logger.error("Failed to cleanup VR command due to " + rc.getDetails());
+                }
+            }
+        }
+    }
+
+    private void applyPendingCommands(String routerName, List<PendingCommand> batch) {
+        List<PendingCommand> toApply = new ArrayList<PendingCommand>();
+        List<List<ConfigItem>> cfgs = new ArrayList<List<ConfigItem>>();
+        for (PendingCommand pending : batch) {
+            NetworkElementCommand cmd = pending._cmd;
+            try {
+                ExecutionResult rc = _vrDeployer.prepareCommand(cmd);
+                if (!rc.isSuccess()) {
+                    s_logger.error("Failed to prepare VR command due to " + rc.getDetails());
+                    pending._answer = new Answer(cmd, false, rc.getDetails());
+                    continue;
+                }
+
+                assert cmd.getRouterAccessIp() != null : "Why there is no access IP for VR?";
+
+                if (_vrAggregateCommandsSet.containsKey(routerName)) {
+                    _vrAggregateCommandsSet.get(routerName).add(cmd);
+                    pending._aggregated = true;
+                    // Clean up would be done after command has been executed
+                    pending._answer = new Answer(cmd);
+                    continue;
+                }
+
+                List<ConfigItem> cfg = generateCommandCfg(cmd);
+                if (cfg == null) {
+                    pending._answer = Answer.createUnsupportedCommandAnswer(cmd);
+                } else if (cfg.isEmpty()) {
+                    pending._answer = new Answer(cmd, true, "Nothing to do");
+                } else {
+                    toApply.add(pending);
+                    cfgs.add(cfg);
+                }
+            } catch (final RuntimeException e) {
+                pending._answer = new Answer(cmd, false, e.getMessage());
+            }
+        }
+
+        if (toApply.size() == 1) {
+            toApply.get(0)._answer = applyConfig(toApply.get(0)._cmd, cfgs.get(0));
+        } else if (toApply.size() > 1) {
+            applyConfigBatch(routerName, toApply, cfgs);
+        }
+
+        for (PendingCommand pending : batch) {
+            if (pending._answer == null) {
+                pending._answer = new Answer(pending._cmd, false, "Command was not applied to router " + routerName);
+            }
+        }
+    }
+
+    private void applyConfigBatch(String routerName, List<PendingCommand> toApply, List<List<ConfigItem>> cfgs) {
+        List<ConfigItem> allCfg = new ArrayList<ConfigItem>();
+        int answerCounts = 0;
+        for (int i = 0; i < toApply.size(); i++) {
+            allCfg.addAll(cfgs.get(i));
+            answerCounts += toApply.get(i)._cmd.getAnswersCount();
+        }
+
+        long startTimestamp = System.currentTimeMillis();
+        ExecutionResult result = applyAggregatedConfig(toApply.get(0)._cmd.getRouterAccessIp(), allCfg, answerCounts);
+        long elapsed = System.currentTimeMillis() - startTimestamp;
+        _coalescedPushes.incrementAndGet();
+        _coalescedCommands.addAndGet(toApply.size());
+        _coalescedPushMillis.addAndGet(elapsed);
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Applying " + toApply.size() + " coalesced commands (" + allCfg.size() + " config items) to router " + routerName + " took "
+                    + elapsed + "ms, success: " + result.isSuccess());
+        }
+
+        if (result.isSuccess()) {
+            for (int i = 0; i < toApply.size(); i++) {
+                toApply.get(i)._answer = createAppliedAnswer(toApply.get(i)._cmd, cfgs.get(i), result.getDetails());
+            }
+            return;
+        }
+        _coalescedFailures.incrementAndGet();
+
+        // vr_cfg.sh runs the items in order and stops at the first failing script, so the commands before the one holding
+        // that script are applied and only the rest is pushed again one by one to get a precise answer for each. When the
+        // failure cannot be pinned down all commands are pushed again, which is safe as every coalesced command is a json
+        // data bag that update_config.py merges into the router state.
+        int failedItem = findFailedConfigItem(allCfg, result.getDetails());
+        int first = 0;
+        for (int items = 0; first < toApply.size() && items + cfgs.get(first).size() <= failedItem; first++) {
+            items += cfgs.get(first).size();
+            toApply.get(first)._answer = createAppliedAnswer(toApply.get(first)._cmd, cfgs.get(first), null);
+        }
+        s_logger.warn("Coalesced config push to router " + routerName + " failed, applying " + (toApply.size() - first) + " of " + toApply.size()
+                + " commands one by one: " + result.getDetails());
+        for (int i = first; i < toApply.size(); i++) {
+            toApply.get(i)._answer = applyConfig(toApply.get(i)._cmd, cfgs.get(i));
+        }
+    }
+
+    /**
+     * @return index of the first config item the aggregated run may have failed on, 0 when the failure is not reported by
+     * vr_cfg.sh (e.g. the config file could not be copied to the router)
+     */
+    private int findFailedConfigItem(List<ConfigItem> cfg, String details) {
+        int start = details == null ? -1 : details.indexOf(VR_CFG_FAILURE);
+        if (start < 0) {
+            return 0;
+        }
+        start += VR_CFG_FAILURE.length();
+        int end = details.indexOf('"', start);
+        if (end < 0) {
+            return 0;
+        }
+        String failedLine = "\n" + details.substring(start, end).trim() + "\n";
+        for (int i = 0; i < cfg.size(); i++) {
+            if (cfg.get(i) instanceof ScriptConfigItem && cfg.get(i).getAggregateCommand().contains(failedLine)) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    public long getCoalescedPushes() {
+        return _coalescedPushes.get();
+    }
+
+    public long getCoalescedCommands() {
+        return _coalescedCommands.get();
+    }
+
+    public long getCoalescedPushMillis() {
+        return _coalescedPushMillis.get();
+    }
+
+    public long getCoalescedFailures() {
+        return _coalescedFailures.get();
+    }
+
+    private Answer createAppliedAnswer(NetworkElementCommand cmd, List<ConfigItem> cfg, String details) {
+        if (cfg.size() == 1) {
+            return new Answer(cmd, true, details);
+        }
+        String[] results = new String[cfg.size()];
+        for (int i = 0; i < cfg.size(); i++) {
+            results[i] = cfg.get(i).getInfo() + " - success: " + details;
+        }
+        return new GroupAnswer(cmd, true, results.length, results);
+    }
+
     private Answer executeQueryCommand(NetworkElementCommand cmd) {
         if (cmd instanceof CheckRouterCommand) {
             return execute((CheckRouterCommand)cmd);
@@ -354,9 +567,7 @@ public class VirtualRoutingResource {
             Queue<NetworkElementCommand> queue = _vrAggregateCommandsSet.get(routerName);
             int answerCounts = 0;
             try {
-                StringBuilder sb = new StringBuilder();
-                sb.append("#Apache CloudStack Virtual Router Config File\n");
-                sb.append("<version>\n" + _cfgVersion + "\n</version>\n");
+                List<ConfigItem> allCfg = new ArrayList<ConfigItem>();
                 for (NetworkElementCommand command : queue) {
                     answerCounts += command.getAnswersCount();
                     List<ConfigItem> cfg = generateCommandCfg(command);
@@ -365,27 +576,10 @@ public class VirtualRoutingResource {
                         continue;
                     }
 
-                    for (ConfigItem c : cfg) {
-                        sb.append(c.getAggregateCommand());
-                    }
-                }
-
-                // TODO replace with applyConfig with a stop on fail
-                String cfgFileName = "VR-"+ UUID.randomUUID().toString() + ".cfg";
-                FileConfigItem fileConfigItem = new FileConfigItem(VRScripts.CONFIG_CACHE_LOCATION, cfgFileName, sb.toString());
-                ScriptConfigItem scriptConfigItem = new ScriptConfigItem(VRScripts.VR_CFG, "-c " + VRScripts.CONFIG_CACHE_LOCATION + cfgFileName);
-                // 120s is the minimal timeout
-                Duration timeout = _eachTimeout.withDurationAdded(_eachTimeout.getStandardSeconds(), answerCounts);
-                if (timeout.isShorterThan(VRScripts.VR_SCRIPT_EXEC_TIMEOUT)) {
-                    timeout = VRScripts.VR_SCRIPT_EXEC_TIMEOUT;
-                }
-
-                ExecutionResult result = applyConfigToVR(cmd.getRouterAccessIp(), fileConfigItem, timeout);
-                if (!result.isSuccess()) {
-                    return new Answer(cmd, false, result.getDetails());
+                    allCfg.addAll(cfg);
                 }
 
-                result = applyConfigToVR(cmd.getRouterAccessIp(), scriptConfigItem, timeout);
+                ExecutionResult result = applyAggregatedConfig(cmd.getRouterAccessIp(), allCfg, answerCounts);
                 if (!result.isSuccess()) {
                     return new Answer(cmd, false, result.getDetails());
                 }
@@ -398,4 +592,29 @@ public class VirtualRoutingResource {
         }
         return new Answer(cmd, false, "Fail to recongize aggregation action " + action.toString());
     }
+
+    private ExecutionResult applyAggregatedConfig(String routerAccessIp, List<ConfigItem> cfg, int answerCounts) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("#Apache CloudStack Virtual Router Config File\n");
+        sb.append("<version>\n" + _cfgVersion + "\n</version>\n");
+        for (ConfigItem c : cfg) {
+            sb.append(c.getAggregateCommand());
+        }
+
+        // TODO replace with applyConfig with a stop on fail
+        String cfgFileName = "VR-"+ UUID.randomUUID().toString() + ".cfg";
+        FileConfigItem fileConfigItem = new FileConfigItem(VRScripts.CONFIG_CACHE_LOCATION, cfgFileName, sb.toString());
+        ScriptConfigItem scriptConfigItem = new ScriptConfigItem(VRScripts.VR_CFG, "-c " + VRScripts.CONFIG_CACHE_LOCATION + cfgFileName);
+        // 120s is the minimal timeout
+        Duration timeout = _eachTimeout.withDurationAdded(_eachTimeout.getStandardSeconds(), answerCounts);
+        if (timeout.isShorterThan(VRScripts.VR_SCRIPT_EXEC_TIMEOUT)) {
+            timeout = VRScripts.VR_SCRIPT_EXEC_TIMEOUT;
+        }
+
+        ExecutionResult result = applyConfigToVR(routerAccessIp, fileConfigItem, timeout);
+        if (!result.isSuccess()) {
+            return result;
+        }
+        return applyConfigToVR(routerAccessIp, scriptConfigItem, timeout);
+    }
 }
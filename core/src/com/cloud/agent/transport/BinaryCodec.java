@@ -0,0 +1,961 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.transport;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.agent.api.Answer;
+import com.cloud.agent.api.CheckHealthAnswer;
+import com.cloud.agent.api.CheckHealthCommand;
+import com.cloud.agent.api.Command;
+import com.cloud.agent.api.GetHostStatsAnswer;
+import com.cloud.agent.api.GetHostStatsCommand;
+import com.cloud.agent.api.GetStorageStatsAnswer;
+import com.cloud.agent.api.GetStorageStatsCommand;
+import com.cloud.agent.api.GetVmStatsAnswer;
+import com.cloud.agent.api.GetVmStatsCommand;
+import com.cloud.agent.api.HostStatsEntry;
+import com.cloud.agent.api.HostVmStateReportEntry;
+import com.cloud.agent.api.PingAnswer;
+import com.cloud.agent.api.PingCommand;
+import com.cloud.agent.api.PingRoutingCommand;
+import com.cloud.agent.api.PingRoutingWithNwGroupsCommand;
+import com.cloud.agent.api.PingRoutingWithOvsCommand;
+import com.cloud.agent.api.PingStorageCommand;
+import com.cloud.agent.api.ReadyAnswer;
+import com.cloud.agent.api.ReadyCommand;
+import com.cloud.agent.api.VmStatsEntry;
+import com.cloud.host.Host;
+import com.cloud.serializer.GsonHelper;
+import com.cloud.utils.Pair;
+import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.vm.VirtualMachine;
+
+/**
+ * BinaryCodec is the Version.v4 encoding of the commands and answers
+ * carried in a Request. Every value is written with a one byte tag,
+ * integers as var ints and objects as their class followed by named
+ * fields, so a field that only exists on one side of the link is skipped
+ * or left at its default on the other. Class and field names are written
+ * once per message and referred to by index afterwards; the classes that
+ * make up most of the agent traffic have a fixed id instead.
+ *
+ * Fields are picked the same way Gson picks them: everything that is
+ * neither static, transient nor synthetic. A handful of immutable JDK
+ * value types are embedded as json.
+ *
+ * The decoder only creates the registered classes, the JDK value and
+ * container types listed below and classes of the CloudStack packages,
+ * and an object only when it fits the declared type of the field it is
+ * set into. Containers are always one of the fixed container types or
+ * the declared type of the field. Content holding any other class can't
+ * be encoded, Request sends it as json instead.
+ */
+public final class BinaryCodec {
+    private static final Logger s_logger = Logger.getLogger(BinaryCodec.class);
+
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_TRUE = 1;
+    private static final byte TAG_FALSE = 2;
+    private static final byte TAG_BYTE = 3;
+    private static final byte TAG_SHORT = 4;
+    private static final byte TAG_CHAR = 5;
+    private static final byte TAG_INT = 6;
+    private static final byte TAG_LONG = 7;
+    private static final byte TAG_FLOAT = 8;
+    private static final byte TAG_DOUBLE = 9;
+    private static final byte TAG_STRING = 10;
+    private static final byte TAG_ENUM = 11;
+    private static final byte TAG_DATE = 12;
+    private static final byte TAG_BYTES = 13;
+    private static final byte TAG_ARRAY = 14;
+    private static final byte TAG_LIST = 15;
+    private static final byte TAG_SET = 16;
+    private static final byte TAG_MAP = 17;
+    private static final byte TAG_OBJECT = 18;
+    private static final byte TAG_JSON = 19;
+
+    private static final int CLASS_NONE = 0;
+    private static final int CLASS_NAMED = 1;
+    private static final int CLASS_REGISTERED = 2;
+
+    private static final int MAX_DEPTH = 256;
+    private static final int INITIAL_SIZE = 512;
+
+    /**
+     * Classes with a fixed id on the wire, the id being the position in
+     * this list. The list is part of the v4 format: classes may only be
+     * appended, and only together with a new Request.Version.
+     */
+    private static final Class<?>[] s_registeredClasses = {
+        boolean.class, byte.class, char.class, short.class, int.class, long.class, float.class, double.class,
+        Object.class, String.class, Boolean.class, Integer.class, Long.class, Double.class,
+        ArrayList.class, LinkedList.class, HashSet.class, LinkedHashSet.class, TreeSet.class,
+        HashMap.class, LinkedHashMap.class, TreeMap.class, ConcurrentHashMap.class,
+        Command.class, Answer.class, Pair.class, Host.Type.class, VirtualMachine.PowerState.class,
+        PingCommand.class, PingRoutingCommand.class, PingRoutingWithNwGroupsCommand.class, PingRoutingWithOvsCommand.class,
+        PingStorageCommand.class, PingAnswer.class, HostVmStateReportEntry.class,
+        ReadyCommand.class, ReadyAnswer.class, CheckHealthCommand.class, CheckHealthAnswer.class,
+        GetHostStatsCommand.class, GetHostStatsAnswer.class, HostStatsEntry.class,
+        GetVmStatsCommand.class, GetVmStatsAnswer.class, VmStatsEntry.class,
+        GetStorageStatsCommand.class, GetStorageStatsAnswer.class
+    };
+
+    /**
+     * JDK types without a tag of their own that are written as json.
+     */
+    private static final Set<Class<?>> s_jsonClasses = new HashSet<Class<?>>(Arrays.<Class<?>>asList(
+        URI.class, UUID.class, BigInteger.class, BigDecimal.class));
+
+    /**
+     * Containers that are created again with the class they were sent as,
+     * any other container is created from the declared type.
+     */
+    private static final Set<Class<?>> s_containerClasses = new HashSet<Class<?>>(Arrays.<Class<?>>asList(
+        ArrayList.class, LinkedList.class, HashSet.class, LinkedHashSet.class, TreeSet.class,
+        HashMap.class, LinkedHashMap.class, TreeMap.class, ConcurrentHashMap.class));
+
+    private static final String[] s_trustedPackages = {"com.cloud.", "org.apache.cloudstack."};
+
+    private static final Map<Class<?>, Integer> s_registeredIds = new HashMap<Class<?>, Integer>();
+    private static final Map<String, Class<?>> s_containerClassesByName = new HashMap<String, Class<?>>();
+    private static final Set<String> s_jdkClassNames = new HashSet<String>();
+    private static final ConcurrentMap<String, Class<?>> s_classesByName = new ConcurrentHashMap<String, Class<?>>();
+    private static final ConcurrentMap<Class<?>, ClassInfo> s_classInfos = new ConcurrentHashMap<Class<?>, ClassInfo>();
+
+    private static final Object s_unsafe;
+    private static final Method s_allocateInstance;
+
+    static {
+        for (int i = 0; i < s_registeredClasses.length; i++) {
+            s_registeredIds.put(s_registeredClasses[i], i);
+        }
+        for (final Class<?> clazz : s_containerClasses) {
+            s_containerClassesByName.put(clazz.getName(), clazz);
+        }
+        for (final Class<?> clazz : s_registeredClasses) {
+            if (clazz.isPrimitive() || isJdkClass(clazz)) {
+                s_jdkClassNames.add(clazz.getName());
+            }
+        }
+        for (final Class<?> clazz : Arrays.<Class<?>>asList(Byte.class, Short.class, Character.class, Float.class, Date.class)) {
+            s_jdkClassNames.add(clazz.getName());
+        }
+        for (final Class<?> clazz : s_jsonClasses) {
+            s_jdkClassNames.add(clazz.getName());
+        }
+
+        Object unsafe = null;
+        Method allocateInstance = null;
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafe = theUnsafe.get(null);
+            allocateInstance = unsafeClass.getMethod("allocateInstance", Class.class);
+        } catch (final Exception e) {
+            s_logger.warn("Unable to allocate classes without a default constructor: " + e.getMessage());
+        }
+        s_unsafe = unsafe;
+        s_allocateInstance = allocateInstance;
+    }
+
+    private BinaryCodec() {
+    }
+
+    public static ByteBuffer encode(final Object[] values) {
+        final Encoder encoder = new Encoder();
+        encoder.writeVarInt(values.length);
+        for (final Object value : values) {
+            encoder.writeValue(value, 0);
+        }
+        return encoder.toByteBuffer();
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> T[] decode(final byte[] data, final Class<T> componentType) {
+        final Decoder decoder = new Decoder(data);
+        try {
+            final int length = decoder.readVarInt();
+            final T[] values = (T[])Array.newInstance(componentType, length);
+            for (int i = 0; i < length; i++) {
+                values[i] = componentType.cast(decoder.readValue(componentType, 0));
+            }
+            return values;
+        } catch (final ClassCastException e) {
+            throw new CloudRuntimeException("Unable to decode " + componentType.getSimpleName() + "s: " + e.getMessage(), e);
+        } catch (final IndexOutOfBoundsException e) {
+            throw new CloudRuntimeException("Unable to decode " + componentType.getSimpleName() + "s, content is truncated", e);
+        }
+    }
+
+    /**
+     * Thrown when content holds a class the codec does not send, so that
+     * the caller can pick another encoding.
+     */
+    static final class UnsupportedClassException extends CloudRuntimeException {
+        private static final long serialVersionUID = 7215813632087406215L;
+
+        UnsupportedClassException(final String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * @return whether classes of this name may be written and created: the
+     *         allowed JDK types, classes of the CloudStack packages and
+     *         arrays of either.
+     */
+    private static boolean isAllowedClassName(final String name) {
+        String element = name;
+        if (element.startsWith("[")) {
+            element = element.substring(element.lastIndexOf('[') + 1);
+            if (element.length() == 1) {
+                // an array of primitives
+                return true;
+            }
+            if (!element.startsWith("L") || !element.endsWith(";")) {
+                return false;
+            }
+            element = element.substring(1, element.length() - 1);
+        }
+        if (s_jdkClassNames.contains(element)) {
+            return true;
+        }
+        for (final String prefix : s_trustedPackages) {
+            if (element.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Class<?> classForName(final String name) {
+        Class<?> clazz = s_classesByName.get(name);
+        if (clazz == null) {
+            if (!isAllowedClassName(name)) {
+                throw new CloudRuntimeException("Refusing to decode a " + name);
+            }
+            try {
+                clazz = Class.forName(name);
+            } catch (final ClassNotFoundException e) {
+                throw new CloudRuntimeException("can't find " + name);
+            }
+            s_classesByName.put(name, clazz);
+        }
+        return clazz;
+    }
+
+    /**
+     * @return how objects of the class are written, null for anonymous and
+     *         local classes which are written as null just like Gson does.
+     */
+    private static ClassInfo getClassInfo(final Class<?> clazz) {
+        ClassInfo info = s_classInfos.get(clazz);
+        if (info == null) {
+            if (clazz.isAnonymousClass() || clazz.isLocalClass()) {
+                return null;
+            }
+            info = new ClassInfo(clazz);
+            s_classInfos.put(clazz, info);
+        }
+        return info;
+    }
+
+    private static boolean isJdkClass(final Class<?> clazz) {
+        final String name = clazz.getName();
+        return name.startsWith("java.") || name.startsWith("javax.");
+    }
+
+    /**
+     * Creates a container for the class it was sent as when that is one of
+     * the fixed container classes and fits the declared type, otherwise
+     * from the declared type of the field or a default implementation of it.
+     */
+    @SuppressWarnings("unchecked")
+    private static Collection<Object> newCollection(final Class<?> runtime, final Class<?> declared, final boolean set) {
+        if (runtime != null && (declared == null || declared.isAssignableFrom(runtime)) && Collection.class.isAssignableFrom(runtime)) {
+            try {
+                return (Collection<Object>)runtime.newInstance();
+            } catch (final ReflectiveOperationException e) {
+                throw new CloudRuntimeException("Unable to create " + runtime.getName(), e);
+            }
+        }
+        if (declared != null && !declared.isInterface() && !Modifier.isAbstract(declared.getModifiers()) && Collection.class.isAssignableFrom(declared)) {
+            try {
+                return (Collection<Object>)declared.newInstance();
+            } catch (final ReflectiveOperationException e) {
+                throw new CloudRuntimeException("Unable to create " + declared.getName(), e);
+            }
+        }
+        if (declared != null && SortedSet.class.isAssignableFrom(declared)) {
+            return new TreeSet<Object>();
+        }
+        if (set || (declared != null && Set.class.isAssignableFrom(declared))) {
+            return new LinkedHashSet<Object>();
+        }
+        if (declared != null && Queue.class.isAssignableFrom(declared)) {
+            return new LinkedList<Object>();
+        }
+        return new ArrayList<Object>();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<Object, Object> newMap(final Class<?> runtime, final Class<?> declared) {
+        if (runtime != null && (declared == null || declared.isAssignableFrom(runtime)) && Map.class.isAssignableFrom(runtime)) {
+            try {
+                return (Map<Object, Object>)runtime.newInstance();
+            } catch (final ReflectiveOperationException e) {
+                throw new CloudRuntimeException("Unable to create " + runtime.getName(), e);
+            }
+        }
+        if (declared != null && !declared.isInterface() && !Modifier.isAbstract(declared.getModifiers()) && Map.class.isAssignableFrom(declared)) {
+            try {
+                return (Map<Object, Object>)declared.newInstance();
+            } catch (final ReflectiveOperationException e) {
+                throw new CloudRuntimeException("Unable to create " + declared.getName(), e);
+            }
+        }
+        if (declared != null && SortedMap.class.isAssignableFrom(declared)) {
+            return new TreeMap<Object, Object>();
+        }
+        if (declared != null && ConcurrentMap.class.isAssignableFrom(declared)) {
+            return new ConcurrentHashMap<Object, Object>();
+        }
+        return new LinkedHashMap<Object, Object>();
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object enumValue(final Class<?> clazz, final String name) {
+        try {
+            return Enum.valueOf((Class<? extends Enum>)clazz, name);
+        } catch (final IllegalArgumentException e) {
+            // a constant only known to the sending side, treated like gson does
+            return null;
+        }
+    }
+
+    /**
+     * Converts numbers to the type of the field they are set into, so that
+     * widening a field on one side of the link does not break the other.
+     */
+    private static Object coerce(final Object value, final Class<?> type) {
+        if (value == null || type == null || !(value instanceof Number) || type.isInstance(value)) {
+            return value;
+        }
+        final Number number = (Number)value;
+        if (type == long.class || type == Long.class) {
+            return number.longValue();
+        } else if (type == int.class || type == Integer.class) {
+            return number.intValue();
+        } else if (type == double.class || type == Double.class) {
+            return number.doubleValue();
+        } else if (type == float.class || type == Float.class) {
+            return number.floatValue();
+        } else if (type == short.class || type == Short.class) {
+            return number.shortValue();
+        } else if (type == byte.class || type == Byte.class) {
+            return number.byteValue();
+        }
+        return value;
+    }
+
+    private static final class ClassInfo {
+        final Class<?> _clazz;
+        final Field[] _fields;
+        final Map<String, Field> _fieldsByName = new HashMap<String, Field>();
+        final Constructor<?> _constructor;
+
+        ClassInfo(final Class<?> clazz) {
+            _clazz = clazz;
+            final List<Field> fields = new ArrayList<Field>();
+            for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (final Field field : c.getDeclaredFields()) {
+                    final int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+                        continue;
+                    }
+                    if (_fieldsByName.put(field.getName(), field) != null) {
+                        throw new CloudRuntimeException(clazz.getName() + " declares multiple fields named " + field.getName());
+                    }
+                    field.setAccessible(true);
+                    fields.add(field);
+                }
+            }
+            _fields = fields.toArray(new Field[fields.size()]);
+
+            Constructor<?> constructor = null;
+            try {
+                constructor = clazz.getDeclaredConstructor();
+                constructor.setAccessible(true);
+            } catch (final NoSuchMethodException e) {
+                constructor = null;
+            }
+            _constructor = constructor;
+        }
+
+        Object newInstance() {
+            try {
+                if (_constructor != null) {
+                    return _constructor.newInstance();
+                }
+                if (s_allocateInstance != null) {
+                    return s_allocateInstance.invoke(s_unsafe, _clazz);
+                }
+            } catch (final ReflectiveOperationException e) {
+                throw new CloudRuntimeException("Unable to create " + _clazz.getName(), e);
+            }
+            throw new CloudRuntimeException("Unable to create " + _clazz.getName() + " without a default constructor");
+        }
+    }
+
+    private static final class Encoder {
+        private byte[] _buf = new byte[INITIAL_SIZE];
+        private int _count;
+        private final Map<String, Integer> _symbols = new HashMap<String, Integer>();
+
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(_buf, 0, _count);
+        }
+
+        private void ensure(final int length) {
+            if (_count + length > _buf.length) {
+                _buf = Arrays.copyOf(_buf, Math.max(_buf.length << 1, _count + length));
+            }
+        }
+
+        void write(final int b) {
+            ensure(1);
+            _buf[_count++] = (byte)b;
+        }
+
+        void writeBytes(final byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, _buf, _count, bytes.length);
+            _count += bytes.length;
+        }
+
+        void writeVarInt(final int value) {
+            writeVarLong(value & 0xffffffffL);
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7fL) != 0) {
+                _buf[_count++] = (byte)((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            _buf[_count++] = (byte)value;
+        }
+
+        void writeSignedVarLong(final long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        void writeFixedLong(final long value) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                _buf[_count++] = (byte)(value >>> shift);
+            }
+        }
+
+        void writeString(final String value) {
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length);
+            writeBytes(bytes);
+        }
+
+        void writeSymbol(final String symbol) {
+            final Integer index = _symbols.get(symbol);
+            if (index != null) {
+                writeVarInt(index + 1);
+            } else {
+                writeVarInt(0);
+                writeString(symbol);
+                _symbols.put(symbol, _symbols.size());
+            }
+        }
+
+        void writeClass(final Class<?> clazz) {
+            if (!isAllowedClassName(clazz.getName())) {
+                throw new UnsupportedClassException("Unable to encode a " + clazz.getName());
+            }
+            final Integer id = s_registeredIds.get(clazz);
+            if (id != null) {
+                writeVarInt(CLASS_REGISTERED + id);
+            } else {
+                writeVarInt(CLASS_NAMED);
+                writeSymbol(clazz.getName());
+            }
+        }
+
+        void writeContainerClass(final Class<?> clazz) {
+            if (s_containerClasses.contains(clazz)) {
+                writeClass(clazz);
+            } else {
+                writeVarInt(CLASS_NONE);
+            }
+        }
+
+        void writeValue(final Object value, final int depth) {
+            if (value == null) {
+                write(TAG_NULL);
+                return;
+            }
+            if (depth > MAX_DEPTH) {
+                throw new CloudRuntimeException("Unable to encode " + value.getClass().getName() + ", nested more than " + MAX_DEPTH + " levels deep");
+            }
+
+            final Class<?> clazz = value.getClass();
+            if (clazz == String.class) {
+                write(TAG_STRING);
+                writeString((String)value);
+            } else if (clazz == Integer.class) {
+                write(TAG_INT);
+                writeSignedVarLong((Integer)value);
+            } else if (clazz == Long.class) {
+                write(TAG_LONG);
+                writeSignedVarLong((Long)value);
+            } else if (clazz == Boolean.class) {
+                write((Boolean)value ? TAG_TRUE : TAG_FALSE);
+            } else if (clazz == Double.class) {
+                write(TAG_DOUBLE);
+                writeFixedLong(Double.doubleToLongBits((Double)value));
+            } else if (clazz == Float.class) {
+                write(TAG_FLOAT);
+                writeVarInt(Float.floatToIntBits((Float)value));
+            } else if (clazz == Short.class) {
+                write(TAG_SHORT);
+                writeSignedVarLong((Short)value);
+            } else if (clazz == Byte.class) {
+                write(TAG_BYTE);
+                write((Byte)value);
+            } else if (clazz == Character.class) {
+                write(TAG_CHAR);
+                writeVarInt((Character)value);
+            } else if (value instanceof Enum) {
+                final Enum<?> constant = (Enum<?>)value;
+                write(TAG_ENUM);
+                writeClass(constant.getDeclaringClass());
+                writeSymbol(constant.name());
+            } else if (clazz == Date.class) {
+                write(TAG_DATE);
+                writeSignedVarLong(((Date)value).getTime());
+            } else if (clazz == byte[].class) {
+                final byte[] bytes = (byte[])value;
+                write(TAG_BYTES);
+                writeVarInt(bytes.length);
+                writeBytes(bytes);
+            } else if (clazz.isArray()) {
+                final int length = Array.getLength(value);
+                write(TAG_ARRAY);
+                writeClass(clazz.getComponentType());
+                writeVarInt(length);
+                for (int i = 0; i < length; i++) {
+                    writeValue(Array.get(value, i), depth + 1);
+                }
+            } else if (value instanceof Collection) {
+                final Object[] items = ((Collection<?>)value).toArray();
+                write(value instanceof Set ? TAG_SET : TAG_LIST);
+                writeContainerClass(clazz);
+                writeVarInt(items.length);
+                for (final Object item : items) {
+                    writeValue(item, depth + 1);
+                }
+            } else if (value instanceof Map) {
+                final Map<?, ?> map = (Map<?, ?>)value;
+                write(TAG_MAP);
+                writeContainerClass(clazz);
+                writeVarInt(map.size());
+                for (final Map.Entry<?, ?> entry : map.entrySet()) {
+                    writeValue(entry.getKey(), depth + 1);
+                    writeValue(entry.getValue(), depth + 1);
+                }
+            } else if (s_jsonClasses.contains(clazz)) {
+                write(TAG_JSON);
+                writeClass(clazz);
+                writeString(GsonHelper.getGson().toJson(value, clazz));
+            } else if (isJdkClass(clazz)) {
+                throw new UnsupportedClassException("Unable to encode a " + clazz.getName());
+            } else {
+                final ClassInfo info = getClassInfo(clazz);
+                if (info == null) {
+                    write(TAG_NULL);
+                    return;
+                }
+                write(TAG_OBJECT);
+                writeClass(clazz);
+                writeVarInt(info._fields.length);
+                for (final Field field : info._fields) {
+                    writeSymbol(field.getName());
+                    try {
+                        writeValue(field.get(value), depth + 1);
+                    } catch (final IllegalAccessException e) {
+                        throw new CloudRuntimeException("Unable to read " + clazz.getName() + "." + field.getName(), e);
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class Decoder {
+        private final byte[] _buf;
+        private int _pos;
+        private final List<String> _symbols = new ArrayList<String>();
+
+        Decoder(final byte[] buf) {
+            _buf = buf;
+        }
+
+        int read() {
+            if (_pos >= _buf.length) {
+                throw new IndexOutOfBoundsException("Read past the end of " + _buf.length + " bytes");
+            }
+            return _buf[_pos++];
+        }
+
+        byte[] readBytes(final int length) {
+            if (length < 0 || _pos + length > _buf.length) {
+                throw new IndexOutOfBoundsException("Read of " + length + " bytes past the end of " + _buf.length + " bytes");
+            }
+            final byte[] bytes = Arrays.copyOfRange(_buf, _pos, _pos + length);
+            _pos += length;
+            return bytes;
+        }
+
+        int readVarInt() {
+            return (int)readVarLong();
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final int b = read();
+                value |= (long)(b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new CloudRuntimeException("Malformed var int at offset " + _pos);
+        }
+
+        long readSignedVarLong() {
+            final long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        long readFixedLong() {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (read() & 0xff);
+            }
+            return value;
+        }
+
+        String readString() {
+            final int length = readVarInt();
+            if (length < 0 || _pos + length > _buf.length) {
+                throw new IndexOutOfBoundsException("String of " + length + " bytes past the end of " + _buf.length + " bytes");
+            }
+            final String value = new String(_buf, _pos, length, StandardCharsets.UTF_8);
+            _pos += length;
+            return value;
+        }
+
+        String readSymbol() {
+            final int index = readVarInt();
+            if (index == 0) {
+                final String symbol = readString();
+                _symbols.add(symbol);
+                return symbol;
+            }
+            return _symbols.get(index - 1);
+        }
+
+        /**
+         * @return the name of the class, null if none was written. Names are
+         *         resolved separately so that values of unknown classes can
+         *         still be skipped.
+         */
+        String readClassName() {
+            final int ref = readVarInt();
+            if (ref == CLASS_NONE) {
+                return null;
+            } else if (ref == CLASS_NAMED) {
+                return readSymbol();
+            }
+            final int id = ref - CLASS_REGISTERED;
+            if (id < 0 || id >= s_registeredClasses.length) {
+                throw new CloudRuntimeException("Unknown class id " + id);
+            }
+            return s_registeredClasses[id].getName();
+        }
+
+        Class<?> readClass() {
+            final int ref = readVarInt();
+            if (ref == CLASS_NONE) {
+                return null;
+            } else if (ref == CLASS_NAMED) {
+                return classForName(readSymbol());
+            }
+            final int id = ref - CLASS_REGISTERED;
+            if (id < 0 || id >= s_registeredClasses.length) {
+                throw new CloudRuntimeException("Unknown class id " + id);
+            }
+            return s_registeredClasses[id];
+        }
+
+        /**
+         * @return the container class that was sent, null when it is not one
+         *         of the fixed container classes. The name is never resolved
+         *         as a class.
+         */
+        Class<?> readContainerClass() {
+            final String name = readClassName();
+            return name == null ? null : s_containerClassesByName.get(name);
+        }
+
+        Object readValue(final Class<?> declared, final int depth) {
+            if (depth > MAX_DEPTH) {
+                throw new CloudRuntimeException("Unable to decode content nested more than " + MAX_DEPTH + " levels deep");
+            }
+            final int tag = read();
+            switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_TRUE:
+                return Boolean.TRUE;
+            case TAG_FALSE:
+                return Boolean.FALSE;
+            case TAG_BYTE:
+                return (byte)read();
+            case TAG_SHORT:
+                return (short)readSignedVarLong();
+            case TAG_CHAR:
+                return (char)readVarInt();
+            case TAG_INT:
+                return (int)readSignedVarLong();
+            case TAG_LONG:
+                return readSignedVarLong();
+            case TAG_FLOAT:
+                return Float.intBitsToFloat(readVarInt());
+            case TAG_DOUBLE:
+                return Double.longBitsToDouble(readFixedLong());
+            case TAG_STRING:
+                return readString();
+            case TAG_ENUM: {
+                final Class<?> clazz = readClass();
+                if (!clazz.isEnum()) {
+                    throw new CloudRuntimeException("Refusing to decode a " + clazz.getName() + " as an enum");
+                }
+                return enumValue(clazz, readSymbol());
+            }
+            case TAG_DATE:
+                return new Date(readSignedVarLong());
+            case TAG_BYTES:
+                return readBytes(readVarInt());
+            case TAG_ARRAY: {
+                final Class<?> component = readClass();
+                final int length = readVarInt();
+                final Object array = Array.newInstance(component, length);
+                for (int i = 0; i < length; i++) {
+                    final Object item = readValue(component, depth + 1);
+                    if (item != null || !component.isPrimitive()) {
+                        Array.set(array, i, coerce(item, component));
+                    }
+                }
+                return array;
+            }
+            case TAG_LIST:
+            case TAG_SET: {
+                final Collection<Object> collection = newCollection(readContainerClass(), declared, tag == TAG_SET);
+                final int size = readVarInt();
+                for (int i = 0; i < size; i++) {
+                    collection.add(readValue(null, depth + 1));
+                }
+                return collection;
+            }
+            case TAG_MAP: {
+                final Map<Object, Object> map = newMap(readContainerClass(), declared);
+                final int size = readVarInt();
+                for (int i = 0; i < size; i++) {
+                    final Object key = readValue(null, depth + 1);
+                    map.put(key, readValue(null, depth + 1));
+                }
+                return map;
+            }
+            case TAG_JSON: {
+                final Class<?> clazz = readClass();
+                if (!s_jsonClasses.contains(clazz) || !fits(clazz, declared)) {
+                    throw new CloudRuntimeException("Refusing to decode a " + clazz.getName() + " from json");
+                }
+                return GsonHelper.getGson().fromJson(readString(), clazz);
+            }
+            case TAG_OBJECT: {
+                final Class<?> clazz = readClass();
+                if (isJdkClass(clazz) || clazz.isArray() || !fits(clazz, declared)) {
+                    throw new CloudRuntimeException("Refusing to decode a " + clazz.getName() + (declared != null ? " as a " + declared.getName() : ""));
+                }
+                return readObject(clazz, depth);
+            }
+            default:
+                throw new CloudRuntimeException("Unknown tag " + tag + " at offset " + (_pos - 1));
+            }
+        }
+
+        private boolean fits(final Class<?> clazz, final Class<?> declared) {
+            return declared == null || declared.isAssignableFrom(clazz);
+        }
+
+        private Object readObject(final Class<?> clazz, final int depth) {
+            final ClassInfo info = getClassInfo(clazz);
+            if (info == null) {
+                throw new CloudRuntimeException("Unable to create " + clazz.getName());
+            }
+            final Object object = info.newInstance();
+            final int count = readVarInt();
+            for (int i = 0; i < count; i++) {
+                final String name = readSymbol();
+                final Field field = info._fieldsByName.get(name);
+                if (field == null) {
+                    // only known to the sending side
+                    skipValue(depth + 1);
+                    continue;
+                }
+                final Object value = readValue(field.getType(), depth + 1);
+                if (value == null && field.getType().isPrimitive()) {
+                    continue;
+                }
+                try {
+                    field.set(object, coerce(value, field.getType()));
+                } catch (final IllegalArgumentException | IllegalAccessException e) {
+                    throw new CloudRuntimeException("Unable to set " + clazz.getName() + "." + name + " to a " + value.getClass().getName(), e);
+                }
+            }
+            return object;
+        }
+
+        /**
+         * Reads past a value without creating it, the symbols it introduces
+         * are still recorded since later references count on them.
+         */
+        private void skipValue(final int depth) {
+            if (depth > MAX_DEPTH) {
+                throw new CloudRuntimeException("Unable to decode content nested more than " + MAX_DEPTH + " levels deep");
+            }
+            final int tag = read();
+            switch (tag) {
+            case TAG_NULL:
+            case TAG_TRUE:
+            case TAG_FALSE:
+                break;
+            case TAG_BYTE:
+                read();
+                break;
+            case TAG_SHORT:
+            case TAG_CHAR:
+            case TAG_INT:
+            case TAG_LONG:
+            case TAG_FLOAT:
+            case TAG_DATE:
+                readVarLong();
+                break;
+            case TAG_DOUBLE:
+                readFixedLong();
+                break;
+            case TAG_STRING:
+                readString();
+                break;
+            case TAG_ENUM:
+                readClassName();
+                readSymbol();
+                break;
+            case TAG_BYTES:
+                readBytes(readVarInt());
+                break;
+            case TAG_ARRAY:
+            case TAG_LIST:
+            case TAG_SET: {
+                readClassName();
+                final int length = readVarInt();
+                for (int i = 0; i < length; i++) {
+                    skipValue(depth + 1);
+                }
+                break;
+            }
+            case TAG_MAP: {
+                readClassName();
+                final int size = readVarInt();
+                for (int i = 0; i < size; i++) {
+                    skipValue(depth + 1);
+                    skipValue(depth + 1);
+                }
+                break;
+            }
+            case TAG_JSON:
+                readClassName();
+                readString();
+                break;
+            case TAG_OBJECT: {
+                readClassName();
+                final int count = readVarInt();
+                for (int i = 0; i < count; i++) {
+                    readSymbol();
+                    skipValue(depth + 1);
+                }
+                break;
+            }
+            default:
+                throw new CloudRuntimeException("Unknown tag " + tag + " at offset " + (_pos - 1));
+            }
+        }
+    }
+}
@@ -22,10 +22,15 @@ package com.cloud.agent.transport;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.StringReader;
+import java.io.Writer;
+import java.lang.reflect.Array;
 import java.lang.reflect.Type;
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -65,13 +70,18 @@ import com.cloud.utils.exception.CloudRuntimeException;
  *
  * A request looks as follows:
  * 1. Version - 1 byte;
- * 2. Flags - 3 bytes;
- * 3. Sequence - 8 bytes;
- * 4. Length - 4 bytes;
- * 5. ManagementServerId - 8 bytes;
- * 6. AgentId - 8 bytes;
- * 7. Data Package.
+ * 2. Accepted Version - 1 byte, the highest version the sender can read;
+ * 3. Flags - 2 bytes;
+ * 4. Sequence - 8 bytes;
+ * 5. Length - 4 bytes;
+ * 6. ManagementServerId - 8 bytes;
+ * 7. AgentId - 8 bytes;
+ * 8. Via - 8 bytes;
+ * 9. Data Package.
  *
+ * Data packages are json up to v3 and encoded by BinaryCodec from v4 on.
+ * A peer only gets v4 requests once it has advertised that it can read
+ * them, responses always go back in the version of the request.
  */
 public class Request {
     private static final Logger s_logger = Logger.getLogger(Request.class);
@@ -83,7 +93,8 @@ public class Request {
     public enum Version {
         v1, // using gson to marshall
         v2, // now using gson as marshalled.
-        v3; // Adding routing information into the Request data structure.
+        v3, // Adding routing information into the Request data structure.
+        v4; // commands are encoded by BinaryCodec instead of gson.
 
         public static Version get(final byte ver) throws UnsupportedVersionException {
             for (final Version version : Version.values()) {
@@ -93,8 +104,26 @@ public class Request {
             }
             throw new UnsupportedVersionException("Can't lookup version: " + ver, UnsupportedVersionException.UnknownVersion);
         }
+
+        /**
+         * @return the version an accepted version byte stands for; older
+         *         peers leave the byte at 0, newer ones may know versions
+         *         that are not in this list yet.
+         */
+        public static Version accepted(final byte ver) {
+            final Version[] versions = Version.values();
+            if (ver < 0 || ver >= versions.length) {
+                return ver < 0 ? v1 : versions[versions.length - 1];
+            }
+            return versions[ver];
+        }
     };
 
+    /**
+     * The highest version this side can read, advertised in every header.
+     */
+    public static final Version ACCEPTED_VERSION = Version.v4;
+
     protected static final short FLAG_RESPONSE = 0x0;
     protected static final short FLAG_REQUEST = 0x1;
     protected static final short FLAG_STOP_ON_ERROR = 0x2;
@@ -103,6 +132,9 @@ public class Request {
     protected static final short FLAG_CONTROL = 0x40;
     protected static final short FLAG_COMPRESSED = 0x80;
 
+    protected static final int COMPRESSION_THRESHOLD = 8192;
+    private static final int INITIAL_CONTENT_SIZE = 1024;
+
     protected Version _ver;
     protected long _session;
     protected long _seq;
@@ -110,10 +142,16 @@ public class Request {
     protected long _mgmtId;
     protected long _via;
     protected long _agentId;
+    protected Version _acceptedVer = Version.v1;
     protected Command[] _cmds;
     protected String _content;
+    protected byte[] _binaryContent;
     protected String _agentName;
 
+    /* content as last serialized by toBytes(), possibly compressed, and its uncompressed size */
+    private ByteBuffer _contentBuffer;
+    private int _contentSize;
+
     protected Request() {
     }
 
@@ -137,6 +175,11 @@ public class Request {
         _content = content;
     }
 
+    protected Request(Version ver, long seq, long agentId, long mgmtId, long via, short flags, final byte[] content) {
+        this(ver, seq, agentId, mgmtId, via, flags, (Command[])null);
+        _binaryContent = content;
+    }
+
     public Request(long agentId, long mgmtId, Command command, boolean fromServer) {
         this(agentId, mgmtId, new Command[] {command}, true, fromServer);
     }
@@ -217,6 +260,26 @@ public class Request {
         return _ver;
     }
 
+    /**
+     * @return the highest version the sender of this request can read.
+     */
+    public Version getAcceptedVersion() {
+        return _acceptedVer;
+    }
+
+    /**
+     * Picks the encoding for a request about to be sent to a peer that
+     * advertised peerVersion: the binary codec if it can read it, json
+     * otherwise.
+     */
+    public void negotiateVersion(final Version peerVersion) {
+        final Version ver = peerVersion.ordinal() >= Version.v4.ordinal() ? Version.v4 : Version.v1;
+        if (ver != _ver) {
+            _ver = ver;
+            _contentBuffer = null;
+        }
+    }
+
     public void setAgentId(long agentId) {
         _agentId = agentId;
     }
@@ -243,15 +306,33 @@ public class Request {
     }
 
     public Command[] getCommands() {
+        return getContent();
+    }
+
+    /**
+     * Decodes the commands, or answers for a Response, from whatever form
+     * they were received in.
+     */
+    protected Command[] getContent() {
         if (_cmds == null) {
-            try {
-                StringReader reader = new StringReader(_content);
-                JsonReader jsonReader = new JsonReader(reader);
-                jsonReader.setLenient(true);
-                _cmds = s_gson.fromJson(jsonReader, (Type)Command[].class);
-            } catch (RuntimeException e) {
-                s_logger.error("Caught problem with " + _content, e);
-                throw e;
+            final Class<? extends Command> type = this instanceof Response ? Answer.class : Command.class;
+            if (_binaryContent != null) {
+                try {
+                    _cmds = BinaryCodec.decode(_binaryContent, type);
+                } catch (RuntimeException e) {
+                    s_logger.error("Caught problem decoding " + _binaryContent.length + " bytes of " + getType(), e);
+                    throw e;
+                }
+            } else {
+                try {
+                    StringReader reader = new StringReader(_content);
+                    JsonReader jsonReader = new JsonReader(reader);
+                    jsonReader.setLenient(true);
+                    _cmds = s_gson.fromJson(jsonReader, (Type)Array.newInstance(type, 0).getClass());
+                } catch (RuntimeException e) {
+                    s_logger.error("Caught problem with " + _content, e);
+                    throw e;
+                }
             }
         }
         return _cmds;
@@ -264,7 +345,7 @@ public class Request {
     protected ByteBuffer serializeHeader(final int contentSize) {
         final ByteBuffer buffer = ByteBuffer.allocate(40);
         buffer.put(getVersionInByte());
-        buffer.put((byte)0);
+        buffer.put((byte)ACCEPTED_VERSION.ordinal());
         buffer.putShort(getFlags());
         buffer.putLong(_seq);
         // The size here is uncompressed size, if the data is compressed.
@@ -303,41 +384,78 @@ public class Request {
     }
 
     public static ByteBuffer doCompress(ByteBuffer buffer, int length) {
-        ByteArrayOutputStream byteOut = new ByteArrayOutputStream(length);
-        byte[] array;
-        if (buffer.hasArray()) {
-            array = buffer.array();
-        } else {
-            array = new byte[buffer.capacity()];
-            buffer.get(array);
-        }
+        ContentOutputStream byteOut = new ContentOutputStream(length);
         try {
             GZIPOutputStream out = new GZIPOutputStream(byteOut, length);
-            out.write(array);
+            if (buffer.hasArray()) {
+                out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            } else {
+                byte[] array = new byte[buffer.remaining()];
+                buffer.get(array);
+                out.write(array);
+            }
             out.finish();
             out.close();
         } catch (IOException e) {
             s_logger.error("Fail to compress the request!", e);
         }
-        return ByteBuffer.wrap(byteOut.toByteArray());
+        return byteOut.toByteBuffer();
+    }
+
+    /**
+     * Serializes the commands straight into their byte representation so
+     * that the json is not first materialized as a String and then copied
+     * again into a byte array. Content received in the same encoding is
+     * passed on as is.
+     */
+    protected ByteBuffer serializeContent() {
+        if (_ver == Version.v4) {
+            if (_binaryContent != null) {
+                return ByteBuffer.wrap(_binaryContent);
+            }
+            try {
+                return BinaryCodec.encode(getContent());
+            } catch (final BinaryCodec.UnsupportedClassException e) {
+                // the peer reads json as well, the header is written after the content
+                s_logger.debug("Sending " + getType() + " for seq " + _seq + " as json: " + e.getMessage());
+                _ver = Version.v1;
+            }
+        }
+
+        if (_content != null) {
+            return ByteBuffer.wrap(_content.getBytes());
+        }
+        final Command[] cmds = getContent();
+        final ContentOutputStream out = new ContentOutputStream(INITIAL_CONTENT_SIZE);
+        try {
+            final Writer writer = new OutputStreamWriter(out, Charset.defaultCharset());
+            s_gson.toJson(cmds, cmds.getClass(), writer);
+            writer.flush();
+        } catch (IOException e) {
+            throw new CloudRuntimeException("Unable to serialize " + getType() + " for seq " + _seq, e);
+        }
+        return out.toByteBuffer();
     }
 
     public ByteBuffer[] toBytes() {
         final ByteBuffer[] buffers = new ByteBuffer[2];
-        ByteBuffer tmp;
 
-        if (_content == null) {
-            _content = s_gson.toJson(_cmds, _cmds.getClass());
-        }
-        tmp = ByteBuffer.wrap(_content.getBytes());
-        int capacity = tmp.capacity();
-        /* Check if we need to compress the data */
-        if (capacity >= 8192) {
-            tmp = doCompress(tmp, capacity);
-            _flags |= FLAG_COMPRESSED;
+        if (_contentBuffer == null) {
+            ByteBuffer tmp = serializeContent();
+            final int size = tmp.remaining();
+            /* Check if we need to compress the data */
+            if (size >= COMPRESSION_THRESHOLD) {
+                tmp = doCompress(tmp, size);
+                _flags |= FLAG_COMPRESSED;
+            } else {
+                _flags &= ~FLAG_COMPRESSED;
+            }
+            _contentSize = size;
+            _contentBuffer = tmp;
         }
-        buffers[1] = tmp;
-        buffers[0] = serializeHeader(capacity);
+        // the cached buffer is shared, every caller gets its own position
+        buffers[1] = _contentBuffer.duplicate();
+        buffers[0] = serializeHeader(_contentSize);
 
         return buffers;
     }
@@ -395,14 +513,7 @@ public class Request {
     protected String log(String msg, boolean logContent, Level level) {
         StringBuilder content = new StringBuilder();
         if (logContent) {
-            if (_cmds == null) {
-                try {
-                    _cmds = s_gson.fromJson(_content, this instanceof Response ? Answer[].class : Command[].class);
-                } catch (RuntimeException e) {
-                    s_logger.error("Unable to deserialize from json: " + _content);
-                    throw e;
-                }
-            }
+            getContent();
             try {
                 s_gogger.toJson(_cmds, content);
             } catch (Throwable e) {
@@ -418,9 +529,7 @@ public class Request {
                 return null;
             }
         } else {
-            if (_cmds == null) {
-                _cmds = s_gson.fromJson(_content, this instanceof Response ? Answer[].class : Command[].class);
-            }
+            getContent();
             content.append("{ ");
             for (Command cmd : _cmds) {
                 content.append(cmd.getClass().getSimpleName()).append(", ");
@@ -486,10 +595,10 @@ public class Request {
         ByteBuffer buff = ByteBuffer.wrap(bytes);
         final byte ver = buff.get();
         final Version version = Version.get(ver);
-        if (version.ordinal() != Version.v1.ordinal() && version.ordinal() != Version.v3.ordinal()) {
+        if (version.ordinal() != Version.v1.ordinal() && version.ordinal() != Version.v3.ordinal() && version.ordinal() != Version.v4.ordinal()) {
             throw new UnsupportedVersionException("This version is no longer supported: " + version.toString(), UnsupportedVersionException.IncompatibleVersion);
         }
-        buff.get();
+        final Version accepted = Version.accepted(buff.get());
         final short flags = buff.getShort();
         final boolean isRequest = (flags & FLAG_REQUEST) > 0;
 
@@ -500,7 +609,7 @@ public class Request {
         final long agentId = buff.getLong();
 
         long via;
-        if (version.ordinal() == Version.v1.ordinal()) {
+        if (version.ordinal() != Version.v3.ordinal()) {
             via = buff.getLong();
         } else {
             via = agentId;
@@ -521,13 +630,24 @@ public class Request {
             offset = 0;
         }
 
-        final String content = new String(command, offset, command.length - offset);
-
-        if (isRequest) {
-            return new Request(version, seq, agentId, mgmtId, via, flags, content);
+        final Request request;
+        if (version == Version.v4) {
+            final byte[] content = offset == 0 ? command : Arrays.copyOfRange(command, offset, command.length);
+            if (isRequest) {
+                request = new Request(version, seq, agentId, mgmtId, via, flags, content);
+            } else {
+                request = new Response(version, seq, agentId, mgmtId, via, flags, content);
+            }
         } else {
-            return new Response(Version.get(ver), seq, agentId, mgmtId, via, flags, content);
+            final String content = new String(command, offset, command.length - offset);
+            if (isRequest) {
+                request = new Request(version, seq, agentId, mgmtId, via, flags, content);
+            } else {
+                request = new Response(version, seq, agentId, mgmtId, via, flags, content);
+            }
         }
+        request._acceptedVer = accepted;
+        return request;
     }
 
     public long getAgentId() {
@@ -656,4 +776,18 @@ public class Request {
             return pcs;
         }
     }
+
+    /**
+     * ByteArrayOutputStream that hands out its internal buffer instead of
+     * copying it, used when the result is immediately wrapped for sending.
+     */
+    private static class ContentOutputStream extends ByteArrayOutputStream {
+        public ContentOutputStream(int size) {
+            super(size);
+        }
+
+        public ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
 }
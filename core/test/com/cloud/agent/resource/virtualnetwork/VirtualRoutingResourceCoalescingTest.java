@@ -0,0 +1,256 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.resource.virtualnetwork;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.joda.time.Duration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloud.agent.api.Answer;
+import com.cloud.agent.api.routing.AggregationControlCommand;
+import com.cloud.agent.api.routing.AggregationControlCommand.Action;
+import com.cloud.agent.api.routing.DhcpEntryCommand;
+import com.cloud.agent.api.routing.GroupAnswer;
+import com.cloud.agent.api.routing.NetworkElementCommand;
+import com.cloud.agent.api.routing.SavePasswordCommand;
+import com.cloud.agent.api.routing.VmDataCommand;
+import com.cloud.utils.ExecutionResult;
+
+/**
+ * Drives VirtualRoutingResource from several threads at once to check how config commands queued behind the router lock
+ * are coalesced into one aggregated push.
+ */
+public class VirtualRoutingResourceCoalescingTest implements VirtualRouterDeployer {
+    private static final String ROUTERIP = "169.254.3.4";
+    private static final String ROUTERNAME = "r-4-VM";
+
+    private VirtualRoutingResource _resource;
+    private ExecutorService _executor;
+    // files and scripts pushed to the router, in order
+    private final List<String> _pushed = Collections.synchronizedList(new ArrayList<String>());
+    private CountDownLatch _firstPushStarted;
+    private CountDownLatch _releaseFirstPush;
+    private String _failAggregatedRun;
+
+    @Override
+    public ExecutionResult executeInVR(final String routerIp, final String script, final String args) {
+        return executeInVR(routerIp, script, args, VRScripts.VR_SCRIPT_EXEC_TIMEOUT);
+    }
+
+    @Override
+    public ExecutionResult executeInVR(final String routerIp, final String script, final String args, final Duration timeout) {
+        assertEquals(ROUTERIP, routerIp);
+        _pushed.add(script + " " + args);
+        if (script.equals(VRScripts.VR_CFG) && _failAggregatedRun != null) {
+            return new ExecutionResult(false, "VR config: execution failed: \"/opt/cloud/bin/" + VRScripts.UPDATE_CONFIG + " " + _failAggregatedRun
+                    + "\", check /var/log/cloud.log in VR for details");
+        }
+        return new ExecutionResult(true, null);
+    }
+
+    @Override
+    public ExecutionResult createFileInVR(final String routerIp, final String path, final String filename, final String content) {
+        assertEquals(ROUTERIP, routerIp);
+        _pushed.add(filename.startsWith("VR-") ? "VR-cfg" : filename);
+        if (_firstPushStarted.getCount() > 0) {
+            _firstPushStarted.countDown();
+            try {
+                _releaseFirstPush.await(30, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return new ExecutionResult(true, null);
+    }
+
+    @Override
+    public ExecutionResult prepareCommand(final NetworkElementCommand cmd) {
+        cmd.setRouterAccessIp(ROUTERIP);
+        return new ExecutionResult(true, null);
+    }
+
+    @Override
+    public ExecutionResult cleanupCommand(final NetworkElementCommand cmd) {
+        return new ExecutionResult(true, null);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        _resource = new VirtualRoutingResource(this);
+        _resource.configure("VRResource", new HashMap<String, Object>());
+        _executor = Executors.newCachedThreadPool();
+        _firstPushStarted = new CountDownLatch(1);
+        _releaseFirstPush = new CountDownLatch(1);
+    }
+
+    @After
+    public void tearDown() {
+        _releaseFirstPush.countDown();
+        _executor.shutdownNow();
+    }
+
+    private static <T extends NetworkElementCommand> T forRouter(final T cmd) {
+        cmd.setAccessDetail(NetworkElementCommand.ROUTER_NAME, ROUTERNAME);
+        return cmd;
+    }
+
+    private Future<Answer> submit(final NetworkElementCommand cmd) {
+        return _executor.submit(new Callable<Answer>() {
+            @Override
+            public Answer call() {
+                return _resource.executeRequest(cmd);
+            }
+        });
+    }
+
+    /**
+     * Starts a first command that holds the router lock while its config is pushed, and queues the given commands behind it.
+     */
+    private List<Future<Answer>> submitBehindFirstPush(final NetworkElementCommand... cmds) throws Exception {
+        final Future<Answer> first = submit(forRouter(new DhcpEntryCommand("02:00:00:00:00:01", "10.1.1.1", "vm-1", null, false)));
+        assertTrue(_firstPushStarted.await(30, TimeUnit.SECONDS));
+
+        final List<Future<Answer>> answers = new ArrayList<Future<Answer>>();
+        answers.add(first);
+        final ReentrantLock lock = (ReentrantLock)_resource._vrLockMap.get(ROUTERNAME);
+        for (final NetworkElementCommand cmd : cmds) {
+            answers.add(submit(forRouter(cmd)));
+            // one at a time, so the commands are queued in the given order
+            final long deadline = System.currentTimeMillis() + 30000;
+            while (lock.getQueueLength() < answers.size() - 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(answers.size() - 1, lock.getQueueLength());
+        }
+        return answers;
+    }
+
+    @Test
+    public void testSingleCommandIsAppliedOnItsOwn() throws Exception {
+        _releaseFirstPush.countDown();
+        final Answer answer = _resource.executeRequest(forRouter(new SavePasswordCommand("password", "10.1.1.2", "vm-2", false)));
+
+        assertTrue(answer.getResult());
+        assertEquals(2, _pushed.size());
+        assertEquals(VRScripts.VM_PASSWORD_CONFIG, _pushed.get(0));
+        assertEquals(0, _resource.getCoalescedPushes());
+    }
+
+    @Test
+    public void testQueuedCommandsShareOnePush() throws Exception {
+        final List<Future<Answer>> answers = submitBehindFirstPush(new SavePasswordCommand("password", "10.1.1.2", "vm-2", false),
+                new VmDataCommand("10.1.1.3", "vm-3", false), new DhcpEntryCommand("02:00:00:00:00:04", "10.1.1.4", "vm-4", null, false));
+        _releaseFirstPush.countDown();
+
+        final Set<Answer> distinct = Collections.newSetFromMap(new IdentityHashMap<Answer, Boolean>());
+        for (final Future<Answer> answer : answers) {
+            final Answer result = answer.get(30, TimeUnit.SECONDS);
+            assertTrue(result.getResult());
+            // a data bag file and the script applying it
+            assertEquals(2, ((GroupAnswer)result).getResults().length);
+            distinct.add(result);
+        }
+        assertEquals("Every caller gets its own answer", answers.size(), distinct.size());
+        // the first command on its own, the three queued behind it as one config file
+        assertEquals(4, _pushed.size());
+        assertEquals("VR-cfg", _pushed.get(2));
+        assertTrue(_pushed.get(3).startsWith(VRScripts.VR_CFG));
+        assertEquals(1, _resource.getCoalescedPushes());
+        assertEquals(3, _resource.getCoalescedCommands());
+        assertEquals(0, _resource.getCoalescedFailures());
+    }
+
+    @Test
+    public void testFailedPushOnlyReappliesFromTheFailingCommand() throws Exception {
+        _failAggregatedRun = VRScripts.VM_METADATA_CONFIG;
+        final List<Future<Answer>> answers = submitBehindFirstPush(new SavePasswordCommand("password", "10.1.1.2", "vm-2", false),
+                new VmDataCommand("10.1.1.3", "vm-3", false), new DhcpEntryCommand("02:00:00:00:00:04", "10.1.1.4", "vm-4", null, false));
+        _releaseFirstPush.countDown();
+
+        for (final Future<Answer> answer : answers) {
+            assertNotNull(answer.get(30, TimeUnit.SECONDS));
+            assertTrue(answer.get().getResult());
+        }
+        assertEquals(1, _resource.getCoalescedFailures());
+        // the password went out before the vm data broke the run and is not pushed again
+        final List<String> reapplied = _pushed.subList(4, _pushed.size());
+        assertFalse(reapplied.contains(VRScripts.VM_PASSWORD_CONFIG));
+        assertEquals(4, reapplied.size());
+        assertEquals(VRScripts.VM_METADATA_CONFIG, reapplied.get(0));
+        assertEquals(VRScripts.VM_DHCP_CONFIG, reapplied.get(2));
+    }
+
+    @Test
+    public void testUnknownFailureReappliesAllCommands() throws Exception {
+        _failAggregatedRun = "unknown.json";
+        final List<Future<Answer>> answers = submitBehindFirstPush(new SavePasswordCommand("password", "10.1.1.2", "vm-2", false),
+                new VmDataCommand("10.1.1.3", "vm-3", false));
+        _releaseFirstPush.countDown();
+
+        for (final Future<Answer> answer : answers) {
+            assertTrue(answer.get(30, TimeUnit.SECONDS).getResult());
+        }
+        final List<String> reapplied = _pushed.subList(4, _pushed.size());
+        assertEquals(4, reapplied.size());
+        assertEquals(VRScripts.VM_PASSWORD_CONFIG, reapplied.get(0));
+        assertEquals(VRScripts.VM_METADATA_CONFIG, reapplied.get(2));
+    }
+
+    @Test
+    public void testCommandsInsideAggregationAreHeldUntilFinish() throws Exception {
+        _releaseFirstPush.countDown();
+        final AggregationControlCommand start = forRouter(new AggregationControlCommand(Action.Start, ROUTERNAME, ROUTERIP, ROUTERIP));
+        assertTrue(_resource.executeRequest(start).getResult());
+
+        final List<Future<Answer>> answers = new ArrayList<Future<Answer>>();
+        answers.add(submit(forRouter(new SavePasswordCommand("password", "10.1.1.2", "vm-2", false))));
+        answers.add(submit(forRouter(new VmDataCommand("10.1.1.3", "vm-3", false))));
+        for (final Future<Answer> answer : answers) {
+            assertTrue(answer.get(30, TimeUnit.SECONDS).getResult());
+        }
+        assertTrue("Nothing is pushed before the aggregation finishes", _pushed.isEmpty());
+
+        final AggregationControlCommand finish = forRouter(new AggregationControlCommand(Action.Finish, ROUTERNAME, ROUTERIP, ROUTERIP));
+        assertTrue(_resource.executeRequest(finish).getResult());
+        assertEquals(2, _pushed.size());
+        assertEquals("VR-cfg", _pushed.get(0));
+        assertEquals(0, _resource.getCoalescedPushes());
+    }
+}
@@ -0,0 +1,232 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.agent.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+import com.cloud.agent.api.Answer;
+import com.cloud.agent.api.Command;
+import com.cloud.vm.VirtualMachine.PowerState;
+
+public class BinaryCodecTest extends TestCase {
+
+    public static class FieldsCommand extends Command {
+        int count;
+        Long size;
+        String name;
+        PowerState state;
+        Date created;
+        byte[] data;
+        long[] ids;
+        String[][] matrix;
+        List<String> names;
+        Map<String, Long> sizes;
+        Object anonymous;
+        URI uri;
+        transient String secret;
+
+        @Override
+        public boolean executeInSequence() {
+            return false;
+        }
+    }
+
+    public static class VersionACommand extends Command {
+        String kept;
+
+        @Override
+        public boolean executeInSequence() {
+            return false;
+        }
+    }
+
+    public static class VersionBCommand extends Command {
+        String kept;
+        FieldsCommand added;
+
+        @Override
+        public boolean executeInSequence() {
+            return false;
+        }
+    }
+
+    public static class NamesList extends ArrayList<String> {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static <T> T[] roundTrip(final Object[] values, final Class<T> type) {
+        final ByteBuffer buffer = BinaryCodec.encode(values);
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return BinaryCodec.decode(bytes, type);
+    }
+
+    public void testFieldTypes() {
+        final FieldsCommand cmd = new FieldsCommand();
+        cmd.count = -3;
+        cmd.size = Long.MAX_VALUE;
+        cmd.name = "näme";
+        cmd.state = PowerState.PowerOn;
+        cmd.created = new Date(1234567L);
+        cmd.data = new byte[] {1, -1, 0};
+        cmd.ids = new long[] {5, -6};
+        cmd.matrix = new String[][] {{"a", null}, {"b"}};
+        cmd.names = new LinkedList<String>(Arrays.asList("x", "y"));
+        cmd.sizes = new TreeMap<String, Long>();
+        cmd.sizes.put("b", 2L);
+        cmd.sizes.put("a", 1L);
+        cmd.anonymous = new Object() {
+        };
+        cmd.uri = URI.create("vlan://100");
+        cmd.secret = "secret";
+        cmd.setContextParam("logid", "abc");
+
+        final FieldsCommand decoded = (FieldsCommand)roundTrip(new Command[] {cmd}, Command.class)[0];
+
+        assertEquals(-3, decoded.count);
+        assertEquals(Long.valueOf(Long.MAX_VALUE), decoded.size);
+        assertEquals("näme", decoded.name);
+        assertEquals(PowerState.PowerOn, decoded.state);
+        assertEquals(new Date(1234567L), decoded.created);
+        assertTrue(Arrays.equals(cmd.data, decoded.data));
+        assertTrue(Arrays.equals(cmd.ids, decoded.ids));
+        assertTrue(Arrays.deepEquals(cmd.matrix, decoded.matrix));
+        assertEquals(LinkedList.class, decoded.names.getClass());
+        assertEquals(cmd.names, decoded.names);
+        assertEquals(TreeMap.class, decoded.sizes.getClass());
+        assertEquals(cmd.sizes, decoded.sizes);
+        assertNull("Anonymous classes are dropped like gson does", decoded.anonymous);
+        assertEquals(URI.create("vlan://100"), decoded.uri);
+        assertNull("Transient fields are not sent", decoded.secret);
+        assertEquals("abc", decoded.getContextParam("logid"));
+    }
+
+    public void testFieldsOnlyKnownToTheSenderAreSkipped() {
+        final VersionBCommand cmd = new VersionBCommand();
+        cmd.kept = "kept";
+        cmd.added = new FieldsCommand();
+        cmd.added.names = Arrays.asList("x");
+
+        final ByteBuffer buffer = BinaryCodec.encode(new Command[] {cmd});
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        // both class names have the same length, so the receiving side can be swapped in place
+        final byte[] from = VersionBCommand.class.getName().getBytes(StandardCharsets.UTF_8);
+        final byte[] to = VersionACommand.class.getName().getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i <= bytes.length - from.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(bytes, i, i + from.length), from)) {
+                System.arraycopy(to, 0, bytes, i, to.length);
+            }
+        }
+
+        final Command[] decoded = BinaryCodec.decode(bytes, Command.class);
+        assertEquals(VersionACommand.class, decoded[0].getClass());
+        assertEquals("kept", ((VersionACommand)decoded[0]).kept);
+    }
+
+    public void testTruncatedContentFails() {
+        final VersionACommand cmd = new VersionACommand();
+        cmd.kept = "kept";
+        final ByteBuffer buffer = BinaryCodec.encode(new Command[] {cmd});
+        final byte[] bytes = new byte[buffer.remaining() - 2];
+        buffer.get(bytes);
+        try {
+            BinaryCodec.decode(bytes, Command.class);
+            fail("Decoding truncated content should fail");
+        } catch (final RuntimeException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Content holding one object of the named class without any fields, the
+     * way a peer would send it.
+     */
+    private static byte[] objectNamed(final String className) {
+        final byte[] name = className.getBytes(StandardCharsets.UTF_8);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // one value, an object with a class written by name, a new symbol
+        out.write(1);
+        out.write(18);
+        out.write(1);
+        out.write(0);
+        out.write(name.length);
+        out.write(name, 0, name.length);
+        // no fields
+        out.write(0);
+        return out.toByteArray();
+    }
+
+    public void testClassesOutsideTheAllowedOnesAreRefused() {
+        for (final String name : Arrays.asList("java.util.PriorityQueue", "javax.management.BadAttributeValueExpException",
+                "org.apache.commons.collections.functors.InvokerTransformer", "[Ljava.lang.Thread;")) {
+            try {
+                BinaryCodec.decode(objectNamed(name), Object.class);
+                fail("Decoding a " + name + " should fail");
+            } catch (final RuntimeException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Refusing"));
+            }
+        }
+        assertEquals(VersionACommand.class, BinaryCodec.decode(objectNamed(VersionACommand.class.getName()), Command.class)[0].getClass());
+    }
+
+    public void testObjectsMustFitTheDeclaredType() {
+        try {
+            BinaryCodec.decode(objectNamed(VersionACommand.class.getName()), Answer.class);
+            fail("A command can't be decoded where an answer is expected");
+        } catch (final RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Refusing"));
+        }
+    }
+
+    public void testContainersAreCreatedFromTheDeclaredType() {
+        final FieldsCommand cmd = new FieldsCommand();
+        cmd.names = new NamesList();
+        cmd.names.add("x");
+
+        final FieldsCommand decoded = (FieldsCommand)roundTrip(new Command[] {cmd}, Command.class)[0];
+        assertEquals(ArrayList.class, decoded.names.getClass());
+        assertEquals(cmd.names, decoded.names);
+    }
+
+    public void testUnsupportedClassesAreNotEncoded() {
+        final FieldsCommand cmd = new FieldsCommand();
+        cmd.anonymous = new AtomicLong(3);
+        try {
+            BinaryCodec.encode(new Command[] {cmd});
+            fail("Encoding an AtomicLong should fail");
+        } catch (final BinaryCodec.UnsupportedClassException e) {
+            // expected, Request sends it as json
+        }
+    }
+}
@@ -20,6 +20,10 @@
 package com.cloud.agent.transport;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import junit.framework.TestCase;
 
@@ -34,12 +38,19 @@ import org.apache.cloudstack.storage.to.TemplateObjectTO;
 import com.cloud.agent.api.Answer;
 import com.cloud.agent.api.Command;
 import com.cloud.agent.api.GetHostStatsCommand;
+import com.cloud.agent.api.GetVmStatsAnswer;
+import com.cloud.agent.api.GetVmStatsCommand;
+import com.cloud.agent.api.HostVmStateReportEntry;
+import com.cloud.agent.api.PingRoutingWithNwGroupsCommand;
 import com.cloud.agent.api.SecStorageFirewallCfgCommand;
 import com.cloud.agent.api.UpdateHostPasswordCommand;
+import com.cloud.agent.api.VmStatsEntry;
 import com.cloud.agent.api.storage.DownloadAnswer;
 import com.cloud.agent.api.storage.ListTemplateCommand;
 import com.cloud.agent.api.to.NfsTO;
+import com.cloud.agent.transport.Request.Version;
 import com.cloud.exception.UnsupportedVersionException;
+import com.cloud.host.Host;
 import com.cloud.hypervisor.Hypervisor.HypervisorType;
 import com.cloud.serializer.GsonHelper;
 import com.cloud.storage.DataStoreRole;
@@ -47,6 +58,8 @@ import com.cloud.storage.Storage.ImageFormat;
 import com.cloud.storage.Storage.TemplateType;
 import com.cloud.storage.VMTemplateStorageResourceAssoc.Status;
 import com.cloud.template.VirtualMachineTemplate;
+import com.cloud.utils.Pair;
+import com.cloud.vm.VirtualMachine.PowerState;
 
 /**
  *
@@ -210,6 +223,108 @@ public class RequestTest extends TestCase {
         }
     }
 
+    public void testCompressedSerDeser() throws ClassNotFoundException, UnsupportedVersionException {
+        s_logger.info("Testing that large requests are compressed and parsed back");
+        Command[] cmds = new Command[500];
+        for (int i = 0; i < cmds.length; i++) {
+            cmds[i] = new GetHostStatsCommand("hostguid-" + i, "hostname-" + i, i);
+        }
+        Request sreq = new Request(2, 3, cmds, true, true);
+        sreq.setSequence(892403718);
+
+        ByteBuffer[] buffers = sreq.toBytes();
+        assertTrue("Header should carry the uncompressed size", buffers[0].getInt(4 + 8) >= Request.COMPRESSION_THRESHOLD);
+        assertTrue("Content should be compressed", buffers[1].remaining() < buffers[0].getInt(4 + 8));
+
+        Request creq = Request.parse(sreq.getBytes());
+        assertEquals(sreq.getSequence(), creq.getSequence());
+        assertEquals(cmds.length, creq.getCommands().length);
+        GetHostStatsCommand last = (GetHostStatsCommand)creq.getCommands()[cmds.length - 1];
+        assertEquals("hostguid-" + (cmds.length - 1), last.getHostGuid());
+    }
+
+    public void testBinarySerDeser() throws ClassNotFoundException, UnsupportedVersionException {
+        s_logger.info("Testing that requests and responses negotiated to v4 go through the binary codec");
+        Map<String, HostVmStateReportEntry> report = new HashMap<String, HostVmStateReportEntry>();
+        report.put("i-2-3-VM", new HostVmStateReportEntry(PowerState.PowerOn, "host1"));
+        report.put("i-2-4-VM", new HostVmStateReportEntry(PowerState.PowerOff, "host1"));
+        HashMap<String, Pair<Long, Long>> groupStates = new HashMap<String, Pair<Long, Long>>();
+        groupStates.put("i-2-3-VM", new Pair<Long, Long>(5L, null));
+        PingRoutingWithNwGroupsCommand ping = new PingRoutingWithNwGroupsCommand(Host.Type.Routing, 7, report, groupStates);
+        Request sreq = new Request(7, 3, ping, false);
+        sreq.setSequence(892403719);
+        sreq.negotiateVersion(Version.v4);
+
+        byte[] bytes = sreq.getBytes();
+        assertEquals(Version.v4, Request.getVersion(bytes));
+
+        Request creq = Request.parse(bytes);
+        compareRequest(creq, sreq);
+        assertEquals(Request.ACCEPTED_VERSION, creq.getAcceptedVersion());
+        PingRoutingWithNwGroupsCommand cping = (PingRoutingWithNwGroupsCommand)creq.getCommand();
+        assertEquals(Host.Type.Routing, cping.getHostType());
+        assertEquals(7, cping.getHostId());
+        assertEquals(PowerState.PowerOff, cping.getHostVmStateReport().get("i-2-4-VM").getState());
+        assertEquals("host1", cping.getHostVmStateReport().get("i-2-3-VM").getHost());
+        assertEquals(Long.valueOf(5), cping.getNewGroupStates().get("i-2-3-VM").first());
+        assertNull(cping.getNewGroupStates().get("i-2-3-VM").second());
+
+        HashMap<String, VmStatsEntry> stats = new HashMap<String, VmStatsEntry>();
+        stats.put("i-2-3-VM", new VmStatsEntry(1024, 512, 2048, 12.5, 1.5, 2.5, 2, "vm"));
+        Response sresp = new Response(creq, new GetVmStatsAnswer(new GetVmStatsCommand(Arrays.asList("i-2-3-VM"), "guid", "host1"), stats));
+        assertEquals("Responses go back in the version of the request", Version.v4, sresp.getVersion());
+
+        Response cresp = Response.parse(sresp.getBytes());
+        compareRequest(cresp, sresp);
+        VmStatsEntry entry = ((GetVmStatsAnswer)cresp.getAnswer()).getVmStatsMap().get("i-2-3-VM");
+        assertEquals(12.5, entry.getCPUUtilization(), 0);
+        assertEquals(2, entry.getNumCPUs());
+        assertEquals("vm", entry.getEntityType());
+    }
+
+    public void testNegotiateVersionKeepsJsonForOldPeers() throws ClassNotFoundException, UnsupportedVersionException {
+        s_logger.info("Testing that peers that did not advertise v4 keep getting json");
+        GetHostStatsCommand cmd = new GetHostStatsCommand("hostguid", "hostname", 101);
+        Request sreq = new Request(2, 3, cmd, true);
+        sreq.negotiateVersion(Version.v4);
+        sreq.toBytes();
+        sreq.negotiateVersion(Version.v1);
+
+        byte[] bytes = sreq.getBytes();
+        assertEquals(Version.v1, Request.getVersion(bytes));
+        assertEquals((byte)'[', bytes[40]);
+
+        // headers of older peers carry 0 where the accepted version now is
+        bytes[1] = 0;
+        Request creq = Request.parse(bytes);
+        assertEquals(Version.v1, creq.getAcceptedVersion());
+        assertEquals("hostguid", ((GetHostStatsCommand)creq.getCommand()).getHostGuid());
+    }
+
+    public void testContentTheCodecDoesNotSendGoesAsJson() throws ClassNotFoundException, UnsupportedVersionException {
+        s_logger.info("Testing that content with classes the binary codec refuses is sent as json");
+        BinaryCodecTest.FieldsCommand cmd = new BinaryCodecTest.FieldsCommand();
+        cmd.anonymous = new AtomicLong(3);
+        Request sreq = new Request(2, 3, cmd, true);
+        sreq.negotiateVersion(Version.v4);
+
+        byte[] bytes = sreq.getBytes();
+        assertEquals(Version.v1, Request.getVersion(bytes));
+        assertEquals(BinaryCodecTest.FieldsCommand.class, Request.parse(bytes).getCommand().getClass());
+    }
+
+    public void testToBytesReusesSerializedContent() {
+        s_logger.info("Testing that the content is only serialized once");
+        Request sreq = new Request(2, 3, new GetHostStatsCommand("hostguid", "hostname", 101), true);
+        ByteBuffer[] first = sreq.toBytes();
+        ByteBuffer[] second = sreq.toBytes();
+        assertSame(first[1].array(), second[1].array());
+        assertEquals(first[1], second[1]);
+
+        first[1].position(first[1].limit());
+        assertTrue("Consuming one copy should not affect the next", sreq.toBytes()[1].hasRemaining());
+    }
+
     public void testLogging() {
         s_logger.info("Testing Logging");
         GetHostStatsCommand cmd3 = new GetHostStatsCommand("hostguid", "hostname", 101);
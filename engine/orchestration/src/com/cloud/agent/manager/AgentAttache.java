@@ -27,8 +27,8 @@ import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.cloudstack.managed.context.ManagedContextRunnable;
@@ -58,6 +58,7 @@ import com.cloud.agent.transport.Response;
 import com.cloud.exception.AgentUnavailableException;
 import com.cloud.exception.OperationTimedoutException;
 import com.cloud.host.Status;
+import com.cloud.utils.concurrency.HashedWheelTimer;
 import com.cloud.utils.concurrency.NamedThreadFactory;
 
 /**
@@ -66,7 +67,9 @@ import com.cloud.utils.concurrency.NamedThreadFactory;
 public abstract class AgentAttache {
     private static final Logger s_logger = Logger.getLogger(AgentAttache.class);
 
-    private static final ScheduledExecutorService s_listenerExecutor = Executors.newScheduledThreadPool(10, new NamedThreadFactory("ListenerTimer"));
+    private static final ExecutorService s_listenerExecutor = Executors.newFixedThreadPool(10, new NamedThreadFactory("ListenerTimer"));
+    // One second is the granularity of Listener.getTimeout()
+    private static final HashedWheelTimer s_listenerTimer = new HashedWheelTimer("ListenerTimerWheel", 1, TimeUnit.SECONDS, 1024, s_listenerExecutor);
     private static final Random s_rand = new Random(System.currentTimeMillis());
 
     protected static final Comparator<Request> s_reqComparator = new Comparator<Request>() {
@@ -102,6 +105,7 @@ public abstract class AgentAttache {
     protected final long _id;
     protected String _name = null;
     protected final ConcurrentHashMap<Long, Listener> _waitForList;
+    protected final ConcurrentHashMap<Long, HashedWheelTimer.Timeout> _listenerTimeouts;
     protected final LinkedList<Request> _requests;
     protected Long _currentSequence;
     protected Status _status = Status.Connecting;
@@ -125,6 +129,7 @@ public abstract class AgentAttache {
         _id = id;
         _name = name;
         _waitForList = new ConcurrentHashMap<Long, Listener>();
+        _listenerTimeouts = new ConcurrentHashMap<Long, HashedWheelTimer.Timeout>();
         _currentSequence = null;
         _maintenance = maintenance;
         _requests = new LinkedList<Request>();
@@ -193,6 +198,7 @@ public abstract class AgentAttache {
         if (s_logger.isDebugEnabled()) {
             s_logger.debug(log(seq, "Cancelling."));
         }
+        cancelListenerTimeout(seq);
         final Listener listener = _waitForList.remove(seq);
         if (listener != null) {
             listener.processDisconnect(_id, Status.Disconnected);
@@ -220,7 +226,10 @@ public abstract class AgentAttache {
             s_logger.trace(log(seq, "Registering listener"));
         }
         if (listener.getTimeout() != -1) {
-            s_listenerExecutor.schedule(new Alarm(seq), listener.getTimeout(), TimeUnit.SECONDS);
+            final HashedWheelTimer.Timeout previous = _listenerTimeouts.put(seq, s_listenerTimer.schedule(new Alarm(seq), listener.getTimeout(), TimeUnit.SECONDS));
+            if (previous != null) {
+                previous.cancel();
+            }
         }
         _waitForList.put(seq, listener);
     }
@@ -229,9 +238,17 @@ public abstract class AgentAttache {
         if (s_logger.isTraceEnabled()) {
             s_logger.trace(log(sequence, "Unregistering listener"));
         }
+        cancelListenerTimeout(sequence);
         return _waitForList.remove(sequence);
     }
 
+    private void cancelListenerTimeout(final long sequence) {
+        final HashedWheelTimer.Timeout timeout = _listenerTimeouts.remove(sequence);
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
     protected Listener getListener(final long sequence) {
         return _waitForList.get(sequence);
     }
@@ -316,6 +333,7 @@ public abstract class AgentAttache {
             while (it.hasNext()) {
                 final Map.Entry<Long, Listener> entry = it.next();
                 it.remove();
+                cancelListenerTimeout(entry.getKey());
                 final Listener monitor = entry.getValue();
                 if (s_logger.isDebugEnabled()) {
                     s_logger.debug(log(entry.getKey(), "Sending disconnect to " + monitor.getClass()));
@@ -172,6 +172,7 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
 
     protected StateMachine2<Status, Status.Event, Host> _statusStateMachine = Status.getStateMachine();
     private final ConcurrentHashMap<Long, Long> _pingMap = new ConcurrentHashMap<Long, Long>(10007);
+    private static final int PING_TIMEOUT_BATCH_SIZE = 500;
 
     @Inject
     ResourceManager _resourceMgr;
@@ -179,6 +180,8 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
     protected final ConfigKey<Integer> Workers = new ConfigKey<Integer>("Advanced", Integer.class, "workers", "5",
                     "Number of worker threads handling remote agent connections.", false);
     protected final ConfigKey<Integer> Port = new ConfigKey<Integer>("Advanced", Integer.class, "port", "8250", "Port to listen on for remote agent connections.", false);
+    protected final ConfigKey<Integer> IoThreads = new ConfigKey<Integer>("Advanced", Integer.class, "agent.io.threads", "0",
+                    "Number of selector threads doing the network I/O of remote agent connections. With 0 the thread accepting the connections does all of it.", false);
     protected final ConfigKey<Integer> PingInterval = new ConfigKey<Integer>("Advanced", Integer.class, "ping.interval", "60",
                     "Interval to send application level pings to make sure the connection is still working", false);
     protected final ConfigKey<Float> PingTimeout = new ConfigKey<Float>("Advanced", Float.class, "ping.timeout", "2.5",
@@ -220,8 +223,8 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         // allow core threads to time out even when there are no items in the queue
         _connectExecutor.allowCoreThreadTimeOut(true);
 
-        _connection = new NioServer("AgentManager", Port.value(), Workers.value() + 10, this);
-        s_logger.info("Listening on " + Port.value() + " with " + Workers.value() + " workers");
+        _connection = new NioServer("AgentManager", Port.value(), Workers.value() + 10, IoThreads.value(), this);
+        s_logger.info("Listening on " + Port.value() + " with " + Workers.value() + " workers and " + IoThreads.value() + " io threads");
 
         // executes all agent commands other than cron and ping
         _directAgentExecutor = new ScheduledThreadPoolExecutor(DirectAgentPoolSize.value(), new NamedThreadFactory("DirectAgent"));
@@ -1084,6 +1087,9 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
             if (host != null) {
                 ready = new ReadyCommand(host.getDataCenterId(), host.getId());
                 attache = createAttacheForConnect(host, link);
+                if (attache instanceof ConnectedAgentAttache) {
+                    ((ConnectedAgentAttache)attache).setPeerVersion(request.getAcceptedVersion());
+                }
                 attache = notifyMonitorsOfConnection(attache, startup, false);
             }
         } catch (final Exception e) {
@@ -1568,30 +1574,23 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
 
             try {
                 final List<Long> behindAgents = findAgentsBehindOnPing();
-                for (final Long agentId : behindAgents) {
-                    final QueryBuilder<HostVO> sc = QueryBuilder.create(HostVO.class);
-                    sc.and(sc.entity().getId(), Op.EQ, agentId);
-                    final HostVO h = sc.find();
-                    if (h != null) {
-                        final ResourceState resourceState = h.getResourceState();
-                        if (resourceState == ResourceState.Disabled || resourceState == ResourceState.Maintenance || resourceState == ResourceState.ErrorInMaintenance) {
-                            /*
-                             * Host is in non-operation state, so no investigation and direct put agent to Disconnected
-                             */
-                            status_logger.debug("Ping timeout but agent " + agentId + " is in resource state of " + resourceState + ", so no investigation");
-                            disconnectWithoutInvestigation(agentId, Event.ShutdownRequested);
-                        } else {
-                            final HostVO host = _hostDao.findById(agentId);
-                            if (host != null && (host.getType() == Host.Type.ConsoleProxy || host.getType() == Host.Type.SecondaryStorageVM
-                                            || host.getType() == Host.Type.SecondaryStorageCmdExecutor)) {
-
-                                s_logger.warn("Disconnect agent for CPVM/SSVM due to physical connection close. host: " + host.getId());
-                                disconnectWithoutInvestigation(agentId, Event.ShutdownRequested);
-                            } else {
-                                status_logger.debug("Ping timeout for agent " + agentId + ", do invstigation");
-                                disconnectWithInvestigation(agentId, Event.PingTimeout);
-                            }
-                        }
+                for (final HostVO h : findHostsBehindOnPing(behindAgents)) {
+                    final long agentId = h.getId();
+                    final ResourceState resourceState = h.getResourceState();
+                    if (resourceState == ResourceState.Disabled || resourceState == ResourceState.Maintenance || resourceState == ResourceState.ErrorInMaintenance) {
+                        /*
+                         * Host is in non-operation state, so no investigation and direct put agent to Disconnected
+                         */
+                        status_logger.debug("Ping timeout but agent " + agentId + " is in resource state of " + resourceState + ", so no investigation");
+                        disconnectWithoutInvestigation(agentId, Event.ShutdownRequested);
+                    } else if (h.getType() == Host.Type.ConsoleProxy || h.getType() == Host.Type.SecondaryStorageVM
+                                    || h.getType() == Host.Type.SecondaryStorageCmdExecutor) {
+
+                        s_logger.warn("Disconnect agent for CPVM/SSVM due to physical connection close. host: " + agentId);
+                        disconnectWithoutInvestigation(agentId, Event.ShutdownRequested);
+                    } else {
+                        status_logger.debug("Ping timeout for agent " + agentId + ", do invstigation");
+                        disconnectWithInvestigation(agentId, Event.PingTimeout);
                     }
                 }
 
@@ -1630,6 +1629,21 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
 
             return agentsBehind;
         }
+
+        /**
+         * Loads the hosts of the agents behind on ping with one query per
+         * batch instead of looking them up one at a time.
+         */
+        protected List<HostVO> findHostsBehindOnPing(final List<Long> agentIds) {
+            final List<HostVO> hosts = new ArrayList<HostVO>(agentIds.size());
+            for (int from = 0; from < agentIds.size(); from += PING_TIMEOUT_BATCH_SIZE) {
+                final List<Long> batch = agentIds.subList(from, Math.min(from + PING_TIMEOUT_BATCH_SIZE, agentIds.size()));
+                final QueryBuilder<HostVO> sc = QueryBuilder.create(HostVO.class);
+                sc.and(sc.entity().getId(), Op.IN, batch.toArray());
+                hosts.addAll(sc.list());
+            }
+            return hosts;
+        }
     }
 
     protected class BehindOnPingListener implements Listener {
@@ -1706,7 +1720,7 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[] { CheckTxnBeforeSending, Workers, Port, PingInterval, PingTimeout, Wait, AlertWait, DirectAgentLoadSize, DirectAgentPoolSize,
+        return new ConfigKey<?>[] { CheckTxnBeforeSending, Workers, Port, IoThreads, PingInterval, PingTimeout, Wait, AlertWait, DirectAgentLoadSize, DirectAgentPoolSize,
                         DirectAgentThreadCap };
     }
 
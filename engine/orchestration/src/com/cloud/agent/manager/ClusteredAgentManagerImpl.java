@@ -28,10 +28,12 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
@@ -57,6 +59,7 @@ import com.cloud.agent.api.ChangeAgentAnswer;
 import com.cloud.agent.api.ChangeAgentCommand;
 import com.cloud.agent.api.Command;
 import com.cloud.agent.api.PropagateResourceEventCommand;
+import com.cloud.agent.api.InvalidateEntityCacheCommand;
 import com.cloud.agent.api.ScheduleHostScanTaskCommand;
 import com.cloud.agent.api.TransferAgentCommand;
 import com.cloud.agent.transport.Request;
@@ -84,6 +87,8 @@ import com.cloud.resource.ServerResource;
 import com.cloud.serializer.GsonHelper;
 import com.cloud.utils.DateUtil;
 import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.db.EntityCacheListener;
+import com.cloud.utils.db.GenericDaoBase;
 import com.cloud.utils.db.QueryBuilder;
 import com.cloud.utils.db.SearchCriteria.Op;
 import com.cloud.utils.db.TransactionLegacy;
@@ -96,6 +101,10 @@ import com.google.gson.Gson;
 public class ClusteredAgentManagerImpl extends AgentManagerImpl implements ClusterManagerListener, ClusteredAgentRebalanceService {
     final static Logger s_logger = Logger.getLogger(ClusteredAgentManagerImpl.class);
     private static final ScheduledExecutorService s_transferExecutor = Executors.newScheduledThreadPool(2, new NamedThreadFactory("Cluster-AgentRebalancingExecutor"));
+    private static final ExecutorService s_cacheInvalidationExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory("Cluster-CacheInvalidation"));
+    // ids waiting to be broadcast by name of the DAO cache, guarded by itself
+    private final Map<String, Set<String>> _pendingCacheInvalidations = new HashMap<String, Set<String>>();
+    private boolean _cacheInvalidationScheduled = false;
     private final long rebalanceTimeOut = 300000; // 5 mins - after this time remove the agent from the transfer list
 
     public final static long STARTUP_DELAY = 5000;
@@ -149,6 +158,13 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
 
         _gson = GsonHelper.getGson();
 
+        GenericDaoBase.setEntityCacheListener(new EntityCacheListener() {
+            @Override
+            public void entityInvalidated(final String cacheName, final Object id) {
+                notifyNodesInClusterToInvalidateCache(cacheName, id);
+            }
+        });
+
         return super.configure(name, xmlParams);
     }
 
@@ -387,6 +403,55 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
         _clusterMgr.broadcast(0, _gson.toJson(cmds));
     }
 
+    // notifies MS peers to drop an entity from a DAO cache. The broadcast is done off the updating thread and
+    // invalidations made while a broadcast is pending are sent along with it.
+    protected void notifyNodesInClusterToInvalidateCache(final String cacheName, final Object id) {
+        synchronized (_pendingCacheInvalidations) {
+            Set<String> ids = _pendingCacheInvalidations.get(cacheName);
+            if (ids == null) {
+                ids = new LinkedHashSet<String>();
+                _pendingCacheInvalidations.put(cacheName, ids);
+            }
+            ids.add(String.valueOf(id));
+            if (_cacheInvalidationScheduled) {
+                return;
+            }
+            _cacheInvalidationScheduled = true;
+        }
+
+        try {
+            s_cacheInvalidationExecutor.execute(new ManagedContextRunnable() {
+                @Override
+                protected void runInContext() {
+                    broadcastCacheInvalidations();
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            synchronized (_pendingCacheInvalidations) {
+                _pendingCacheInvalidations.clear();
+                _cacheInvalidationScheduled = false;
+            }
+            s_logger.warn("Unable to notify MS peers of cache invalidation of " + cacheName + " id " + id, e);
+        }
+    }
+
+    protected void broadcastCacheInvalidations() {
+        final Map<String, List<String>> ids = new HashMap<String, List<String>>();
+        synchronized (_pendingCacheInvalidations) {
+            for (final Map.Entry<String, Set<String>> entry : _pendingCacheInvalidations.entrySet()) {
+                ids.put(entry.getKey(), new ArrayList<String>(entry.getValue()));
+            }
+            _pendingCacheInvalidations.clear();
+            _cacheInvalidationScheduled = false;
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+
+        final Command[] cmds = new Command[] {new InvalidateEntityCacheCommand(ids)};
+        _clusterMgr.broadcast(0, _gson.toJson(cmds));
+    }
+
     protected static void logT(final byte[] bytes, final String msg) {
         s_logger.trace("Seq " + Request.getAgentId(bytes) + "-" + Request.getSequence(bytes) + ": MgmtId " + Request.getManagementServerId(bytes) + ": " +
                 (Request.isRequest(bytes) ? "Req: " : "Resp: ") + msg);
@@ -620,7 +685,7 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
 
                 final byte[] data = task.getData();
                 final Version ver = Request.getVersion(data);
-                if (ver.ordinal() != Version.v1.ordinal() && ver.ordinal() != Version.v3.ordinal()) {
+                if (ver.ordinal() != Version.v1.ordinal() && ver.ordinal() != Version.v3.ordinal() && ver.ordinal() != Version.v4.ordinal()) {
                     s_logger.warn("Wrong version for clustered agent request");
                     super.doTask(task);
                     return;
@@ -1345,6 +1410,15 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
                 final ScheduleHostScanTaskCommand cmd = (ScheduleHostScanTaskCommand)cmds[0];
                 final String response = handleScheduleHostScanTaskCommand(cmd);
                 return response;
+            } else if (cmds.length == 1 && cmds[0] instanceof InvalidateEntityCacheCommand) {
+                final InvalidateEntityCacheCommand cmd = (InvalidateEntityCacheCommand)cmds[0];
+                for (final Map.Entry<String, List<String>> entry : cmd.getIds().entrySet()) {
+                    for (final String id : entry.getValue()) {
+                        GenericDaoBase.invalidateCachedEntity(entry.getKey(), id);
+                    }
+                }
+                final Answer[] answers = new Answer[] {new Answer(cmd, true, null)};
+                return _gson.toJson(answers);
             }
 
             try {
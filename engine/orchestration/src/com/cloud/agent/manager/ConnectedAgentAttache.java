@@ -21,6 +21,7 @@ import java.nio.channels.ClosedChannelException;
 import org.apache.log4j.Logger;
 
 import com.cloud.agent.transport.Request;
+import com.cloud.agent.transport.Request.Version;
 import com.cloud.exception.AgentUnavailableException;
 import com.cloud.host.Status;
 import com.cloud.utils.nio.Link;
@@ -32,15 +33,25 @@ public class ConnectedAgentAttache extends AgentAttache {
     private static final Logger s_logger = Logger.getLogger(ConnectedAgentAttache.class);
 
     protected Link _link;
+    protected volatile Version _peerVersion = Version.v1;
 
     public ConnectedAgentAttache(final AgentManagerImpl agentMgr, final long id, final String name, final Link link, final boolean maintenance) {
         super(agentMgr, id, name, maintenance);
         _link = link;
     }
 
+    /**
+     * Records the highest version the agent advertised when connecting,
+     * requests are only sent in an encoding it can read.
+     */
+    public void setPeerVersion(final Version peerVersion) {
+        _peerVersion = peerVersion;
+    }
+
     @Override
     public synchronized void send(final Request req) throws AgentUnavailableException {
         try {
+            req.negotiateVersion(_peerVersion);
             _link.send(req.toBytes());
         } catch (ClosedChannelException e) {
             throw new AgentUnavailableException("Channel is closed", _id);
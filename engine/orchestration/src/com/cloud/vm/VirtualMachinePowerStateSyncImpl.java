@@ -16,6 +16,7 @@
 // under the License.
 package com.cloud.vm;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -57,8 +58,9 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
         if (s_logger.isDebugEnabled())
             s_logger.debug("Process host VM state report from ping process. host: " + hostId);
 
-        Map<Long, VirtualMachine.PowerState> translatedInfo = convertVmStateReport(report);
-        processReport(hostId, translatedInfo);
+        Map<Long, VMInstanceVO> instances = new HashMap<Long, VMInstanceVO>();
+        Map<Long, VirtualMachine.PowerState> translatedInfo = convertVmStateReport(report, instances);
+        processReport(hostId, translatedInfo, instances);
     }
 
     @Override
@@ -66,11 +68,12 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
         if (s_logger.isDebugEnabled())
             s_logger.debug("Process host VM state report from ping process. host: " + hostId);
 
-        Map<Long, VirtualMachine.PowerState> translatedInfo = convertVmStateReport(report);
-        processReport(hostId, translatedInfo);
+        Map<Long, VMInstanceVO> instances = new HashMap<Long, VMInstanceVO>();
+        Map<Long, VirtualMachine.PowerState> translatedInfo = convertVmStateReport(report, instances);
+        processReport(hostId, translatedInfo, instances);
     }
 
-    private void processReport(long hostId, Map<Long, VirtualMachine.PowerState> translatedInfo) {
+    private void processReport(long hostId, Map<Long, VirtualMachine.PowerState> translatedInfo, Map<Long, VMInstanceVO> instances) {
 
         if (s_logger.isDebugEnabled())
             s_logger.debug("Process VM state report. host: " + hostId + ", number of records in report: " + translatedInfo.size());
@@ -80,7 +83,8 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
             if (s_logger.isDebugEnabled())
                 s_logger.debug("VM state report. host: " + hostId + ", vm id: " + entry.getKey() + ", power state: " + entry.getValue());
 
-            if (_instanceDao.updatePowerState(entry.getKey(), hostId, entry.getValue())) {
+            // instances already confirmed in the reported state are skipped without another round trip to the DB
+            if (_instanceDao.updatePowerState(instances.get(entry.getKey()), hostId, entry.getValue())) {
                 if (s_logger.isDebugEnabled())
                     s_logger.debug("VM state report is updated. host: " + hostId + ", vm id: " + entry.getKey() + ", power state: " + entry.getValue());
 
@@ -159,15 +163,26 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
 
     @Override
     public Map<Long, VirtualMachine.PowerState> convertVmStateReport(Map<String, HostVmStateReportEntry> states) {
+        return convertVmStateReport(states, new HashMap<Long, VMInstanceVO>());
+    }
+
+    private Map<Long, VirtualMachine.PowerState> convertVmStateReport(Map<String, HostVmStateReportEntry> states, Map<Long, VMInstanceVO> instances) {
         final HashMap<Long, VirtualMachine.PowerState> map = new HashMap<Long, VirtualMachine.PowerState>();
-        if (states == null) {
+        if (states == null || states.isEmpty()) {
             return map;
         }
 
+        // resolve all reported names with one query instead of one lookup per VM
+        Map<String, VMInstanceVO> vmsByName = new HashMap<String, VMInstanceVO>();
+        for (VMInstanceVO vm : _instanceDao.listByInstanceNames(new ArrayList<String>(states.keySet()))) {
+            vmsByName.put(vm.getInstanceName(), vm);
+        }
+
         for (Map.Entry<String, HostVmStateReportEntry> entry : states.entrySet()) {
-            VMInstanceVO vm = findVM(entry.getKey());
+            VMInstanceVO vm = vmsByName.get(entry.getKey());
             if (vm != null) {
                 map.put(vm.getId(), entry.getValue().getState());
+                instances.put(vm.getId(), vm);
             } else {
                 s_logger.info("Unable to find matched VM in CloudStack DB. name: " + entry.getKey());
             }
@@ -175,8 +190,4 @@ public class VirtualMachinePowerStateSyncImpl implements VirtualMachinePowerStat
 
         return map;
     }
-
-    private VMInstanceVO findVM(String vmName) {
-        return _instanceDao.findVMByInstanceName(vmName);
-    }
 }
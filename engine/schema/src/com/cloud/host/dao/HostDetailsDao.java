@@ -16,6 +16,7 @@
 // under the License.
 package com.cloud.host.dao;
 
+import java.util.List;
 import java.util.Map;
 
 import com.cloud.host.DetailVO;
@@ -28,5 +29,10 @@ public interface HostDetailsDao extends GenericDao<DetailVO, Long> {
 
     DetailVO findDetail(long hostId, String name);
 
+    /**
+     * @return value of the named detail keyed by host id, hosts without the detail are left out
+     */
+    Map<Long, String> findDetails(List<Long> hostIds, String name);
+
     void deleteDetails(long hostId);
 }
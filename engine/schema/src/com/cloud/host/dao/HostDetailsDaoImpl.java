@@ -37,6 +37,7 @@ import com.cloud.utils.exception.CloudRuntimeException;
 public class HostDetailsDaoImpl extends GenericDaoBase<DetailVO, Long> implements HostDetailsDao {
     protected final SearchBuilder<DetailVO> HostSearch;
     protected final SearchBuilder<DetailVO> DetailSearch;
+    protected final SearchBuilder<DetailVO> HostsDetailSearch;
 
     public HostDetailsDaoImpl() {
         HostSearch = createSearchBuilder();
@@ -47,6 +48,11 @@ public class HostDetailsDaoImpl extends GenericDaoBase<DetailVO, Long> implement
         DetailSearch.and("hostId", DetailSearch.entity().getHostId(), SearchCriteria.Op.EQ);
         DetailSearch.and("name", DetailSearch.entity().getName(), SearchCriteria.Op.EQ);
         DetailSearch.done();
+
+        HostsDetailSearch = createSearchBuilder();
+        HostsDetailSearch.and("hostIds", HostsDetailSearch.entity().getHostId(), SearchCriteria.Op.IN);
+        HostsDetailSearch.and("name", HostsDetailSearch.entity().getName(), SearchCriteria.Op.EQ);
+        HostsDetailSearch.done();
     }
 
     @Override
@@ -83,6 +89,28 @@ public class HostDetailsDaoImpl extends GenericDaoBase<DetailVO, Long> implement
         return details;
     }
 
+    @Override
+    public Map<Long, String> findDetails(List<Long> hostIds, String name) {
+        Map<Long, String> details = new HashMap<Long, String>();
+        if (hostIds == null || hostIds.isEmpty()) {
+            return details;
+        }
+
+        SearchCriteria<DetailVO> sc = HostsDetailSearch.create();
+        sc.setParameters("hostIds", hostIds.toArray());
+        sc.setParameters("name", name);
+
+        for (DetailVO result : listIncludingRemovedBy(sc)) {
+            if ("password".equals(name)) {
+                details.put(result.getHostId(), DBEncryptionUtil.decrypt(result.getValue()));
+            } else {
+                details.put(result.getHostId(), result.getValue());
+            }
+        }
+
+        return details;
+    }
+
     @Override
     public void deleteDetails(long hostId) {
         SearchCriteria sc = HostSearch.create();
@@ -25,6 +25,7 @@ import com.cloud.utils.db.Filter;
 import com.cloud.utils.db.GenericDao;
 import com.cloud.utils.db.SearchCriteria;
 
+import java.util.Date;
 import java.util.List;
 
 public interface UsageDao extends GenericDao<UsageVO, Long> {
@@ -56,6 +57,16 @@ public interface UsageDao extends GenericDao<UsageVO, Long> {
 
     void removeOldUsageRecords(int days);
 
+    /**
+     * Lists the accounts whose usage was already committed for the given aggregation interval by a parse worker of a
+     * job that did not finish.
+     */
+    List<Long> listParsedAccounts(Date startDate, Date endDate);
+
+    void markAccountParsed(long accountId, Date startDate, Date endDate);
+
+    void removeParsedAccounts(Date endDate);
+
     UsageVO persistUsage(final UsageVO usage);
 
     Pair<List<? extends UsageVO>, Integer> getUsageRecordsPendingQuotaAggregation(long accountId, long domainId);
@@ -66,9 +66,10 @@ public class UsageDaoImpl extends GenericDaoBase<UsageVO, Long> implements Usage
             + " VALUES (?,?,?,?,?,?,?,?,?,?, ?, ?, ?, ?,?, ?, ?)";
     private static final String UPDATE_VM_DISK_STATS = "UPDATE cloud_usage.vm_disk_statistics SET net_io_read=?, net_io_write=?, current_io_read=?, current_io_write=?, agg_io_read=?, agg_io_write=?, "
             + "net_bytes_read=?, net_bytes_write=?, current_bytes_read=?, current_bytes_write=?, agg_bytes_read=?, agg_bytes_write=?  WHERE id=?";
-    private static final String INSERT_USAGE_RECORDS = "INSERT INTO cloud_usage.cloud_usage (zone_id, account_id, domain_id, description, usage_display, "
-            + "usage_type, raw_usage, vm_instance_id, vm_name, offering_id, template_id, "
-            + "usage_id, type, size, network_id, start_date, end_date, virtual_size) VALUES (?,?,?,?,?,?,?,?,?, ?, ?, ?,?,?,?,?,?,?)";
+
+    private static final String GET_PARSED_ACCOUNTS = "SELECT account_id FROM cloud_usage.usage_parsed_account WHERE start_date = ? AND end_date = ?";
+    private static final String INSERT_PARSED_ACCOUNT = "INSERT INTO cloud_usage.usage_parsed_account (account_id, start_date, end_date) VALUES (?,?,?)";
+    private static final String DELETE_PARSED_ACCOUNTS = "DELETE FROM cloud_usage.usage_parsed_account WHERE end_date <= ?";
 
     protected final static TimeZone s_gmtTimeZone = TimeZone.getTimeZone("GMT");
 
@@ -389,59 +390,8 @@ public class UsageDaoImpl extends GenericDaoBase<UsageVO, Long> implements Usage
         TransactionLegacy txn = TransactionLegacy.currentTxn();
         try {
             txn.start();
-            String sql = INSERT_USAGE_RECORDS;
-            PreparedStatement pstmt = null;
-            pstmt = txn.prepareAutoCloseStatement(sql); // in reality I just want CLOUD_USAGE dataSource connection
-            for (UsageVO usageRecord : usageRecords) {
-                pstmt.setLong(1, usageRecord.getZoneId());
-                pstmt.setLong(2, usageRecord.getAccountId());
-                pstmt.setLong(3, usageRecord.getDomainId());
-                pstmt.setString(4, usageRecord.getDescription());
-                pstmt.setString(5, usageRecord.getUsageDisplay());
-                pstmt.setInt(6, usageRecord.getUsageType());
-                pstmt.setDouble(7, usageRecord.getRawUsage());
-                if (usageRecord.getVmInstanceId() != null) {
-                    pstmt.setLong(8, usageRecord.getVmInstanceId());
-                } else {
-                    pstmt.setNull(8, Types.BIGINT);
-                }
-                pstmt.setString(9, usageRecord.getVmName());
-                if (usageRecord.getOfferingId() != null) {
-                    pstmt.setLong(10, usageRecord.getOfferingId());
-                } else {
-                    pstmt.setNull(10, Types.BIGINT);
-                }
-                if (usageRecord.getTemplateId() != null) {
-                    pstmt.setLong(11, usageRecord.getTemplateId());
-                } else {
-                    pstmt.setNull(11, Types.BIGINT);
-                }
-                if (usageRecord.getUsageId() != null) {
-                    pstmt.setLong(12, usageRecord.getUsageId());
-                } else {
-                    pstmt.setNull(12, Types.BIGINT);
-                }
-                pstmt.setString(13, usageRecord.getType());
-                if (usageRecord.getSize() != null) {
-                    pstmt.setLong(14, usageRecord.getSize());
-                } else {
-                    pstmt.setNull(14, Types.BIGINT);
-                }
-                if (usageRecord.getNetworkId() != null) {
-                    pstmt.setLong(15, usageRecord.getNetworkId());
-                } else {
-                    pstmt.setNull(15, Types.BIGINT);
-                }
-                pstmt.setString(16, DateUtil.getDateDisplayString(s_gmtTimeZone, usageRecord.getStartDate()));
-                pstmt.setString(17, DateUtil.getDateDisplayString(s_gmtTimeZone, usageRecord.getEndDate()));
-                if (usageRecord.getVirtualSize() != null) {
-                    pstmt.setLong(18, usageRecord.getVirtualSize());
-                } else {
-                    pstmt.setNull(18, Types.BIGINT);
-                }
-                pstmt.addBatch();
-            }
-            pstmt.executeBatch();
+            // the ids of usage records are never read back, so the generated keys are not fetched
+            insertBatch(usageRecords);
             txn.commit();
         } catch (Exception ex) {
             txn.rollback();
@@ -469,6 +419,50 @@ public class UsageDaoImpl extends GenericDaoBase<UsageVO, Long> implements Usage
         }
     }
 
+    @Override
+    public List<Long> listParsedAccounts(Date startDate, Date endDate) {
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        List<Long> accountIds = new ArrayList<Long>();
+        try {
+            PreparedStatement pstmt = txn.prepareAutoCloseStatement(GET_PARSED_ACCOUNTS);
+            pstmt.setString(1, DateUtil.getDateDisplayString(s_gmtTimeZone, startDate));
+            pstmt.setString(2, DateUtil.getDateDisplayString(s_gmtTimeZone, endDate));
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                accountIds.add(rs.getLong(1));
+            }
+        } catch (Exception ex) {
+            throw new CloudRuntimeException("Error listing parsed usage accounts", ex);
+        }
+        return accountIds;
+    }
+
+    @Override
+    public void markAccountParsed(long accountId, Date startDate, Date endDate) {
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        try {
+            PreparedStatement pstmt = txn.prepareAutoCloseStatement(INSERT_PARSED_ACCOUNT);
+            pstmt.setLong(1, accountId);
+            pstmt.setString(2, DateUtil.getDateDisplayString(s_gmtTimeZone, startDate));
+            pstmt.setString(3, DateUtil.getDateDisplayString(s_gmtTimeZone, endDate));
+            pstmt.executeUpdate();
+        } catch (Exception ex) {
+            throw new CloudRuntimeException("Error marking usage of account " + accountId + " as parsed", ex);
+        }
+    }
+
+    @Override
+    public void removeParsedAccounts(Date endDate) {
+        TransactionLegacy txn = TransactionLegacy.currentTxn();
+        try {
+            PreparedStatement pstmt = txn.prepareAutoCloseStatement(DELETE_PARSED_ACCOUNTS);
+            pstmt.setString(1, DateUtil.getDateDisplayString(s_gmtTimeZone, endDate));
+            pstmt.executeUpdate();
+        } catch (Exception ex) {
+            throw new CloudRuntimeException("Error removing parsed usage accounts", ex);
+        }
+    }
+
     public UsageVO persistUsage(final UsageVO usage) {
         return Transaction.execute(TransactionLegacy.USAGE_DB, new TransactionCallback<UsageVO>() {
             @Override
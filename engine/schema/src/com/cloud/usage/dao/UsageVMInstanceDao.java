@@ -28,4 +28,6 @@ public interface UsageVMInstanceDao extends GenericDao<UsageVMInstanceVO, Long>
     public void delete(UsageVMInstanceVO instance);
 
     public List<UsageVMInstanceVO> getUsageRecords(long userId, Date startDate, Date endDate);
+
+    public List<UsageVMInstanceVO> getUsageRecords(List<Long> accountIds, Date startDate, Date endDate);
 }
@@ -18,6 +18,7 @@ package com.cloud.usage.dao;
 
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -43,6 +44,10 @@ public class UsageVMInstanceDaoImpl extends GenericDaoBase<UsageVMInstanceVO, Lo
         "SELECT usage_type, zone_id, account_id, vm_instance_id, vm_name, cpu_speed, cpu_cores, memory, service_offering_id, template_id, hypervisor_type, start_date, end_date "
             + "FROM usage_vm_instance WHERE account_id = ? AND ((end_date IS NULL) OR (start_date BETWEEN ? AND ?) OR "
             + "      (end_date BETWEEN ? AND ?) OR ((start_date <= ?) AND (end_date >= ?)))";
+    protected static final String GET_USAGE_RECORDS_BY_ACCOUNTS =
+        "SELECT usage_type, zone_id, account_id, vm_instance_id, vm_name, cpu_speed, cpu_cores, memory, service_offering_id, template_id, hypervisor_type, start_date, end_date "
+            + "FROM usage_vm_instance WHERE account_id IN (%s) AND ((end_date IS NULL) OR (start_date BETWEEN ? AND ?) OR "
+            + "      (end_date BETWEEN ? AND ?) OR ((start_date <= ?) AND (end_date >= ?)))";
 
     public UsageVMInstanceDaoImpl() {
     }
@@ -106,39 +111,7 @@ public class UsageVMInstanceDaoImpl extends GenericDaoBase<UsageVMInstanceVO, Lo
             pstmt.setString(7, DateUtil.getDateDisplayString(TimeZone.getTimeZone("GMT"), endDate));
             ResultSet rs = pstmt.executeQuery();
             while (rs.next()) {
-                int r_usageType = rs.getInt(1);
-                long r_zoneId = rs.getLong(2);
-                long r_accountId = rs.getLong(3);
-                long r_vmId = rs.getLong(4);
-                String r_vmName = rs.getString(5);
-                Long r_cpuSpeed = rs.getLong(6);
-                if (rs.wasNull()) {
-                    r_cpuSpeed = null;
-                }
-                Long r_cpuCores = rs.getLong(7);
-                if (rs.wasNull()) {
-                    r_cpuCores = null;
-                }
-                Long r_memory = rs.getLong(8);
-                if (rs.wasNull()) {
-                    r_memory = null;
-                }
-                long r_soId = rs.getLong(9);
-                long r_tId = rs.getLong(10);
-                String hypervisorType = rs.getString(11);
-                String r_startDate = rs.getString(12);
-                String r_endDate = rs.getString(13);
-                Date instanceStartDate = null;
-                Date instanceEndDate = null;
-                if (r_startDate != null) {
-                    instanceStartDate = DateUtil.parseDateString(s_gmtTimeZone, r_startDate);
-                }
-                if (r_endDate != null) {
-                    instanceEndDate = DateUtil.parseDateString(s_gmtTimeZone, r_endDate);
-                }
-                UsageVMInstanceVO usageInstance =
-                    new UsageVMInstanceVO(r_usageType, r_zoneId, r_accountId, r_vmId, r_vmName, r_soId, r_tId, r_cpuSpeed, r_cpuCores, r_memory, hypervisorType, instanceStartDate, instanceEndDate);
-                usageInstances.add(usageInstance);
+                usageInstances.add(toUsageVMInstance(rs));
             }
         } catch (Exception ex) {
             s_logger.error("error retrieving usage vm instances for account id: " + accountId, ex);
@@ -147,4 +120,76 @@ public class UsageVMInstanceDaoImpl extends GenericDaoBase<UsageVMInstanceVO, Lo
         }
         return usageInstances;
     }
+
+    @Override
+    public List<UsageVMInstanceVO> getUsageRecords(List<Long> accountIds, Date startDate, Date endDate) {
+        List<UsageVMInstanceVO> usageInstances = new ArrayList<UsageVMInstanceVO>();
+        if (accountIds.isEmpty()) {
+            return usageInstances;
+        }
+        TransactionLegacy txn = TransactionLegacy.open(TransactionLegacy.USAGE_DB);
+        PreparedStatement pstmt = null;
+        try {
+            StringBuilder params = new StringBuilder();
+            for (int i = 0; i < accountIds.size(); i++) {
+                params.append(i == 0 ? "?" : ", ?");
+            }
+            String sql = String.format(GET_USAGE_RECORDS_BY_ACCOUNTS, params.toString());
+            pstmt = txn.prepareAutoCloseStatement(sql);
+            int i = 1;
+            for (Long accountId : accountIds) {
+                pstmt.setLong(i++, accountId);
+            }
+            pstmt.setString(i++, DateUtil.getDateDisplayString(TimeZone.getTimeZone("GMT"), startDate));
+            pstmt.setString(i++, DateUtil.getDateDisplayString(TimeZone.getTimeZone("GMT"), endDate));
+            pstmt.setString(i++, DateUtil.getDateDisplayString(TimeZone.getTimeZone("GMT"), startDate));
+            pstmt.setString(i++, DateUtil.getDateDisplayString(TimeZone.getTimeZone("GMT"), endDate));
+            pstmt.setString(i++, DateUtil.getDateDisplayString(TimeZone.getTimeZone("GMT"), startDate));
+            pstmt.setString(i++, DateUtil.getDateDisplayString(TimeZone.getTimeZone("GMT"), endDate));
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                usageInstances.add(toUsageVMInstance(rs));
+            }
+        } catch (Exception ex) {
+            s_logger.error("error retrieving usage vm instances for " + accountIds.size() + " accounts", ex);
+        } finally {
+            txn.close();
+        }
+        return usageInstances;
+    }
+
+    private UsageVMInstanceVO toUsageVMInstance(ResultSet rs) throws SQLException {
+        int r_usageType = rs.getInt(1);
+        long r_zoneId = rs.getLong(2);
+        long r_accountId = rs.getLong(3);
+        long r_vmId = rs.getLong(4);
+        String r_vmName = rs.getString(5);
+        Long r_cpuSpeed = rs.getLong(6);
+        if (rs.wasNull()) {
+            r_cpuSpeed = null;
+        }
+        Long r_cpuCores = rs.getLong(7);
+        if (rs.wasNull()) {
+            r_cpuCores = null;
+        }
+        Long r_memory = rs.getLong(8);
+        if (rs.wasNull()) {
+            r_memory = null;
+        }
+        long r_soId = rs.getLong(9);
+        long r_tId = rs.getLong(10);
+        String hypervisorType = rs.getString(11);
+        String r_startDate = rs.getString(12);
+        String r_endDate = rs.getString(13);
+        Date instanceStartDate = null;
+        Date instanceEndDate = null;
+        if (r_startDate != null) {
+            instanceStartDate = DateUtil.parseDateString(s_gmtTimeZone, r_startDate);
+        }
+        if (r_endDate != null) {
+            instanceEndDate = DateUtil.parseDateString(s_gmtTimeZone, r_endDate);
+        }
+        return new UsageVMInstanceVO(r_usageType, r_zoneId, r_accountId, r_vmId, r_vmName, r_soId, r_tId, r_cpuSpeed, r_cpuCores, r_memory, hypervisorType, instanceStartDate,
+            instanceEndDate);
+    }
 }
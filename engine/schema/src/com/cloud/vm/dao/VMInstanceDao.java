@@ -78,6 +78,8 @@ public interface VMInstanceDao extends GenericDao<VMInstanceVO, Long>, StateDao<
 
     VMInstanceVO findVMByInstanceName(String name);
 
+    List<VMInstanceVO> listByInstanceNames(List<String> names);
+
     VMInstanceVO findVMByHostName(String hostName);
 
     void updateProxyId(long id, Long proxyId, Date time);
@@ -131,6 +133,12 @@ public interface VMInstanceDao extends GenericDao<VMInstanceVO, Long>, StateDao<
 
     boolean updatePowerState(long instanceId, long powerHostId, VirtualMachine.PowerState powerState);
 
+    /**
+     * Same as {@link #updatePowerState(long, long, VirtualMachine.PowerState)}, but skips the database entirely when the
+     * already loaded instance shows the report would not change anything
+     */
+    boolean updatePowerState(VMInstanceVO instance, long powerHostId, VirtualMachine.PowerState powerState);
+
     void resetVmPowerStateTracking(long instanceId);
 
     void resetHostPowerStateTracking(long hostId);
@@ -31,4 +31,10 @@ public interface ConfigDepot {
     <T> void set(ConfigKey<T> key, T value);
 
     <T> void createOrUpdateConfigObject(String componentName, ConfigKey<T> key, String value);
+
+    /**
+     * Drops the cached value of a config so the next read goes to the database.
+     * @param scopeId id of the zone, cluster, account... for scoped values, null for the global value.
+     */
+    void invalidateConfigCache(String key, ConfigKey.Scope scope, Long scopeId);
 }
@@ -21,8 +21,12 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
@@ -68,6 +72,13 @@ import com.cloud.utils.exception.CloudRuntimeException;
  */
 public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin {
     private final static Logger s_logger = Logger.getLogger(ConfigDepotImpl.class);
+    /**
+     * How long a value read from the database is served from memory. Changes made through this
+     * management server invalidate the cached value right away, changes made on the other
+     * management servers of the cluster are picked up once it expires.
+     */
+    static final long CONFIG_CACHE_EXPIRE_MILLIS = 30 * 1000L;
+    static final int CONFIG_CACHE_PURGE_SIZE = 10000;
     @Inject
     ConfigurationDao _configDao;
     List<Configurable> _configurables;
@@ -78,6 +89,19 @@ public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin {
 
     HashMap<ConfigKey.Scope, Set<ConfigKey<?>>> _scopeLevelConfigsMap = new HashMap<ConfigKey.Scope, Set<ConfigKey<?>>>();
 
+    private final ConcurrentHashMap<String, CachedValue> _configCache = new ConcurrentHashMap<String, CachedValue>();
+    private final AtomicLong _configCacheVersion = new AtomicLong();
+
+    private static class CachedValue {
+        final String value;
+        final long expiresAt;
+
+        CachedValue(String value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
     public ConfigDepotImpl() {
         ConfigKey.init(this);
         _scopeLevelConfigsMap.put(ConfigKey.Scope.Zone, new HashSet<ConfigKey<?>>());
@@ -149,6 +173,7 @@ public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin {
                 _configDao.persist(vo);
             }
         }
+        invalidateConfigCache(key.key(), ConfigKey.Scope.Global, null);
     }
 
     @Override
@@ -165,6 +190,55 @@ public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin {
         return _configDao;
     }
 
+    /**
+     * Returns the value of a config as stored in the database, or null if it is not set. The
+     * global value is read when scopeId is null, the value in the config's scope otherwise.
+     */
+    public String getConfigStringValue(ConfigKey<?> config, Long scopeId) {
+        ConfigKey.Scope scope = scopeId == null ? ConfigKey.Scope.Global : config.scope();
+        String cacheKey = getConfigCacheKey(config.key(), scope, scopeId);
+        long now = System.currentTimeMillis();
+        CachedValue cached = _configCache.get(cacheKey);
+        if (cached != null && cached.expiresAt > now) {
+            return cached.value;
+        }
+
+        // only cache what was read if no invalidation happened meanwhile, it may be stale otherwise
+        long version = _configCacheVersion.get();
+        String value;
+        if (scopeId == null) {
+            ConfigurationVO vo = _configDao.findById(config.key());
+            value = vo != null ? vo.getValue() : null;
+        } else {
+            value = scoped(config).getConfigValue(scopeId, config);
+        }
+        if (_configCache.size() >= CONFIG_CACHE_PURGE_SIZE) {
+            purgeExpiredConfigCache(now);
+        }
+        if (version == _configCacheVersion.get()) {
+            _configCache.put(cacheKey, new CachedValue(value, now + CONFIG_CACHE_EXPIRE_MILLIS));
+        }
+        return value;
+    }
+
+    @Override
+    public void invalidateConfigCache(String key, ConfigKey.Scope scope, Long scopeId) {
+        _configCacheVersion.incrementAndGet();
+        _configCache.remove(getConfigCacheKey(key, scopeId == null ? ConfigKey.Scope.Global : scope, scopeId));
+    }
+
+    private void purgeExpiredConfigCache(long now) {
+        for (Iterator<Map.Entry<String, CachedValue>> it = _configCache.entrySet().iterator(); it.hasNext();) {
+            if (it.next().getValue().expiresAt <= now) {
+                it.remove();
+            }
+        }
+    }
+
+    private static String getConfigCacheKey(String key, ConfigKey.Scope scope, Long scopeId) {
+        return scopeId == null ? key : scope + "-" + scopeId + "-" + key;
+    }
+
     public ScopedConfigStorage scoped(ConfigKey<?> config) {
         for (ScopedConfigStorage storage : _scopedStorages) {
             if (storage.getScope() == config.scope()) {
@@ -201,6 +275,7 @@ public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin {
     @Override
     public <T> void set(ConfigKey<T> key, T value) {
         _configDao.update(key.key(), value.toString());
+        invalidateConfigCache(key.key(), ConfigKey.Scope.Global, null);
     }
 
     @Override
@@ -98,4 +98,20 @@ public class ConfigDepotAdminTest extends TestCase {
         // This is two because DynamicIntCK also returns null.
         verify(_configDao, times(2)).persist(any(ConfigurationVO.class));
     }
+
+    @Test
+    public void testDynamicValueIsCachedUntilInvalidated() {
+        ConfigurationVO dynamicIntCV = new ConfigurationVO("UnitTestComponent", DynamicIntCK);
+        dynamicIntCV.setValue("100");
+        when(_configDao.findById(DynamicIntCK.key())).thenReturn(dynamicIntCV);
+
+        assertEquals(100, DynamicIntCK.value().intValue());
+        assertEquals(100, DynamicIntCK.value().intValue());
+        verify(_configDao, times(1)).findById(DynamicIntCK.key());
+
+        dynamicIntCV.setValue("200");
+        _depotAdmin.invalidateConfigCache(DynamicIntCK.key(), ConfigKey.Scope.Global, null);
+        assertEquals(200, DynamicIntCK.value().intValue());
+        verify(_configDao, times(2)).findById(DynamicIntCK.key());
+    }
 }
@@ -17,6 +17,8 @@
 package com.cloud.dao;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -63,6 +65,17 @@ public class EntityManagerImpl extends ManagerBase implements EntityManager {
         return dao.findByUuidIncludingRemoved(uuid);
     }
 
+    @Override
+    public <T> List<? extends T> listByUuidsIncludingRemoved(Class<T> entityType, Collection<String> uuids) {
+        GenericDao<T, ? extends Serializable> dao = (GenericDao<T, ? extends Serializable>)GenericDaoBase.getDao(entityType);
+        if (uuids.isEmpty()) {
+            return new ArrayList<T>();
+        }
+        SearchCriteria<T> sc = dao.createSearchCriteria();
+        sc.addAnd("uuid", SearchCriteria.Op.IN, uuids.toArray());
+        return dao.searchIncludingRemoved(sc, null, null, false);
+    }
+
     @Override
     public <T> T findByXId(Class<T> entityType, String xid) {
         return null;
@@ -0,0 +1,30 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// the License.  You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+/**
+ * Notified when an entity is dropped from the cache of a DAO because this
+ * management server changed or removed it, so that the other management
+ * servers can drop their copy as well.
+ */
+public interface EntityCacheListener {
+    /**
+     * @param cacheName name of the DAO cache, the same on every management server.
+     * @param id id of the entity that changed.
+     */
+    void entityInvalidated(String cacheName, Object id);
+}
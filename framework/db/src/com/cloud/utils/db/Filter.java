@@ -93,6 +93,19 @@ public class Filter {
         }
     }
 
+    /**
+     * Switches to keyset pagination on the attribute: rows are ordered by it
+     * alone and the page starts at the first row, as the search criteria
+     * itself skips the rows of the previous pages.
+     * @see SearchCriteria#setStartAfter(Filter, String, boolean, Object)
+     */
+    void seek(Attribute attr, boolean ascending) {
+        _orderBy = " ORDER BY " + attr.table + "." + attr.columnName + (ascending ? " ASC " : " DESC ");
+        if (_limit != null) {
+            _offset = 0L;
+        }
+    }
+
     public String getOrderBy() {
         return _orderBy;
     }
@@ -199,6 +199,35 @@ public interface GenericDao<T, ID extends Serializable> {
      **/
     T persist(T entity);
 
+    /**
+     * Persist the entity beans with one JDBC batch per table instead of one
+     * statement per bean.  The id field of each entity is updated with the
+     * new id.  Beans that set their own id are inserted in a batch of their
+     * own.  Beans that were generated by this dao are updated instead, as
+     * with persist().
+     * @param entities beans to persist.
+     * @return ids of the beans in the order given.
+     */
+    List<ID> persistBatch(List<T> entities);
+
+    /**
+     * Insert the entity beans with one JDBC batch per table, without reading
+     * back the ids generated for them nor reloading them.  Meant for rows
+     * that are written and never read back by the caller.  Beans of entities
+     * spread over several tables or with element collections, which need the
+     * generated id, are persisted as with persistBatch().
+     * @param entities beans to insert.
+     */
+    void insertBatch(List<T> entities);
+
+    /**
+     * Update the entity beans generated by this dao with one JDBC batch per
+     * distinct set of changed fields.
+     * @param entities beans to update.
+     * @return number of rows updated.
+     */
+    int updateBatch(List<T> entities);
+
     /**
      * remove the entity bean.  This will call delete automatically if
      * the entity bean does not have a removed field.
@@ -39,11 +39,13 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.naming.ConfigurationException;
 import javax.persistence.AttributeOverride;
@@ -77,6 +79,7 @@ import com.cloud.utils.component.ComponentMethodInterceptable;
 import com.cloud.utils.crypt.DBEncryptionUtil;
 import com.cloud.utils.db.SearchCriteria.SelectType;
 import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.mgmt.JmxUtil;
 import com.cloud.utils.net.Ip;
 import com.cloud.utils.net.NetUtils;
 
@@ -136,6 +139,8 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     protected String _selectByIdSql;
     protected String _count;
     protected String _distinctIdSql;
+    // SQL generated by getSearchSql() for criteria of blank search builders, keyed by the shape of the criteria.
+    protected final Map<List<Object>, Pair<String, Boolean>> _searchSqls = SearchBase.createSqlCache(MAX_SEARCH_SQLS);
 
     protected Field _idField;
 
@@ -160,6 +165,33 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     protected static final String SELECT_LAST_INSERT_ID_SQL = "SELECT LAST_INSERT_ID()";
 
     protected static final SequenceFetcher s_seqFetcher = SequenceFetcher.getInstance();
+    protected static final int MAX_SEARCH_SQLS = 256;
+    // Whether rows inserted in one batch get consecutive generated keys, by database id.
+    private static final Map<Short, Boolean> s_consecutiveBatchKeys = new ConcurrentHashMap<Short, Boolean>();
+    protected static final int MAX_BATCH_SIZE = 1000;
+
+    protected static final Map<String, GenericDaoBase<?, ? extends Serializable>> s_cachedDaos = new ConcurrentHashMap<String, GenericDaoBase<?, ? extends Serializable>>();
+    private static volatile EntityCacheListener s_entityCacheListener;
+
+    /**
+     * Sets the listener told about every entity that this management server
+     * drops from a DAO cache, typically to broadcast it to the cluster.
+     */
+    public static void setEntityCacheListener(final EntityCacheListener listener) {
+        s_entityCacheListener = listener;
+    }
+
+    /**
+     * Drops an entity that was changed on another management server from the
+     * cache of the DAO named cacheName.  The whole cache is cleared if the id
+     * can not be converted back to the id type of the DAO.
+     */
+    public static void invalidateCachedEntity(final String cacheName, final String id) {
+        final GenericDaoBase<?, ? extends Serializable> dao = s_cachedDaos.get(cacheName);
+        if (dao != null) {
+            dao.invalidateRemote(id);
+        }
+    }
 
     public static <J> GenericDao<? extends J, ? extends Serializable> getDao(Class<J> entityType) {
         @SuppressWarnings("unchecked")
@@ -365,25 +397,16 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
     @Override
     public List<T> searchIncludingRemoved(SearchCriteria<T> sc, final Filter filter, final Boolean lock, final boolean cache, final boolean enableQueryCache) {
-        String clause = sc != null ? sc.getWhereClause() : null;
-        if (clause != null && clause.length() == 0) {
-            clause = null;
-        }
-
-        final StringBuilder str = createPartialSelectSql(sc, clause != null, enableQueryCache);
-        if (clause != null) {
-            str.append(clause);
-        }
+        final Pair<String, Boolean> searchSql = getSearchSql(sc, enableQueryCache);
+        final boolean clause = searchSql.second();
+        final StringBuilder str = new StringBuilder(searchSql.first());
 
         Collection<JoinBuilder<SearchCriteria<?>>> joins = null;
+        List<Object> groupByValues = null;
         if (sc != null) {
             joins = sc.getJoins();
-            if (joins != null) {
-                addJoins(str, joins);
-            }
+            groupByValues = getGroupByValues(sc);
         }
-
-        List<Object> groupByValues = addGroupBy(str, sc);
         addFilter(str, filter);
 
         final TransactionLegacy txn = TransactionLegacy.currentTxn();
@@ -399,7 +422,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         try {
             pstmt = txn.prepareAutoCloseStatement(sql);
             int i = 1;
-            if (clause != null) {
+            if (clause) {
                 for (final Pair<Attribute, Object> value : sc.getValues()) {
                     prepareAttribute(i++, pstmt, value.first(), value.second());
                 }
@@ -418,9 +441,10 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             if (s_logger.isDebugEnabled() && lock != null) {
                 txn.registerLock(pstmt.toString());
             }
+            final long cacheVersion = _cacheVersion.get();
             final ResultSet rs = pstmt.executeQuery();
             while (rs.next()) {
-                result.add(toEntityBean(rs, cache));
+                result.add(toEntityBean(rs, cache, cacheVersion));
             }
             return result;
         } catch (final SQLException e) {
@@ -439,23 +463,14 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         if (sc.isSelectAll()) {
             return (List<M>)searchIncludingRemoved((SearchCriteria<T>)sc, filter, null, false);
         }
-        String clause = sc.getWhereClause();
-        if (clause != null && clause.length() == 0) {
-            clause = null;
-        }
-
-        final StringBuilder str = createPartialSelectSql(sc, clause != null);
-        if (clause != null) {
-            str.append(clause);
-        }
+        final Pair<String, Boolean> searchSql = getSearchSql(sc, false);
+        final boolean clause = searchSql.second();
+        final StringBuilder str = new StringBuilder(searchSql.first());
 
         Collection<JoinBuilder<SearchCriteria<?>>> joins = null;
         joins = sc.getJoins();
-        if (joins != null) {
-            addJoins(str, joins);
-        }
 
-        List<Object> groupByValues = addGroupBy(str, sc);
+        List<Object> groupByValues = getGroupByValues(sc);
         addFilter(str, filter);
 
         final String sql = str.toString();
@@ -465,7 +480,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         try {
             pstmt = txn.prepareAutoCloseStatement(sql);
             int i = 1;
-            if (clause != null) {
+            if (clause) {
                 for (final Pair<Attribute, Object> value : sc.getValues()) {
                     prepareAttribute(i++, pstmt, value.first(), value.second());
                 }
@@ -806,6 +821,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         int rowsUpdated = update(ub, sc, null);
 
         txn.commit();
+        invalidateCache(id);
 
         return rowsUpdated;
     }
@@ -946,8 +962,10 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         if (_cache != null) {
             final Element element = _cache.get(id);
             if (element == null) {
+                _cacheStats.miss();
                 result = lockRow(id, null);
             } else {
+                _cacheStats.hit();
                 result = (T)element.getObjectValue();
             }
         } else {
@@ -979,8 +997,10 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         if (_cache != null) {
             final Element element = _cache.get(id);
             if (element == null) {
+                _cacheStats.miss();
                 result = findById(id, true, null);
             } else {
+                _cacheStats.hit();
                 result = (T)element.getObjectValue();
             }
         } else {
@@ -1025,8 +1045,9 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
                 prepareAttribute(1, pstmt, _idAttributes.get(_table)[0], id);
             }
 
+            final long cacheVersion = _cacheVersion.get();
             ResultSet rs = pstmt.executeQuery();
-            return rs.next() ? toEntityBean(rs, true) : null;
+            return rs.next() ? toEntityBean(rs, true, cacheVersion) : null;
         } catch (SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
         }
@@ -1101,6 +1122,62 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         }
     }
 
+    protected List<Object> getGroupByValues(final SearchCriteria<?> sc) {
+        final Pair<GroupBy<?, ?, ?>, List<Object>> groupBys = sc.getGroupBy();
+        return groupBys != null ? groupBys.second() : null;
+    }
+
+    /**
+     * Generates the select, where, join and group by clauses of the query for
+     * the search criteria.  The SQL only depends on the search builder and on
+     * which parameters are set, so it is kept with a search builder that is
+     * reused and in the DAO for criteria of blank search builders.
+     *
+     * @return the SQL and whether the criteria itself added a where clause.
+     */
+    protected Pair<String, Boolean> getSearchSql(final SearchCriteria<?> sc, final boolean enableQueryCache) {
+        Map<List<Object>, Pair<String, Boolean>> searchSqls = null;
+        List<Object> shape = null;
+        if (sc != null) {
+            searchSqls = sc.isBlank() ? _searchSqls : sc.getSqlCache();
+            if (searchSqls != null) {
+                shape = sc.getSqlShape();
+            }
+            if (shape != null) {
+                shape.add(this);
+                shape.add(enableQueryCache);
+                final Pair<String, Boolean> searchSql = searchSqls.get(shape);
+                if (searchSql != null) {
+                    return searchSql;
+                }
+            }
+        }
+
+        String clause = sc != null ? sc.getWhereClause() : null;
+        if (clause != null && clause.length() == 0) {
+            clause = null;
+        }
+
+        final StringBuilder str = createPartialSelectSql(sc, clause != null, enableQueryCache);
+        if (clause != null) {
+            str.append(clause);
+        }
+
+        if (sc != null) {
+            final Collection<JoinBuilder<SearchCriteria<?>>> joins = sc.getJoins();
+            if (joins != null) {
+                addJoins(str, joins);
+            }
+        }
+        addGroupBy(str, sc);
+
+        final Pair<String, Boolean> searchSql = new Pair<String, Boolean>(str.toString(), clause != null);
+        if (shape != null) {
+            searchSqls.put(shape, searchSql);
+        }
+        return searchSql;
+    }
+
     @DB()
     protected void addFilter(final StringBuilder sql, final Filter filter) {
         if (filter != null) {
@@ -1137,9 +1214,10 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
                 pstmt.setObject(++i, param);
             }
 
+            final long cacheVersion = _cacheVersion.get();
             final ResultSet rs = pstmt.executeQuery();
             while (rs.next()) {
-                result.add(toEntityBean(rs, true));
+                result.add(toEntityBean(rs, true, cacheVersion));
             }
             return result;
         } catch (final SQLException e) {
@@ -1189,9 +1267,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             }
 
             txn.commit();
-            if (_cache != null) {
-                _cache.remove(id);
-            }
+            invalidateCache(id);
             return true;
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
@@ -1344,14 +1420,30 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     @DB()
     public int update(final T entity, final SearchCriteria<T> sc, Integer rows) {
         final UpdateBuilder ub = getUpdateBuilder(entity);
-        return update(ub, sc, rows);
+        final int result = update(ub, sc, rows);
+        invalidateUpdatedEntity(entity, result);
+        return result;
     }
 
     @Override
     @DB()
     public int update(final T entity, final SearchCriteria<T> sc) {
         final UpdateBuilder ub = getUpdateBuilder(entity);
-        return update(ub, sc, null);
+        final int result = update(ub, sc, null);
+        invalidateUpdatedEntity(entity, result);
+        return result;
+    }
+
+    // conditional updates such as state transitions carry the entity they change,
+    // entities from createForUpdate() used for bulk updates have no id set
+    private void invalidateUpdatedEntity(final T entity, final int rowsUpdated) {
+        if (_cache == null || rowsUpdated == 0 || _idField == null) {
+            return;
+        }
+        final ID id = getId(entity);
+        if (id != null && !(id instanceof Number && ((Number)id).longValue() == 0)) {
+            invalidateCache(id);
+        }
     }
 
     @Override
@@ -1435,6 +1527,255 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         return _idField != null ? findByIdIncludingRemoved(id) : null;
     }
 
+    @Override
+    @DB()
+    public List<ID> persistBatch(final List<T> entities) {
+        // Rows that carry their own id get no generated key back, and the driver makes keys up
+        // for them in rewritten batches, so they are inserted apart from rows with generated ids.
+        final List<T> generated = new ArrayList<T>(Math.min(entities.size(), MAX_BATCH_SIZE));
+        final List<T> assigned = new ArrayList<T>();
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        Boolean batchKeys = null;
+        txn.start();
+        for (final T entity : entities) {
+            if (Enhancer.isEnhanced(entity.getClass())) {
+                persist(entity);
+            } else if (hasAssignedId(entity)) {
+                assigned.add(entity);
+                if (assigned.size() >= MAX_BATCH_SIZE) {
+                    flushInsertBatch(assigned, false);
+                }
+            } else {
+                if (batchKeys == null) {
+                    batchKeys = hasConsecutiveBatchKeys(txn);
+                }
+                if (!batchKeys) {
+                    persist(entity);
+                    continue;
+                }
+                generated.add(entity);
+                if (generated.size() >= MAX_BATCH_SIZE) {
+                    flushInsertBatch(generated, true);
+                }
+            }
+        }
+        flushInsertBatch(assigned, false);
+        flushInsertBatch(generated, true);
+        txn.commit();
+
+        final List<ID> ids = new ArrayList<ID>(entities.size());
+        for (final T entity : entities) {
+            ids.add(_idField != null ? getId(entity) : null);
+        }
+        return ids;
+    }
+
+    @Override
+    @DB()
+    public void insertBatch(final List<T> entities) {
+        if (_insertSqls.size() > 1 || (_ecAttributes != null && _ecAttributes.size() > 0)) {
+            persistBatch(entities);
+            return;
+        }
+
+        final List<T> batch = new ArrayList<T>(Math.min(entities.size(), MAX_BATCH_SIZE));
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        txn.start();
+        for (final T entity : entities) {
+            batch.add(entity);
+            if (batch.size() >= MAX_BATCH_SIZE) {
+                flushInsertBatch(batch, false);
+            }
+        }
+        flushInsertBatch(batch, false);
+        txn.commit();
+    }
+
+    protected boolean hasAssignedId(final T entity) {
+        if (_idField == null) {
+            return true;
+        }
+        final ID id = getId(entity);
+        return id != null && !(id instanceof Number && ((Number)id).longValue() == 0);
+    }
+
+    /**
+     * The keys returned for a batch only map to its rows when each multi-row
+     * insert gets consecutive auto increment values, which InnoDB does not
+     * promise with innodb_autoinc_lock_mode=2.
+     */
+    protected static boolean hasConsecutiveBatchKeys(final TransactionLegacy txn) {
+        final short dbId = txn.getDatabaseId();
+        Boolean consecutive = s_consecutiveBatchKeys.get(dbId);
+        if (consecutive == null) {
+            try (PreparedStatement pstmt = txn.prepareStatement("SELECT @@innodb_autoinc_lock_mode");
+                 ResultSet rs = pstmt.executeQuery()) {
+                consecutive = rs.next() && rs.getInt(1) < 2;
+            } catch (final SQLException e) {
+                s_logger.warn("Unable to read innodb_autoinc_lock_mode, rows with generated ids are inserted one by one", e);
+                consecutive = false;
+            }
+            s_consecutiveBatchKeys.put(dbId, consecutive);
+        }
+        return consecutive;
+    }
+
+    /**
+     * Inserts the entities with one batch per table.  With generatedKeys, the
+     * ids generated for the first table are set on the entities before the
+     * other tables, which refer to them, are inserted.
+     */
+    @SuppressWarnings("unchecked")
+    protected void flushInsertBatch(final List<T> batch, final boolean generatedKeys) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        PreparedStatement pstmt = null;
+        try {
+            txn.start();
+            boolean first = true;
+            for (final Pair<String, Attribute[]> pair : _insertSqls) {
+                final Attribute[] attrs = pair.second();
+                final boolean readKeys = first && generatedKeys;
+                pstmt = txn.prepareAutoCloseStatement(pair.first(), readKeys ? Statement.RETURN_GENERATED_KEYS : Statement.NO_GENERATED_KEYS);
+                for (final T entity : batch) {
+                    prepareAttributes(pstmt, entity, attrs, 1);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+
+                if (readKeys) {
+                    // keys are returned in the order of the batch, one for each row
+                    final ResultSet rs = pstmt.getGeneratedKeys();
+                    for (final T entity : batch) {
+                        if (rs == null || !rs.next()) {
+                            throw new CloudRuntimeException("Expected a generated key for each of the " + batch.size() + " rows inserted by " + pstmt);
+                        }
+                        _idField.set(entity, rs.getObject(1));
+                    }
+                }
+                first = false;
+            }
+
+            if (_ecAttributes != null && _ecAttributes.size() > 0) {
+                for (final T entity : batch) {
+                    HashMap<Attribute, Object> ecAttributes = new HashMap<Attribute, Object>();
+                    for (Attribute attr : _ecAttributes) {
+                        Object ec = attr.field.get(entity);
+                        if (ec != null) {
+                            ecAttributes.put(attr, ec);
+                        }
+                    }
+
+                    insertElementCollection(entity, _idAttributes.get(_table)[0], (ID)_idField.get(entity), ecAttributes);
+                }
+            }
+            txn.commit();
+        } catch (final SQLException e) {
+            if (e.getSQLState() != null && e.getSQLState().equals("23000") && e.getErrorCode() == 1062) {
+                throw new EntityExistsException("Entity already exists: ", e);
+            } else {
+                throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new CloudRuntimeException("Problem with getting the ec attribute ", e);
+        } catch (IllegalAccessException e) {
+            throw new CloudRuntimeException("Problem with setting the id ", e);
+        } finally {
+            batch.clear();
+        }
+    }
+
+    @Override
+    @DB()
+    public int updateBatch(final List<T> entities) {
+        final Attribute idAttribute = _idAttributes.get(_table)[0];
+        final String whereClause = idAttribute.table + "." + idAttribute.columnName + " = ? ";
+
+        // Entities that changed the same fields share one statement.
+        final Map<String, List<T>> batches = new LinkedHashMap<String, List<T>>();
+        int rowsUpdated = 0;
+        for (final T entity : entities) {
+            assert Enhancer.isEnhanced(entity.getClass()) : "Entity is not generated by this dao";
+
+            final UpdateBuilder ub = getUpdateBuilder(entity);
+            if (ub.getCollectionChanges() != null) {
+                rowsUpdated += update(getId(entity), ub, entity);
+                continue;
+            }
+            final StringBuilder sql = ub.toSql(_tables);
+            if (sql == null) {
+                continue;
+            }
+            final String key = sql.append(whereClause).toString();
+            List<T> batch = batches.get(key);
+            if (batch == null) {
+                batch = new ArrayList<T>();
+                batches.put(key, batch);
+            }
+            batch.add(entity);
+        }
+
+        final TransactionLegacy txn = TransactionLegacy.currentTxn();
+        PreparedStatement pstmt = null;
+        try {
+            txn.start();
+            for (final Map.Entry<String, List<T>> entry : batches.entrySet()) {
+                pstmt = txn.prepareAutoCloseStatement(entry.getKey());
+                int count = 0;
+                for (final T entity : entry.getValue()) {
+                    final UpdateBuilder ub = getUpdateBuilder(entity);
+                    int i = 1;
+                    for (final Ternary<Attribute, Boolean, Object> value : ub.getChanges()) {
+                        prepareAttribute(i++, pstmt, value.first(), value.third());
+                    }
+                    prepareAttribute(i, pstmt, idAttribute, getId(entity));
+                    pstmt.addBatch();
+                    if (++count % MAX_BATCH_SIZE == 0) {
+                        rowsUpdated += countUpdated(pstmt.executeBatch());
+                    }
+                }
+                if (count % MAX_BATCH_SIZE != 0) {
+                    rowsUpdated += countUpdated(pstmt.executeBatch());
+                }
+            }
+            txn.commit();
+        } catch (final SQLException e) {
+            if (e.getSQLState() != null && e.getSQLState().equals("23000") && e.getErrorCode() == 1062) {
+                throw new EntityExistsException("Entity already exists ", e);
+            }
+            throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
+        }
+
+        for (final List<T> batch : batches.values()) {
+            for (final T entity : batch) {
+                getUpdateBuilder(entity).clear();
+                invalidateCache(getId(entity));
+            }
+        }
+        return rowsUpdated;
+    }
+
+    private static int countUpdated(final int[] results) {
+        int count = 0;
+        for (final int result : results) {
+            // With rewriteBatchedStatements the driver can only report that rows were changed.
+            count += result == Statement.SUCCESS_NO_INFO ? 1 : Math.max(result, 0);
+        }
+        return count;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected ID getId(final T entity) {
+        try {
+            return (ID)_idField.get(entity);
+        } catch (final IllegalAccessException e) {
+            throw new CloudRuntimeException("How can it be illegal access...come on", e);
+        }
+    }
+
     protected void insertElementCollection(T entity, Attribute idAttribute, ID id, Map<Attribute, Object> ecAttributes) throws SQLException {
         TransactionLegacy txn = TransactionLegacy.currentTxn();
         txn.start();
@@ -1616,21 +1957,43 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     @SuppressWarnings("unchecked")
     @DB()
     protected T toEntityBean(final ResultSet result, final boolean cache) throws SQLException {
+        return toEntityBean(result, cache, _cacheVersion.get());
+    }
+
+    /**
+     * @param cacheVersion value of the cache version read before the query was
+     *        executed.  The entity is not left in the cache if an entity of this
+     *        DAO was invalidated since then, as the row read may already be stale.
+     */
+    @SuppressWarnings("unchecked")
+    @DB()
+    protected T toEntityBean(final ResultSet result, final boolean cache, final long cacheVersion) throws SQLException {
         final T entity = (T)_factory.newInstance(new Callback[] {NoOp.INSTANCE, new UpdateBuilder(this)});
 
         toEntityBean(result, entity);
 
-        if (cache && _cache != null) {
-            try {
-                _cache.put(new Element(_idField.get(entity), entity));
-            } catch (final Exception e) {
-                s_logger.debug("Can't put it in the cache", e);
-            }
+        if (cache) {
+            putInCache(entity, cacheVersion);
         }
 
         return entity;
     }
 
+    protected void putInCache(final T entity, final long cacheVersion) {
+        if (_cache == null) {
+            return;
+        }
+        try {
+            final Object id = _idField.get(entity);
+            _cache.put(new Element(id, entity));
+            if (_cacheVersion.get() != cacheVersion) {
+                _cache.remove(id);
+            }
+        } catch (final Exception e) {
+            s_logger.debug("Can't put it in the cache", e);
+        }
+    }
+
     @DB()
     protected T toVO(ResultSet result, boolean cache) throws SQLException {
         T entity;
@@ -1642,12 +2005,8 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             throw new CloudRuntimeException("Illegal Access", e1);
         }
         toEntityBean(result, entity);
-        if (cache && _cache != null) {
-            try {
-                _cache.put(new Element(_idField.get(entity), entity));
-            } catch (final Exception e) {
-                s_logger.debug("Can't put it in the cache", e);
-            }
+        if (cache) {
+            putInCache(entity, _cacheVersion.get());
         }
 
         return entity;
@@ -1790,9 +2149,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
 
             final int result = pstmt.executeUpdate();
             txn.commit();
-            if (_cache != null) {
-                _cache.remove(id);
-            }
+            invalidateCache(id);
             return result > 0;
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
@@ -1813,6 +2170,10 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
     }
 
     protected Cache _cache;
+    protected EntityCacheStatistics _cacheStats;
+    protected boolean _cacheClustered;
+    // Bumped on every invalidation so that rows read before it are not cached after it.
+    protected final AtomicLong _cacheVersion = new AtomicLong();
 
     @DB()
     protected void createCache(final Map<String, ? extends Object> params) {
@@ -1826,11 +2187,92 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             _cache = new Cache(getName(), maxElements, false, live == -1, live == -1 ? Integer.MAX_VALUE : live, idle);
             cm.addCache(_cache);
             s_logger.info("Cache created: " + _cache.toString());
+
+            final String clustered = (String)params.get("cache.cluster.invalidation");
+            _cacheClustered = clustered == null || Boolean.parseBoolean(clustered);
+            _cacheStats = new EntityCacheStatistics(_cache);
+            s_cachedDaos.put(getName(), this);
+            try {
+                JmxUtil.registerMBean("DaoCache", getName(), _cacheStats);
+            } catch (final Exception e) {
+                s_logger.warn("Unable to register cache mbean for " + getName(), e);
+            }
         } else {
             _cache = null;
         }
     }
 
+    /**
+     * Drops the entity from the cache after it was changed or removed.  The
+     * change is only visible to others once the outermost transaction ends,
+     * so the entity is dropped again then, in case it was read back in the
+     * meantime, and the other management servers are only told about it once
+     * the transaction is committed.
+     */
+    protected void invalidateCache(final ID id) {
+        if (_cache == null) {
+            return;
+        }
+        dropFromCache(id);
+        _cacheStats.invalidated(false);
+
+        final TransactionLegacy txn = TransactionLegacy.currentTxn(false);
+        if (txn == null) {
+            propagateInvalidation(id);
+            return;
+        }
+        txn.registerCompletionListener(new TransactionCompletionListener() {
+            @Override
+            public void afterCompletion(final boolean committed) {
+                dropFromCache(id);
+                if (committed) {
+                    propagateInvalidation(id);
+                }
+            }
+        });
+    }
+
+    protected void dropFromCache(final ID id) {
+        _cacheVersion.incrementAndGet();
+        _cache.remove(id);
+    }
+
+    protected void propagateInvalidation(final ID id) {
+        final EntityCacheListener listener = s_entityCacheListener;
+        if (_cacheClustered && listener != null) {
+            try {
+                listener.entityInvalidated(getName(), id);
+            } catch (final Exception e) {
+                s_logger.warn("Unable to propagate cache invalidation of " + getName() + " id " + id, e);
+            }
+        }
+    }
+
+    protected void invalidateRemote(final String id) {
+        if (_cache == null) {
+            return;
+        }
+        _cacheVersion.incrementAndGet();
+        _cacheStats.invalidated(true);
+
+        final Class<?> idType = _idField.getType();
+        try {
+            if (idType == Long.class || idType == long.class) {
+                _cache.remove(Long.valueOf(id));
+                return;
+            } else if (idType == Integer.class || idType == int.class) {
+                _cache.remove(Integer.valueOf(id));
+                return;
+            } else if (idType == String.class) {
+                _cache.remove(id);
+                return;
+            }
+        } catch (final NumberFormatException e) {
+            s_logger.debug("Unexpected id " + id + " for " + getName());
+        }
+        _cache.removeAll();
+    }
+
     @Override
     @DB()
     public boolean configure(final String name, final Map<String, Object> params) throws ConfigurationException {
@@ -21,7 +21,9 @@ import java.io.Serializable;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -32,6 +34,7 @@ import net.sf.cglib.proxy.Factory;
 import net.sf.cglib.proxy.MethodInterceptor;
 import net.sf.cglib.proxy.MethodProxy;
 
+import com.cloud.utils.Pair;
 import com.cloud.utils.db.SearchCriteria.Func;
 import com.cloud.utils.db.SearchCriteria.Op;
 import com.cloud.utils.db.SearchCriteria.SelectType;
@@ -57,6 +60,12 @@ public abstract class SearchBase<J extends SearchBase<?, T, K>, T, K> {
     Class<K> _resultType;
     GenericDaoBase<? extends T, ? extends Serializable> _dao;
 
+    protected static final int MAX_CACHED_SQLS = 32;
+
+    // SQL generated for criteria of this builder by the shape of the criteria, see getSqlCache()
+    private volatile Map<List<Object>, Pair<String, Boolean>> _sqls;
+    private volatile boolean _created = false;
+
     ArrayList<Condition> _conditions;
     ArrayList<Attribute> _specifiedAttrs;
 
@@ -253,6 +262,42 @@ public abstract class SearchBase<J extends SearchBase<?, T, K>, T, K> {
         return condition;
     }
 
+    /**
+     * Returns where the SQL generated for criteria of this builder is kept.
+     * Builders that are created per call, including query builders, only
+     * create one criteria, so nothing is kept until a second one is created.
+     *
+     * @return the cache or null if the builder was not reused yet.
+     */
+    Map<List<Object>, Pair<String, Boolean>> getSqlCache() {
+        if (_sqls == null) {
+            if (!_created) {
+                _created = true;
+                return null;
+            }
+            synchronized (this) {
+                if (_sqls == null) {
+                    _sqls = createSqlCache(MAX_CACHED_SQLS);
+                }
+            }
+        }
+        return _sqls;
+    }
+
+    /**
+     * @return a thread safe map that drops the least recently used entry once it holds maxSize entries.
+     */
+    static Map<List<Object>, Pair<String, Boolean>> createSqlCache(final int maxSize) {
+        return Collections.synchronizedMap(new LinkedHashMap<List<Object>, Pair<String, Boolean>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<List<Object>, Pair<String, Boolean>> eldest) {
+                return size() > maxSize;
+            }
+        });
+    }
+
     /**
      * creates the SearchCriteria so the actual values can be filled in.
      *
@@ -92,6 +92,12 @@ public class SearchCriteria<K> {
     private final List<Object> _groupByValues;
     private final Class<K> _resultType;
     private final SelectType _selectType;
+    private final boolean _blank;
+    private final SearchBase<?, ?, K> _builder;
+
+    // Shape codes of a condition in getSqlShape() besides the number of parameters.
+    private static final int SHAPE_SKIPPED = -1;
+    private static final int SHAPE_NULL = -2;
 
     protected SearchCriteria(SearchBase<?, ?, K> sb) {
         this._attrs = sb._attrs;
@@ -116,6 +122,9 @@ public class SearchCriteria<K> {
         }
         _resultType = sb._resultType;
         _selectType = sb._selectType;
+        // Criteria of builders without conditions, joins, selects or group by all produce the same SQL for a DAO.
+        _blank = _conditions.isEmpty() && _joins == null && (_selects == null || _selects.isEmpty()) && _groupBy == null;
+        _builder = sb;
     }
 
     protected void setParameters(HashMap<String, Object[]> parameters) {
@@ -231,6 +240,25 @@ public class SearchCriteria<K> {
         setParameters(name, values);
     }
 
+    /**
+     * Keyset pagination: restricts the search to the rows that come after
+     * startAfter in the order of the field, and orders the filter by that
+     * field only.  The database then seeks to the page through the index on
+     * the field instead of reading and discarding the rows of all the
+     * previous pages, as it does with an offset.
+     *
+     * @param filter filter of the search, its order and offset are replaced.
+     * @param field field to page on, its values must be unique.
+     * @param ascending order of the pages.
+     * @param startAfter value of the field in the last row of the previous page.
+     */
+    public void setStartAfter(Filter filter, String field, boolean ascending, Object startAfter) {
+        Attribute attr = _attrs.get(field);
+        assert attr != null : "Unable to find field: " + field;
+        addAnd(attr, ascending ? Op.GT : Op.LT, startAfter);
+        filter.seek(attr, ascending);
+    }
+
     protected void addCondition(String conditionName, String cond, String fieldName, Op op) {
         Attribute attr = _attrs.get(fieldName);
         assert attr != null : "Unable to find field: " + fieldName;
@@ -268,6 +296,80 @@ public class SearchCriteria<K> {
         return sql.toString();
     }
 
+    /**
+     * Returns a key that is equal for all criteria created from the same search
+     * builder for which getWhereClause() and the joins produce the same SQL, so
+     * that the SQL can be generated once and kept with the builder.  Like getWhereClause(), it
+     * places the presets in the parameters.
+     *
+     * @return the key or null if the SQL depends on more than the shape of the
+     *         parameters, e.g. when a sub criteria is used.
+     */
+    public List<Object> getSqlShape() {
+        List<Object> shape = new ArrayList<Object>(_conditions.size() + _additionals.size() * 4 + 2);
+        return addSqlShape(shape) ? shape : null;
+    }
+
+    /**
+     * @return true if the builder of the criteria had no conditions, joins,
+     *         selects or group by, so the SQL only depends on the DAO and the shape.
+     */
+    public boolean isBlank() {
+        return _blank;
+    }
+
+    /**
+     * @return where the SQL of the builder of the criteria is kept, null if it is not kept.
+     */
+    protected Map<List<Object>, Pair<String, Boolean>> getSqlCache() {
+        return _blank ? null : _builder.getSqlCache();
+    }
+
+    protected boolean addSqlShape(List<Object> shape) {
+        for (Condition condition : _conditions) {
+            if (!addConditionShape(shape, condition)) {
+                return false;
+            }
+        }
+
+        shape.add(_additionals.size());
+        for (Condition condition : _additionals) {
+            shape.add(condition.cond);
+            shape.add(condition.attr);
+            shape.add(condition.op);
+            if (!addConditionShape(shape, condition)) {
+                return false;
+            }
+        }
+
+        if (_joins != null) {
+            for (JoinBuilder<SearchCriteria<?>> join : _joins.values()) {
+                if (!join.getT().addSqlShape(shape)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean addConditionShape(List<Object> shape, Condition condition) {
+        if (condition.isPreset()) {
+            _params.put(condition.name, condition.presets);
+        }
+        Object[] params = _params.get(condition.name);
+        if (condition.op == Op.SC) {
+            return false;
+        }
+        if (condition.op != null && condition.op.params != 0 && params == null) {
+            shape.add(SHAPE_SKIPPED);
+        } else if ((condition.op == Op.EQ || condition.op == Op.NEQ) && (params == null || params.length == 0 || params[0] == null)) {
+            shape.add(SHAPE_NULL);
+        } else {
+            shape.add(params == null ? 0 : params.length);
+        }
+        return true;
+    }
+
     public List<Pair<Attribute, Object>> getValues() {
         ArrayList<Pair<Attribute, Object>> params = new ArrayList<Pair<Attribute, Object>>(_params.size());
         for (Condition condition : _conditions) {
@@ -25,6 +25,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Savepoint;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -95,6 +96,7 @@ public class TransactionLegacy implements Closeable {
     private long _id;
 
     private final LinkedList<Pair<String, Long>> _lockTimes = new LinkedList<Pair<String, Long>>();
+    private final List<TransactionCompletionListener> _completionListeners = new ArrayList<TransactionCompletionListener>();
 
     private String _name;
     private Connection _conn;
@@ -641,6 +643,7 @@ public class TransactionLegacy implements Closeable {
         }
         _txn = false;
         _name = null;
+        notifyCompletion(false);
 
         closeConnection();
 
@@ -734,11 +737,52 @@ public class TransactionLegacy implements Closeable {
                 clearLockTimes();
                 closeConnection();
             }
-            return true;
         } catch (final SQLException e) {
             rollbackTransaction();
             throw new CloudRuntimeException("Unable to commit or close the connection. ", e);
         }
+        notifyCompletion(true);
+        return true;
+    }
+
+    /**
+     * Calls the listener once the outermost transaction is committed or
+     * rolled back, or right away if no transaction is in progress.
+     */
+    public void registerCompletionListener(final TransactionCompletionListener listener) {
+        if (!_txn) {
+            listener.afterCompletion(true);
+            return;
+        }
+        _completionListeners.add(listener);
+    }
+
+    /**
+     * Calls the listener once the outermost transaction of the current
+     * thread ends, or right away if the thread has no transaction.
+     */
+    public static void registerCurrentTxnCompletionListener(final TransactionCompletionListener listener) {
+        final TransactionLegacy txn = currentTxn(false);
+        if (txn == null) {
+            listener.afterCompletion(true);
+            return;
+        }
+        txn.registerCompletionListener(listener);
+    }
+
+    protected void notifyCompletion(final boolean committed) {
+        if (_completionListeners.isEmpty()) {
+            return;
+        }
+        final List<TransactionCompletionListener> listeners = new ArrayList<TransactionCompletionListener>(_completionListeners);
+        _completionListeners.clear();
+        for (final TransactionCompletionListener listener : listeners) {
+            try {
+                listener.afterCompletion(committed);
+            } catch (final Exception e) {
+                s_logger.warn("Transaction completion listener failed", e);
+            }
+        }
     }
 
     protected void closeConnection() {
@@ -855,6 +899,7 @@ public class TransactionLegacy implements Closeable {
         } catch (final SQLException e) {
             s_logger.warn("Unable to rollback", e);
         }
+        notifyCompletion(false);
     }
 
     protected void rollbackSavepoint(Savepoint sp) {
@@ -869,6 +914,7 @@ public class TransactionLegacy implements Closeable {
         if (!hasTxnInStack()) {
             _txn = false;
             closeConnection();
+            notifyCompletion(false);
         }
     }
 
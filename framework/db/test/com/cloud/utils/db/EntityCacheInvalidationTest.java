@@ -0,0 +1,111 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EntityCacheInvalidationTest {
+    private static int s_daoCount = 0;
+
+    private DbTestDao dao;
+    private final List<Object> propagated = new ArrayList<Object>();
+
+    @Before
+    public void setUp() throws Exception {
+        dao = new DbTestDao();
+        final Map<String, Object> params = new HashMap<String, Object>();
+        params.put("cache.size", "10");
+        dao.configure("EntityCacheInvalidationTest" + s_daoCount++, params);
+
+        GenericDaoBase.setEntityCacheListener(new EntityCacheListener() {
+            @Override
+            public void entityInvalidated(final String cacheName, final Object id) {
+                propagated.add(id);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        GenericDaoBase.setEntityCacheListener(null);
+        CacheManager.getInstance().removeCache(dao.getName());
+        final TransactionLegacy txn = TransactionLegacy.currentTxn(false);
+        if (txn != null) {
+            txn.close();
+        }
+    }
+
+    @Test
+    public void testInvalidateOutsideTransaction() {
+        dao._cache.put(new Element(1L, new DbTestVO()));
+
+        dao.invalidateCache(1L);
+
+        Assert.assertNull(dao._cache.get(1L));
+        Assert.assertEquals(1, propagated.size());
+    }
+
+    @Test
+    public void testInvalidateOnCommit() {
+        final TransactionLegacy txn = TransactionLegacy.open("testInvalidateOnCommit");
+        txn.start();
+        txn.start();
+        dao._cache.put(new Element(1L, new DbTestVO()));
+        dao.invalidateCache(1L);
+        Assert.assertNull("Dropped locally right away", dao._cache.get(1L));
+
+        // read back by another thread before the change is committed
+        dao._cache.put(new Element(1L, new DbTestVO()));
+        txn.commit();
+        Assert.assertTrue("Nested commit does not make the change visible", propagated.isEmpty());
+        Assert.assertNotNull(dao._cache.get(1L));
+
+        txn.commit();
+        Assert.assertNull("Dropped again after the outermost commit", dao._cache.get(1L));
+        Assert.assertEquals(1, propagated.size());
+        Assert.assertEquals(1L, propagated.get(0));
+        txn.close();
+    }
+
+    @Test
+    public void testInvalidateOnRollback() {
+        final TransactionLegacy txn = TransactionLegacy.open("testInvalidateOnRollback");
+        txn.start();
+        txn.start();
+        dao.invalidateCache(1L);
+        txn.commit();
+
+        // uncommitted row read back on the updating thread
+        dao._cache.put(new Element(1L, new DbTestVO()));
+        txn.rollback();
+
+        Assert.assertNull("Uncommitted copy is not left in the cache", dao._cache.get(1L));
+        Assert.assertTrue("Peers are not told about rolled back changes", propagated.isEmpty());
+        txn.close();
+    }
+}
@@ -41,4 +41,18 @@ public class FilterTest {
         Assert.assertTrue(filter.getOrderBy().split(",").length == 3);
         Assert.assertTrue(filter.getOrderBy().split(",")[2].trim().toLowerCase().equals("test.fld_int asc"));
     }
+
+    @Test
+    /*
+    *  Keyset pagination orders by the seek attribute alone and restarts at the first row.
+    */
+    public void testSeek() {
+        Filter filter = new Filter(DbTestVO.class, "fieldString", true, 40L, 20L);
+
+        filter.seek(new Attribute("test", "id"), false);
+
+        Assert.assertEquals("order by test.id desc", filter.getOrderBy().trim().toLowerCase());
+        Assert.assertEquals(Long.valueOf(0), filter.getOffset());
+        Assert.assertEquals(Long.valueOf(20), filter.getLimit());
+    }
 }
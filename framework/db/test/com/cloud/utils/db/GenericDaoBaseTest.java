@@ -16,8 +16,13 @@
 // under the License.
 package com.cloud.utils.db;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -26,10 +31,24 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import com.cloud.utils.exception.CloudRuntimeException;
+
 @RunWith(MockitoJUnitRunner.class)
 public class GenericDaoBaseTest {
     @Mock
     ResultSet resultSet;
+    @Mock
+    Connection connection;
+    @Mock
+    PreparedStatement lockModeStatement;
+    @Mock
+    ResultSet lockModeResult;
+    @Mock
+    PreparedStatement generatedKeysStatement;
+    @Mock
+    PreparedStatement assignedIdStatement;
+    @Mock
+    ResultSet generatedKeys;
 
     @Test
     public void getObjectBoolean() throws SQLException {
@@ -148,4 +167,70 @@ public class GenericDaoBaseTest {
         Mockito.verify(resultSet).getByte(1);
     }
 
+    private List<Long> persistBatch(final DbTestVO... entities) throws SQLException {
+        Mockito.when(connection.prepareStatement("SELECT @@innodb_autoinc_lock_mode")).thenReturn(lockModeStatement);
+        Mockito.when(lockModeStatement.executeQuery()).thenReturn(lockModeResult);
+        Mockito.when(lockModeResult.next()).thenReturn(true);
+        Mockito.when(lockModeResult.getInt(1)).thenReturn(1);
+        Mockito.when(connection.prepareStatement(Mockito.anyString(), Mockito.eq(Statement.RETURN_GENERATED_KEYS))).thenReturn(generatedKeysStatement);
+        Mockito.when(connection.prepareStatement(Mockito.anyString(), Mockito.eq(Statement.NO_GENERATED_KEYS))).thenReturn(assignedIdStatement);
+        Mockito.when(generatedKeysStatement.getGeneratedKeys()).thenReturn(generatedKeys);
+
+        final TransactionLegacy txn = TransactionLegacy.open("persistBatch");
+        txn.transitToUserManagedConnection(connection);
+        try {
+            return new DbTestDao().persistBatch(Arrays.asList(entities));
+        } finally {
+            txn.transitToAutoManagedConnection(TransactionLegacy.CLOUD_DB);
+            txn.close();
+        }
+    }
+
+    @Test
+    public void persistBatchInsertsAssignedIdsApart() throws SQLException {
+        Mockito.when(generatedKeys.next()).thenReturn(true, true, false);
+        Mockito.when(generatedKeys.getObject(1)).thenReturn(11L, 12L);
+        final DbTestVO first = new DbTestVO();
+        final DbTestVO assigned = new DbTestVO();
+        assigned.id = 5L;
+        final DbTestVO last = new DbTestVO();
+
+        final List<Long> ids = persistBatch(first, assigned, last);
+
+        Assert.assertEquals(Arrays.asList(11L, 5L, 12L), ids);
+        Assert.assertEquals(11L, first.id);
+        Assert.assertEquals(12L, last.id);
+        Mockito.verify(generatedKeysStatement, Mockito.times(2)).addBatch();
+        Mockito.verify(assignedIdStatement, Mockito.times(1)).addBatch();
+        Mockito.verify(assignedIdStatement, Mockito.never()).getGeneratedKeys();
+    }
+
+    @Test(expected = CloudRuntimeException.class)
+    public void persistBatchFailsOnMissingKeys() throws SQLException {
+        Mockito.when(generatedKeys.next()).thenReturn(true, false);
+        Mockito.when(generatedKeys.getObject(1)).thenReturn(11L);
+
+        persistBatch(new DbTestVO(), new DbTestVO());
+    }
+
+    @Test
+    public void insertBatchDoesNotReadBackKeys() throws SQLException {
+        Mockito.when(connection.prepareStatement(Mockito.anyString(), Mockito.eq(Statement.NO_GENERATED_KEYS))).thenReturn(assignedIdStatement);
+
+        final TransactionLegacy txn = TransactionLegacy.open("insertBatch");
+        txn.transitToUserManagedConnection(connection);
+        try {
+            new DbTestDao().insertBatch(Arrays.asList(new DbTestVO(), new DbTestVO(), new DbTestVO()));
+        } finally {
+            txn.transitToAutoManagedConnection(TransactionLegacy.CLOUD_DB);
+            txn.close();
+        }
+
+        Mockito.verify(assignedIdStatement, Mockito.times(3)).addBatch();
+        Mockito.verify(assignedIdStatement, Mockito.times(1)).executeBatch();
+        Mockito.verify(assignedIdStatement, Mockito.never()).getGeneratedKeys();
+        // neither the lock mode is checked nor are the rows read back one by one
+        Mockito.verify(connection, Mockito.never()).prepareStatement("SELECT @@innodb_autoinc_lock_mode");
+        Mockito.verify(connection, Mockito.never()).prepareStatement(Mockito.anyString(), Mockito.eq(Statement.RETURN_GENERATED_KEYS));
+    }
 }
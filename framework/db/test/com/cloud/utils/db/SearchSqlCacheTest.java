@@ -0,0 +1,139 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.cloud.utils.Pair;
+import com.cloud.utils.db.SearchCriteria.Op;
+
+public class SearchSqlCacheTest {
+    private final DbTestDao dao = new DbTestDao();
+
+    private SearchBuilder<DbTestVO> createInSearch() {
+        final SearchBuilder<DbTestVO> sb = dao.createSearchBuilder();
+        sb.and("ints", sb.entity().getFieldInt(), Op.IN);
+        sb.and("string", sb.entity().getFieldString(), Op.EQ);
+        sb.done();
+        return sb;
+    }
+
+    private SearchCriteria<DbTestVO> createInCriteria(final SearchBuilder<DbTestVO> sb, final String string, final Object... ints) {
+        final SearchCriteria<DbTestVO> sc = sb.create();
+        sc.setParameters("ints", ints);
+        sc.setParameters("string", string);
+        return sc;
+    }
+
+    private SearchBuilder<DbTestVO> createJoinGroupBySearch() {
+        final SearchBuilder<DbTestVO> joined = dao.createSearchBuilder();
+        joined.and("long", joined.entity().getFieldLong(), Op.EQ);
+
+        final SearchBuilder<DbTestVO> sb = dao.createSearchBuilder();
+        sb.and("string", sb.entity().getFieldString(), Op.EQ);
+        sb.groupBy(sb.entity().getFieldInt());
+        sb.join("joined", joined, sb.entity().getFieldInt(), joined.entity().getFieldInt(), JoinBuilder.JoinType.INNER);
+        sb.done();
+        return sb;
+    }
+
+    private SearchCriteria<DbTestVO> createJoinGroupByCriteria(final SearchBuilder<DbTestVO> sb, final Long joinedLong) {
+        final SearchCriteria<DbTestVO> sc = sb.create();
+        sc.setParameters("string", "a");
+        if (joinedLong != null) {
+            sc.setJoinParameters("joined", "long", joinedLong);
+        }
+        return sc;
+    }
+
+    @Test
+    public void testInSqlIsReused() {
+        final SearchBuilder<DbTestVO> sb = createInSearch();
+        final Pair<String, Boolean> first = dao.getSearchSql(createInCriteria(sb, "a", 1, 2, 3), false);
+        final Pair<String, Boolean> generated = dao.getSearchSql(createInCriteria(sb, "b", 4, 5, 6), false);
+        final Pair<String, Boolean> cached = dao.getSearchSql(createInCriteria(sb, "c", 7, 8, 9), false);
+
+        Assert.assertSame(generated, cached);
+        Assert.assertEquals(first.first(), cached.first());
+        Assert.assertEquals(first.second(), cached.second());
+
+        final String fresh = dao.getSearchSql(createInCriteria(createInSearch(), "a", 1, 2, 3), false).first();
+        Assert.assertEquals(fresh, cached.first());
+    }
+
+    @Test
+    public void testInSqlOfOtherShapes() {
+        final SearchBuilder<DbTestVO> sb = createInSearch();
+        dao.getSearchSql(createInCriteria(sb, "a", 1, 2, 3), false);
+        dao.getSearchSql(createInCriteria(sb, "a", 1, 2, 3), false);
+
+        final String twoValues = dao.getSearchSql(createInCriteria(sb, "a", 1, 2), false).first();
+        Assert.assertEquals(dao.getSearchSql(createInCriteria(createInSearch(), "a", 1, 2), false).first(), twoValues);
+
+        final String nullString = dao.getSearchSql(createInCriteria(sb, null, 1, 2, 3), false).first();
+        Assert.assertEquals(dao.getSearchSql(createInCriteria(createInSearch(), null, 1, 2, 3), false).first(), nullString);
+
+        final String queryCache = dao.getSearchSql(createInCriteria(sb, "a", 1, 2, 3), true).first();
+        Assert.assertEquals(dao.getSearchSql(createInCriteria(createInSearch(), "a", 1, 2, 3), true).first(), queryCache);
+    }
+
+    @Test
+    public void testJoinAndGroupBySqlIsReused() {
+        final SearchBuilder<DbTestVO> sb = createJoinGroupBySearch();
+        dao.getSearchSql(createJoinGroupByCriteria(sb, 1L), false);
+        final Pair<String, Boolean> generated = dao.getSearchSql(createJoinGroupByCriteria(sb, 2L), false);
+        final Pair<String, Boolean> cached = dao.getSearchSql(createJoinGroupByCriteria(sb, 3L), false);
+        Assert.assertSame(generated, cached);
+
+        final String fresh = dao.getSearchSql(createJoinGroupByCriteria(createJoinGroupBySearch(), 1L), false).first();
+        Assert.assertEquals(fresh, cached.first());
+        Assert.assertTrue(cached.first().contains("GROUP BY"));
+        Assert.assertTrue(cached.first().contains("INNER JOIN"));
+
+        final String withoutJoinParameter = dao.getSearchSql(createJoinGroupByCriteria(sb, null), false).first();
+        final String freshWithoutJoinParameter = dao.getSearchSql(createJoinGroupByCriteria(createJoinGroupBySearch(), null), false).first();
+        Assert.assertEquals(freshWithoutJoinParameter, withoutJoinParameter);
+    }
+
+    @Test
+    public void testBuilderUsedOnceKeepsNothing() {
+        final SearchBuilder<DbTestVO> sb = createInSearch();
+        final SearchCriteria<DbTestVO> sc = createInCriteria(sb, "a", 1);
+        Assert.assertNull(sc.getSqlCache());
+    }
+
+    @Test
+    public void testSqlCacheDropsLeastRecentlyUsed() {
+        final Map<List<Object>, Pair<String, Boolean>> cache = SearchBase.createSqlCache(2);
+        final List<Object> a = Arrays.<Object>asList("a");
+        final List<Object> b = Arrays.<Object>asList("b");
+        final List<Object> c = Arrays.<Object>asList("c");
+        cache.put(a, new Pair<String, Boolean>("a", true));
+        cache.put(b, new Pair<String, Boolean>("b", true));
+        cache.get(a);
+        cache.put(c, new Pair<String, Boolean>("c", true));
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertTrue(cache.containsKey(a));
+        Assert.assertFalse(cache.containsKey(b));
+    }
+}
@@ -24,6 +24,8 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
@@ -77,6 +79,8 @@ import com.cloud.utils.db.SearchCriteria.Op;
 import com.cloud.utils.db.Transaction;
 import com.cloud.utils.db.TransactionCallback;
 import com.cloud.utils.db.TransactionCallbackNoReturn;
+import com.cloud.utils.db.TransactionCompletionListener;
+import com.cloud.utils.db.TransactionLegacy;
 import com.cloud.utils.db.TransactionStatus;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.exception.ExceptionUtil;
@@ -126,6 +130,11 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     private ExecutorService _apiJobExecutor;
     private ExecutorService _workerJobExecutor;
 
+    // queues are dispatched as soon as an item queued or purged locally is committed, the heartbeat remains the
+    // fallback for items queued or released by other management servers
+    private ExecutorService _queueDispatcher;
+    private final Set<Long> _pendingQueues = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
     @Override
     public String getConfigComponentName() {
         return AsyncJobManager.class.getSimpleName();
@@ -201,16 +210,19 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
 
             try {
                 // lock is acquired
-                return Transaction.execute(new TransactionCallback<Long>() {
+                SyncQueueVO queue = Transaction.execute(new TransactionCallback<SyncQueueVO>() {
                     @Override
-                    public Long doInTransaction(TransactionStatus status) {
+                    public SyncQueueVO doInTransaction(TransactionStatus status) {
                         job.setInitMsid(getMsid());
                         dao.persist(job);
 
-                        syncAsyncJobExecution(job, syncObjType, syncObjId, 1);
-                        return job.getId();
+                        return queueAsyncJob(job, syncObjType, syncObjId, 1);
                     }
                 });
+
+                // dispatch the item without waiting for the next heartbeat once the caller's transaction commits it
+                signalQueue(queue.getId());
+                return job.getId();
             } finally {
                 _vmInstanceDao.unlockFromLockTable(String.valueOf(syncObjId));
             }
@@ -235,7 +247,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                     resultObject);
             }
             // still purge item from queue to avoid any blocking
-            _queueMgr.purgeAsyncJobQueueItemId(jobId);
+            signalQueue(_queueMgr.purgeAsyncJobQueueItemId(jobId));
             return;
         }
 
@@ -244,7 +256,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                 s_logger.debug("job-" + jobId + " is already completed.");
             }
             // still purge item from queue to avoid any blocking
-            _queueMgr.purgeAsyncJobQueueItemId(jobId);
+            signalQueue(_queueMgr.purgeAsyncJobQueueItemId(jobId));
             return;
         }
 
@@ -259,6 +271,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Wake up jobs related to job-" + jobId);
         }
+        final Long[] purgedQueueId = new Long[1];
         List<Long> wakeupList = Transaction.execute(new TransactionCallback<List<Long>>() {
             @Override
             public List<Long> doInTransaction(TransactionStatus status) {
@@ -286,12 +299,15 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                 _joinMapDao.disjoinAllJobs(jobId);
 
                 // purge the job sync item from queue
-                _queueMgr.purgeAsyncJobQueueItemId(jobId);
+                purgedQueueId[0] = _queueMgr.purgeAsyncJobQueueItemId(jobId);
 
                 return wakeupList;
             }
         });
 
+        // the queue slot freed by this job can be handed to the next item right away
+        signalQueue(purgedQueueId[0]);
+
         publishOnEventBus(job, "complete"); // publish before the instance type and ID are wiped out
 
         //
@@ -407,6 +423,11 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
 
     @Override
     public void syncAsyncJobExecution(AsyncJob job, String syncObjType, long syncObjId, long queueSizeLimit) {
+        SyncQueueVO queue = queueAsyncJob(job, syncObjType, syncObjId, queueSizeLimit);
+        signalQueue(queue.getId());
+    }
+
+    private SyncQueueVO queueAsyncJob(AsyncJob job, String syncObjType, long syncObjId, long queueSizeLimit) {
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Sync job-" + job.getId() + " execution on object " + syncObjType + "." + syncObjId);
         }
@@ -415,6 +436,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
         queue = _queueMgr.queue(syncObjType, syncObjId, SyncQueueItem.AsyncJobContentType, job.getId(), queueSizeLimit);
         if (queue == null)
             throw new CloudRuntimeException("Unable to insert queue item into database, DB is full?");
+        return queue;
     }
 
     @Override
@@ -740,6 +762,45 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
         }
     }
 
+    /**
+     * Dispatches the queue once the outermost transaction of the caller is
+     * committed, as the queue item is not visible to the dispatcher before.
+     */
+    private void signalQueue(final Long queueId) {
+        if (queueId == null) {
+            return;
+        }
+
+        TransactionLegacy.registerCurrentTxnCompletionListener(new TransactionCompletionListener() {
+            @Override
+            public void afterCompletion(boolean committed) {
+                if (committed) {
+                    dispatchQueue(queueId);
+                }
+            }
+        });
+    }
+
+    private void dispatchQueue(final Long queueId) {
+        // a queue already waiting for dispatch will pick up this item as well
+        if (!_pendingQueues.add(queueId)) {
+            return;
+        }
+
+        try {
+            _queueDispatcher.execute(new ManagedContextRunnable() {
+                @Override
+                protected void runInContext() {
+                    _pendingQueues.remove(queueId);
+                    checkQueue(queueId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // shutting down, the item stays in the queue for the heartbeat of a surviving management server
+            _pendingQueues.remove(queueId);
+        }
+    }
+
     private Runnable getHeartbeatTask() {
         return new ManagedContextRunnable() {
 
@@ -955,6 +1016,11 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
 
             s_logger.info("Start AsyncJobManager Work executor thread pool in size " + workPoolSize);
             _workerJobExecutor = Executors.newFixedThreadPool(workPoolSize, new NamedThreadFactory(AsyncJobManager.WORK_JOB_POOL_THREAD_PREFIX));
+
+            // a dequeue can wait on the queue row lock held by another management server, so one queue must not hold up the others
+            int queueDispatchPoolSize = Math.max(2, apiPoolSize / 8);
+            s_logger.info("Start AsyncJobManager queue dispatcher thread pool in size " + queueDispatchPoolSize);
+            _queueDispatcher = Executors.newFixedThreadPool(queueDispatchPoolSize, new NamedThreadFactory("AsyncJobMgr-QueueDispatcher"));
         } catch (final Exception e) {
             throw new ConfigurationException("Unable to load db.properties to configure AsyncJobManagerImpl");
         }
@@ -1048,6 +1114,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     @Override
     public boolean stop() {
         _heartbeatScheduler.shutdown();
+        _queueDispatcher.shutdown();
         _apiJobExecutor.shutdown();
         _workerJobExecutor.shutdown();
         return true;
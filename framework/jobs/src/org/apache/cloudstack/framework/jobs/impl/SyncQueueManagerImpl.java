@@ -255,11 +255,16 @@ public class SyncQueueManagerImpl extends ManagerBase implements SyncQueueManage
     }
 
     @Override
-    public void purgeAsyncJobQueueItemId(long asyncJobId) {
+    public Long purgeAsyncJobQueueItemId(long asyncJobId) {
         Long itemId = _syncQueueItemDao.getQueueItemIdByContentIdAndType(asyncJobId, SyncQueueItem.AsyncJobContentType);
         if (itemId != null) {
+            SyncQueueItemVO itemVO = _syncQueueItemDao.findById(itemId);
             purgeItem(itemId);
+            if (itemVO != null) {
+                return itemVO.getQueueId();
+            }
         }
+        return null;
     }
 
     @Override
@@ -23,9 +23,6 @@ import java.util.Map;
 import javax.inject.Inject;
 import javax.naming.ConfigurationException;
 
-import net.sf.ehcache.Cache;
-import net.sf.ehcache.CacheManager;
-
 import org.apache.log4j.Logger;
 import org.springframework.stereotype.Component;
 
@@ -89,18 +86,13 @@ public class ApiRateLimitServiceImpl extends AdapterBase implements APIChecker,
                 maxAllowed = Integer.parseInt(maxReqs);
             }
             // create limit store
-            EhcacheLimitStore cacheStore = new EhcacheLimitStore();
             int maxElements = 10000;
             String cachesize = _configDao.getValue(Config.ApiLimitCacheSize.key());
             if (cachesize != null) {
                 maxElements = Integer.parseInt(cachesize);
             }
-            CacheManager cm = CacheManager.create();
-            Cache cache = new Cache("api-limit-cache", maxElements, false, false, timeToLive, timeToLive);
-            cm.addCache(cache);
-            s_logger.info("Limit Cache created with timeToLive=" + timeToLive + ", maxAllowed=" + maxAllowed + ", maxElements=" + maxElements);
-            cacheStore.setCache(cache);
-            _store = cacheStore;
+            s_logger.info("Limit store created with timeToLive=" + timeToLive + ", maxAllowed=" + maxAllowed + ", maxElements=" + maxElements);
+            _store = new ConcurrentLimitStore(maxElements);
 
         }
 
@@ -151,13 +143,7 @@ public class ApiRateLimitServiceImpl extends AdapterBase implements APIChecker,
             // no API throttling on root admin
             return true;
         }
-        StoreEntry entry = _store.get(accountId);
-
-        if (entry == null) {
-
-            /* Populate the entry, thus unlocking any underlying mutex */
-            entry = _store.create(accountId, timeToLive);
-        }
+        StoreEntry entry = _store.getOrCreate(accountId, timeToLive);
 
         /* Increment the client count and see whether we have hit the maximum allowed clients yet. */
         int current = entry.incrementAndGet();
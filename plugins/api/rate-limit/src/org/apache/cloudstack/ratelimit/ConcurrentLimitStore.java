@@ -0,0 +1,118 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.ratelimit;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A Limit store implementation on top of a concurrent map. Lookups and counter increments never block, unlike
+ * {@link EhcacheLimitStore} which takes a per key lock on every access. Once maxElements entries are stored, expired
+ * entries are swept at most once per second and live entries are evicted to make room, like the ehcache store does.
+ *
+ */
+public class ConcurrentLimitStore implements LimitStore {
+
+    private final ConcurrentHashMap<Long, StoreEntry> entries = new ConcurrentHashMap<Long, StoreEntry>();
+
+    private static final long PURGE_INTERVAL_MS = 1000;
+
+    private final int maxElements;
+
+    private final AtomicLong nextPurge = new AtomicLong();
+
+    public ConcurrentLimitStore(int maxElements) {
+        this.maxElements = maxElements;
+    }
+
+    @Override
+    public StoreEntry create(Long key, int timeToLive) {
+        makeRoom();
+        StoreEntryImpl result = new StoreEntryImpl(timeToLive);
+        entries.put(key, result);
+        return result;
+    }
+
+    @Override
+    public StoreEntry get(Long key) {
+        StoreEntry entry = entries.get(key);
+        if (entry != null && entry.isExpired()) {
+            /* Only drop the entry we looked at, another thread may have created a fresh one meanwhile. */
+            entries.remove(key, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    @Override
+    public StoreEntry getOrCreate(Long key, int timeToLive) {
+        while (true) {
+            StoreEntry entry = entries.get(key);
+            if (entry != null && !entry.isExpired()) {
+                return entry;
+            }
+
+            StoreEntry result = new StoreEntryImpl(timeToLive);
+            if (entry == null) {
+                makeRoom();
+                if (entries.putIfAbsent(key, result) == null) {
+                    return result;
+                }
+            } else if (entries.replace(key, entry, result)) {
+                return result;
+            }
+            /* Lost the race against another thread, use the entry it installed. */
+        }
+    }
+
+    @Override
+    public void resetCounters() {
+        entries.clear();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private void makeRoom() {
+        if (entries.size() < maxElements) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long next = nextPurge.get();
+        if (now >= next && nextPurge.compareAndSet(next, now + PURGE_INTERVAL_MS)) {
+            purgeExpired();
+        }
+        /* Still full of live entries, evict some rather than growing without limit. */
+        Iterator<Long> it = entries.keySet().iterator();
+        while (entries.size() >= maxElements && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private void purgeExpired() {
+        Iterator<Map.Entry<Long, StoreEntry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().getValue().isExpired()) {
+                it.remove();
+            }
+        }
+    }
+}
@@ -82,6 +82,16 @@ public class EhcacheLimitStore implements LimitStore {
         return result;
     }
 
+    @Override
+    public StoreEntry getOrCreate(Long key, int timeToLive) {
+        StoreEntry entry = get(key);
+        if (entry == null) {
+            /* Populate the entry, thus unlocking any underlying mutex */
+            entry = create(key, timeToLive);
+        }
+        return entry;
+    }
+
     @Override
     public void resetCounters() {
         cache.removeAll();
@@ -43,6 +43,18 @@ public interface LimitStore {
      */
     StoreEntry create(Long account, int timeToLiveInSecs);
 
+    /**
+     * Returns the live store entry for the given account, creating it if there is none. Concurrent callers for the
+     * same account get the same entry.
+     *
+     * @param account
+     *            the user account, key to the store
+     * @param timeToLiveInSecs
+     *            the positive time-to-live in seconds used if a new entry is created
+     * @return a non-null entry
+     */
+    StoreEntry getOrCreate(Long account, int timeToLiveInSecs);
+
     void resetCounters();
 
 }
@@ -0,0 +1,115 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.ratelimit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class ConcurrentLimitStoreTest {
+
+    private static final int THREADS = 64;
+
+    @Test
+    public void testConcurrentGetOrCreateSharesOneEntry() throws Exception {
+        final ConcurrentLimitStore store = new ConcurrentLimitStore(100);
+        final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<StoreEntry>> results = new ArrayList<Future<StoreEntry>>();
+            for (int i = 0; i < THREADS; i++) {
+                results.add(executor.submit(new Callable<StoreEntry>() {
+                    @Override
+                    public StoreEntry call() throws Exception {
+                        barrier.await();
+                        StoreEntry entry = store.getOrCreate(1L, 60);
+                        entry.incrementAndGet();
+                        return entry;
+                    }
+                }));
+            }
+            StoreEntry first = results.get(0).get();
+            for (Future<StoreEntry> result : results) {
+                assertSame(first, result.get());
+            }
+            assertEquals(THREADS, first.getCounter());
+            assertSame(first, store.get(1L));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testExpiredEntryIsReplaced() throws Exception {
+        ConcurrentLimitStore store = new ConcurrentLimitStore(100);
+        StoreEntry entry = store.getOrCreate(1L, 1);
+        entry.incrementAndGet();
+        Thread.sleep(1100);
+
+        assertNull(store.get(1L));
+        StoreEntry fresh = store.getOrCreate(1L, 60);
+        assertNotSame(entry, fresh);
+        assertEquals(0, fresh.getCounter());
+    }
+
+    @Test
+    public void testStoreDoesNotGrowPastMaxElements() throws Exception {
+        final ConcurrentLimitStore store = new ConcurrentLimitStore(10);
+        final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> results = new ArrayList<Future<?>>();
+            for (int i = 0; i < THREADS; i++) {
+                final long thread = i;
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        barrier.await();
+                        for (long key = 0; key < 100; key++) {
+                            store.getOrCreate(thread * 100 + key, 60);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        // racing creators may each add one entry past the limit, but no more
+        assertTrue(store.size() <= 10 + THREADS);
+
+        store.getOrCreate(-1L, 60);
+        assertTrue(store.size() <= 10);
+        assertNotNull(store.get(-1L));
+    }
+}
@@ -259,6 +259,8 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
 
     private final Map <String, String> _pifs = new HashMap<String, String>();
     private final Map<String, VmStats> _vmStats = new ConcurrentHashMap<String, VmStats>();
+    private final Map<String, VmDevices> _vmDevices = new ConcurrentHashMap<String, VmDevices>();
+    private volatile int _hostCpus;
 
     protected static final HashMap<DomainState, PowerState> s_powerStatesTable;
     static {
@@ -1540,6 +1542,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
 
         final Domain vm = getDomain(conn, vmName);
         vm.attachDevice(getVifDriver(nicTO.getType()).plug(nicTO, "Other PV", "").toString());
+        invalidateVmDevices(vmName);
     }
 
 
@@ -1551,6 +1554,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
         for (final InterfaceDef pluggedNic : pluggedNics) {
             if (pluggedNic.getMacAddress().equalsIgnoreCase(macAddr)) {
                 vm.detachDevice(pluggedNic.toString());
+                invalidateVmDevices(vmName);
                 // We don't know which "traffic type" is associated with
                 // each interface at this point, so inform all vif drivers
                 for (final VifDriver vifDriver : getAllVifDrivers()) {
@@ -2390,6 +2394,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
                 s_logger.debug("Detaching device: " + xml);
                 dm.detachDevice(xml);
             }
+            invalidateVmDevices(vmName);
         } catch (final LibvirtException e) {
             if (attach) {
                 s_logger.warn("Failed to attach device to " + vmName + ": " + e.getMessage());
@@ -2776,6 +2781,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
         DomainState state = null;
         Domain dm = null;
 
+        invalidateVmDevices(vmName);
         s_logger.debug("Try to stop the vm at first");
         String ret = stopVM(conn, vmName, false);
         if (ret == Script.ERR_TIMEOUT) {
@@ -3063,6 +3069,46 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
         }
     }
 
+    /**
+     * Parsed device lists of a running domain, only valid for the domain id they were read from
+     */
+    private static class VmDevices {
+        int _domainId;
+        List<InterfaceDef> _interfaces;
+        List<DiskDef> _disks;
+    }
+
+    /**
+     * Returns the interfaces and disks of the domain without re-reading its XML on every stats run. The cached lists are dropped
+     * when the domain is restarted (new domain id) or a device is attached or detached through this agent.
+     */
+    private VmDevices getVmDevices(final Connect conn, final String vmName, final Domain dm) throws LibvirtException {
+        final int domainId = dm.getID();
+        VmDevices devices = _vmDevices.get(vmName);
+        if (devices == null || devices._domainId != domainId) {
+            devices = new VmDevices();
+            devices._domainId = domainId;
+            devices._interfaces = getInterfaces(conn, vmName);
+            devices._disks = getDisks(conn, vmName);
+            // empty lists usually mean the domain xml could not be read, try again next time
+            if (!devices._interfaces.isEmpty() || !devices._disks.isEmpty()) {
+                _vmDevices.put(vmName, devices);
+            }
+        }
+        return devices;
+    }
+
+    public void invalidateVmDevices(final String vmName) {
+        _vmDevices.remove(vmName);
+    }
+
+    private int getHostCpus(final Connect conn) throws LibvirtException {
+        if (_hostCpus <= 0) {
+            _hostCpus = conn.nodeInfo().cpus;
+        }
+        return _hostCpus;
+    }
+
     private class VmStats {
         long _usedTime;
         long _tx;
@@ -3103,16 +3149,17 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
                 elapsedTime = now.getTimeInMillis() - oldStats._timestamp.getTimeInMillis();
                 double utilization = (info.cpuTime - oldStats._usedTime) / ((double)elapsedTime * 1000000);
 
-                final NodeInfo node = conn.nodeInfo();
-                utilization = utilization / node.cpus;
+                utilization = utilization / getHostCpus(conn);
                 if (utilization > 0) {
                     stats.setCPUUtilization(utilization * 100);
                 }
             }
 
+            final VmDevices devices = getVmDevices(conn, vmName, dm);
+
             /* get network stats */
 
-            final List<InterfaceDef> vifs = getInterfaces(conn, vmName);
+            final List<InterfaceDef> vifs = devices._interfaces;
             long rx = 0;
             long tx = 0;
             for (final InterfaceDef vif : vifs) {
@@ -3133,7 +3180,7 @@ public class LibvirtComputingResource extends ServerResourceBase implements Serv
             }
 
             /* get disk stats */
-            final List<DiskDef> disks = getDisks(conn, vmName);
+            final List<DiskDef> disks = devices._disks;
             long io_rd = 0;
             long io_wr = 0;
             long bytes_rd = 0;
@@ -182,6 +182,7 @@ public final class LibvirtMigrateCommandWrapper extends CommandWrapper<MigrateCo
 
         if (result != null) {
         } else {
+            libvirtComputingResource.invalidateVmDevices(vmName);
             libvirtComputingResource.destroyNetworkRulesForVM(conn, vmName);
             for (final InterfaceDef iface : ifaces) {
                 // We don't know which "traffic type" is associated with
@@ -64,6 +64,7 @@ public final class LibvirtPlugNicCommandWrapper extends CommandWrapper<PlugNicCo
             final VifDriver vifDriver = libvirtComputingResource.getVifDriver(nic.getType());
             final InterfaceDef interfaceDef = vifDriver.plug(nic, "Other PV", "");
             vm.attachDevice(interfaceDef.toString());
+            libvirtComputingResource.invalidateVmDevices(vmName);
 
             return new PlugNicAnswer(command, true, "success");
         } catch (final LibvirtException e) {
@@ -17,6 +17,7 @@
 package com.cloud.hypervisor.kvm.storage;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -322,7 +323,13 @@ public class LibvirtStorageAdaptor implements StorageAdaptor {
         StorageVol vol = destPool.storageVolCreateXML(destVol.toString(), 0);
         String srcPath = srcVol.getKey();
         String destPath = vol.getKey();
-        Script.runSimpleBashScript("cp " + srcPath + " " + destPath, timeout);
+        try {
+            SparseFileCopier.copy(srcPath, destPath, timeout);
+        } catch (IOException e) {
+            s_logger.error("Failed to copy volume " + srcPath + " to " + destPath + ": " + e.getMessage());
+            vol.delete(0);
+            throw new CloudRuntimeException("Failed to copy volume " + srcPath + " to " + destPath + ": " + e.getMessage(), e);
+        }
         return vol;
     }
 
@@ -331,8 +338,13 @@ public class LibvirtStorageAdaptor implements StorageAdaptor {
         if (!_storageLayer.exists(srcPath)) {
             throw new InternalErrorException("volume:" + srcPath + " is not exits");
         }
-        String result = Script.runSimpleBashScript("cp " + srcPath + " " + destPath + File.separator + volumeName, timeout);
-        return result == null;
+        try {
+            SparseFileCopier.copy(srcPath, destPath + File.separator + volumeName, timeout);
+        } catch (IOException e) {
+            s_logger.error("Failed to copy volume " + srcPath + " to " + destPath + ": " + e.getMessage());
+            return false;
+        }
+        return true;
     }
 
     public LibvirtStoragePoolDef getStoragePoolDef(Connect conn, StoragePool pool) throws LibvirtException {
@@ -1253,9 +1265,10 @@ public class LibvirtStorageAdaptor implements StorageAdaptor {
                     String backingFile = info.get(new String("backing_file"));
                     // qcow2 templates can just be copied into place
                     if (sourceFormat.equals(destFormat) && backingFile == null && sourcePath.endsWith(".qcow2")) {
-                        String result = Script.runSimpleBashScript("cp -f " + sourcePath + " " + destPath, timeout);
-                        if (result != null) {
-                            throw new CloudRuntimeException("Failed to create disk: " + result);
+                        try {
+                            SparseFileCopier.copy(sourcePath, destPath, timeout);
+                        } catch (IOException e) {
+                            throw new CloudRuntimeException("Failed to create disk: " + e.getMessage(), e);
                         }
                     } else {
                         destFile = new QemuImgFile(destPath, destFormat);
@@ -0,0 +1,139 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.hypervisor.kvm.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Copies image files on the host without forking a cp process. Blocks that
+ * only contain zeroes are skipped in a regular destination file, so thin
+ * provisioned raw and qcow2 files stay sparse after the copy. Block devices,
+ * like CLVM volumes, can be copied from and to as well; every block is
+ * written to those as they cannot hold holes.
+ */
+public final class SparseFileCopier {
+    private static final Logger s_logger = Logger.getLogger(SparseFileCopier.class);
+
+    protected static final int BLOCK_SIZE = 64 * 1024;
+    private static final long PROGRESS_LOG_INTERVAL = 1024L * 1024L * 1024L;
+
+    private SparseFileCopier() {
+    }
+
+    /**
+     * Copies srcPath to destPath, replacing any existing destination file.
+     *
+     * @param timeout maximum time in milliseconds the copy may take, 0 or less for no limit
+     * @return the number of bytes actually written to the destination
+     */
+    public static long copy(final String srcPath, final String destPath, final int timeout) throws IOException {
+        final File destFile = new File(destPath);
+        return copy(srcPath, destPath, timeout, !destFile.exists() || destFile.isFile());
+    }
+
+    /**
+     * @param sparse whether the destination is a regular file that is truncated, sized and left with holes, rather
+     * than a device that is written over in place
+     */
+    protected static long copy(final String srcPath, final String destPath, final int timeout, final boolean sparse) throws IOException {
+        final File srcFile = new File(srcPath);
+        if (!srcFile.exists() || srcFile.isDirectory()) {
+            throw new IOException("Source " + srcPath + " does not exist or is a directory");
+        }
+
+        final long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(BLOCK_SIZE);
+        final byte[] block = new byte[BLOCK_SIZE];
+        long written = 0;
+        long nextProgressLog = PROGRESS_LOG_INTERVAL;
+
+        try (RandomAccessFile src = new RandomAccessFile(srcFile, "r");
+             RandomAccessFile dest = new RandomAccessFile(destPath, "rw")) {
+            final FileChannel in = src.getChannel();
+            final FileChannel out = dest.getChannel();
+            if (sparse) {
+                out.truncate(0);
+            }
+
+            // the size of a block device is not known up front, read up to the end of the source instead
+            long position = 0;
+            while (true) {
+                buffer.clear();
+                final int read = readBlock(in, buffer, position);
+                if (read <= 0) {
+                    break;
+                }
+                buffer.flip();
+                buffer.get(block, 0, read);
+
+                if (!sparse || !isZero(block, read)) {
+                    buffer.rewind();
+                    long offset = position;
+                    while (buffer.hasRemaining()) {
+                        offset += out.write(buffer, offset);
+                    }
+                    written += read;
+                }
+                position += read;
+
+                if (position >= nextProgressLog) {
+                    if (s_logger.isDebugEnabled()) {
+                        s_logger.debug("Copied " + position + " bytes from " + srcPath + " to " + destPath);
+                    }
+                    nextProgressLog += PROGRESS_LOG_INTERVAL;
+                }
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("Timed out after " + timeout + " ms copying " + srcPath + " to " + destPath);
+                }
+            }
+
+            if (sparse) {
+                // trailing holes are not written, extend the file to its full size
+                dest.setLength(position);
+            }
+            out.force(true);
+        }
+        return written;
+    }
+
+    private static int readBlock(final FileChannel in, final ByteBuffer buffer, final long position) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            final int read = in.read(buffer, position + total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    protected static boolean isZero(final byte[] block, final int length) {
+        for (int i = 0; i < length; i++) {
+            if (block[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
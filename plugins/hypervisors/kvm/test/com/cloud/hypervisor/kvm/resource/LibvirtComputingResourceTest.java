@@ -511,6 +511,91 @@ public class LibvirtComputingResourceTest {
         Assert.assertTrue(vmStat.getTargetMemoryKBs() >= vmStat.getMemoryKBs());
     }
 
+    @Test
+    public void testGetVmStatReusesDomainDevices() throws LibvirtException {
+        final Connect connect = Mockito.mock(Connect.class);
+        final Domain domain = Mockito.mock(Domain.class);
+        Mockito.when(domain.getInfo()).thenReturn(new DomainInfo());
+        Mockito.when(domain.memoryStats(2)).thenReturn(new MemoryStatistic[0]);
+        Mockito.when(domain.getID()).thenReturn(1);
+        Mockito.when(domain.interfaceStats(Matchers.anyString())).thenReturn(new DomainInterfaceStats());
+        Mockito.when(domain.blockStats(Matchers.anyString())).thenReturn(new DomainBlockStats());
+        Mockito.when(connect.domainLookupByName(VMNAME)).thenReturn(domain);
+        final NodeInfo nodeInfo = new NodeInfo();
+        nodeInfo.cpus = 8;
+        Mockito.when(connect.nodeInfo()).thenReturn(nodeInfo);
+
+        final int[] xmlReads = new int[1];
+        final LibvirtComputingResource libvirtComputingResource = new LibvirtComputingResource() {
+            @Override
+            public List<InterfaceDef> getInterfaces(final Connect conn, final String vmName) {
+                xmlReads[0]++;
+                return Arrays.asList(new InterfaceDef());
+            }
+
+            @Override
+            public List<DiskDef> getDisks(final Connect conn, final String vmName) {
+                return Arrays.asList(new DiskDef());
+            }
+        };
+
+        libvirtComputingResource.getVmStat(connect, VMNAME);
+        libvirtComputingResource.getVmStat(connect, VMNAME);
+        Assert.assertEquals(1, xmlReads[0]);
+        Mockito.verify(connect, Mockito.times(1)).nodeInfo();
+
+        // attaching or detaching a device drops the cached lists
+        libvirtComputingResource.invalidateVmDevices(VMNAME);
+        libvirtComputingResource.getVmStat(connect, VMNAME);
+        Assert.assertEquals(2, xmlReads[0]);
+
+        // so does a restart of the domain
+        Mockito.when(domain.getID()).thenReturn(2);
+        libvirtComputingResource.getVmStat(connect, VMNAME);
+        Assert.assertEquals(3, xmlReads[0]);
+    }
+
+    @Test
+    public void testStopVmDropsDomainDevices() throws LibvirtException {
+        final Connect connect = Mockito.mock(Connect.class);
+        final Domain domain = Mockito.mock(Domain.class);
+        Mockito.when(domain.getInfo()).thenReturn(new DomainInfo());
+        Mockito.when(domain.memoryStats(2)).thenReturn(new MemoryStatistic[0]);
+        Mockito.when(domain.getID()).thenReturn(1);
+        Mockito.when(domain.interfaceStats(Matchers.anyString())).thenReturn(new DomainInterfaceStats());
+        Mockito.when(domain.blockStats(Matchers.anyString())).thenReturn(new DomainBlockStats());
+        Mockito.when(connect.domainLookupByName(VMNAME)).thenReturn(domain);
+        final NodeInfo nodeInfo = new NodeInfo();
+        nodeInfo.cpus = 8;
+        Mockito.when(connect.nodeInfo()).thenReturn(nodeInfo);
+
+        final int[] xmlReads = new int[1];
+        final LibvirtComputingResource libvirtComputingResource = new LibvirtComputingResource() {
+            @Override
+            public List<InterfaceDef> getInterfaces(final Connect conn, final String vmName) {
+                xmlReads[0]++;
+                return Arrays.asList(new InterfaceDef());
+            }
+
+            @Override
+            public List<DiskDef> getDisks(final Connect conn, final String vmName) {
+                return Arrays.asList(new DiskDef());
+            }
+
+            @Override
+            protected String stopVM(final Connect conn, final String vmName, final boolean force) {
+                return null;
+            }
+        };
+
+        libvirtComputingResource.getVmStat(connect, VMNAME);
+        Assert.assertNull(libvirtComputingResource.stopVM(connect, VMNAME));
+
+        // a domain started again with the same id after the stop is read again
+        libvirtComputingResource.getVmStat(connect, VMNAME);
+        Assert.assertEquals(2, xmlReads[0]);
+    }
+
     @Test
     public void getCpuSpeed() {
         Assume.assumeTrue(SystemUtils.IS_OS_LINUX);
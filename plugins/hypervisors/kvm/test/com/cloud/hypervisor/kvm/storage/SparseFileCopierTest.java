@@ -0,0 +1,103 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.hypervisor.kvm.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class SparseFileCopierTest extends TestCase {
+
+    private File src;
+    private File dest;
+
+    @Override
+    protected void setUp() throws Exception {
+        src = File.createTempFile("sparse-src", ".img");
+        dest = File.createTempFile("sparse-dest", ".img");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        src.delete();
+        dest.delete();
+    }
+
+    public void testCopyKeepsContentAndSize() throws IOException {
+        final byte[] data = new byte[1000];
+        Arrays.fill(data, (byte)7);
+        final long size = 10L * SparseFileCopier.BLOCK_SIZE + 123;
+        try (RandomAccessFile file = new RandomAccessFile(src, "rw")) {
+            file.setLength(size);
+            file.seek(3L * SparseFileCopier.BLOCK_SIZE + 5);
+            file.write(data);
+        }
+
+        final long written = SparseFileCopier.copy(src.getPath(), dest.getPath(), 0);
+
+        assertEquals(SparseFileCopier.BLOCK_SIZE, written);
+        assertEquals(size, dest.length());
+        assertTrue(Arrays.equals(Files.readAllBytes(src.toPath()), Files.readAllBytes(dest.toPath())));
+    }
+
+    public void testCopyReplacesExistingDestination() throws IOException {
+        final byte[] old = new byte[4096];
+        Arrays.fill(old, (byte)1);
+        Files.write(dest.toPath(), old);
+        Files.write(src.toPath(), new byte[] {1, 2, 3});
+
+        SparseFileCopier.copy(src.getPath(), dest.getPath(), 0);
+
+        assertTrue(Arrays.equals(new byte[] {1, 2, 3}, Files.readAllBytes(dest.toPath())));
+    }
+
+    public void testCopyToDeviceWritesEveryBlockInPlace() throws IOException {
+        final byte[] data = new byte[1000];
+        Arrays.fill(data, (byte)7);
+        final long size = 4L * SparseFileCopier.BLOCK_SIZE;
+        try (RandomAccessFile file = new RandomAccessFile(src, "rw")) {
+            file.setLength(size);
+            file.seek(SparseFileCopier.BLOCK_SIZE);
+            file.write(data);
+        }
+        // a device holds stale data and is larger than the volume copied onto it
+        final byte[] stale = new byte[(int)size + SparseFileCopier.BLOCK_SIZE];
+        Arrays.fill(stale, (byte)1);
+        Files.write(dest.toPath(), stale);
+
+        final long written = SparseFileCopier.copy(src.getPath(), dest.getPath(), 0, false);
+
+        assertEquals(size, written);
+        assertEquals(stale.length, dest.length());
+        final byte[] copied = Arrays.copyOf(Files.readAllBytes(dest.toPath()), (int)size);
+        assertTrue(Arrays.equals(Files.readAllBytes(src.toPath()), copied));
+    }
+
+    public void testCopyMissingSourceFails() {
+        src.delete();
+        try {
+            SparseFileCopier.copy(src.getPath(), dest.getPath(), 0);
+            fail("copying a missing file should fail");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
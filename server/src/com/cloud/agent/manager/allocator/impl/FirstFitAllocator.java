@@ -19,8 +19,10 @@ package com.cloud.agent.manager.allocator.impl;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.inject.Inject;
 import javax.naming.ConfigurationException;
@@ -40,6 +42,7 @@ import com.cloud.dc.dao.ClusterDao;
 import com.cloud.deploy.DeploymentPlan;
 import com.cloud.deploy.DeploymentPlanner.ExcludeList;
 import com.cloud.gpu.GPU;
+import com.cloud.gpu.dao.HostGpuGroupsDao;
 import com.cloud.host.DetailVO;
 import com.cloud.host.Host;
 import com.cloud.host.Host.Type;
@@ -47,7 +50,6 @@ import com.cloud.host.HostVO;
 import com.cloud.host.dao.HostDao;
 import com.cloud.host.dao.HostDetailsDao;
 import com.cloud.offering.ServiceOffering;
-import com.cloud.org.Cluster;
 import com.cloud.resource.ResourceManager;
 import com.cloud.service.ServiceOfferingDetailsVO;
 import com.cloud.service.dao.ServiceOfferingDetailsDao;
@@ -92,6 +94,8 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
     CapacityManager _capacityMgr;
     @Inject
     CapacityDao _capacityDao;
+    @Inject
+    HostGpuGroupsDao _hostGpuGroupsDao;
 
     boolean _checkHvm = true;
     protected String _allocationAlgorithm = "random";
@@ -276,7 +280,16 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
 
         long serviceOfferingId = offering.getId();
         List<Host> suitableHosts = new ArrayList<Host>();
-        ServiceOfferingDetailsVO offeringDetails = null;
+
+        // everything that does not depend on the host is looked up once per allocation rather than once per host
+        ServiceOfferingDetailsVO offeringDetails = _serviceOfferingDetailsDao.findDetail(serviceOfferingId, GPU.Keys.vgpuType.toString());
+        ServiceOfferingDetailsVO groupName = null;
+        if (offeringDetails != null) {
+            groupName = _serviceOfferingDetailsDao.findDetail(serviceOfferingId, GPU.Keys.pciDevice.toString());
+        }
+        int cpu_requested = offering.getCpu() * offering.getSpeed();
+        long ram_requested = offering.getRamSize() * 1024L * 1024L;
+        Map<Long, float[]> clusterOvercommitRatios = new HashMap<Long, float[]>();
 
         for (Host host : hosts) {
             if (suitableHosts.size() == returnUpTo) {
@@ -300,8 +313,7 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
             }
 
             // Check if GPU device is required by offering and host has the availability
-            if ((offeringDetails   = _serviceOfferingDetailsDao.findDetail(serviceOfferingId, GPU.Keys.vgpuType.toString())) != null) {
-                ServiceOfferingDetailsVO groupName = _serviceOfferingDetailsDao.findDetail(serviceOfferingId, GPU.Keys.pciDevice.toString());
+            if (offeringDetails != null) {
                 if(!_resourceMgr.isGPUDeviceAvailable(host.getId(), groupName.getValue(), offeringDetails.getValue())){
                     s_logger.info("Host name: " + host.getName() + ", hostId: "+ host.getId() +" does not have required GPU devices available");
                     avoid.addHost(host.getId());
@@ -309,13 +321,13 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
                 }
             }
 
-            int cpu_requested = offering.getCpu() * offering.getSpeed();
-            long ram_requested = offering.getRamSize() * 1024L * 1024L;
-            Cluster cluster = _clusterDao.findById(host.getClusterId());
-            ClusterDetailsVO clusterDetailsCpuOvercommit = _clusterDetailsDao.findDetail(cluster.getId(), "cpuOvercommitRatio");
-            ClusterDetailsVO clusterDetailsRamOvercommmt = _clusterDetailsDao.findDetail(cluster.getId(), "memoryOvercommitRatio");
-            Float cpuOvercommitRatio = Float.parseFloat(clusterDetailsCpuOvercommit.getValue());
-            Float memoryOvercommitRatio = Float.parseFloat(clusterDetailsRamOvercommmt.getValue());
+            float[] overcommitRatios = clusterOvercommitRatios.get(host.getClusterId());
+            if (overcommitRatios == null) {
+                overcommitRatios = getClusterOvercommitRatios(host.getClusterId());
+                clusterOvercommitRatios.put(host.getClusterId(), overcommitRatios);
+            }
+            float cpuOvercommitRatio = overcommitRatios[0];
+            float memoryOvercommitRatio = overcommitRatios[1];
 
             boolean hostHasCpuCapability = _capacityMgr.checkIfHostHasCpuCapability(host.getId(), offering.getCpu(), offering.getSpeed());
             boolean hostHasCapacity = _capacityMgr.checkIfHostHasCapacity(host.getId(), cpu_requested, ram_requested, false, cpuOvercommitRatio, memoryOvercommitRatio,
@@ -341,6 +353,12 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
         return suitableHosts;
     }
 
+    private float[] getClusterOvercommitRatios(long clusterId) {
+        ClusterDetailsVO clusterDetailsCpuOvercommit = _clusterDetailsDao.findDetail(clusterId, "cpuOvercommitRatio");
+        ClusterDetailsVO clusterDetailsRamOvercommmt = _clusterDetailsDao.findDetail(clusterId, "memoryOvercommitRatio");
+        return new float[] {Float.parseFloat(clusterDetailsCpuOvercommit.getValue()), Float.parseFloat(clusterDetailsRamOvercommmt.getValue())};
+    }
+
     // Reorder hosts in the decreasing order of free capacity.
     private List<? extends Host> reorderHostsByCapacity(DeploymentPlan plan, List<? extends Host> hosts) {
         Long clusterId = plan.getClusterId();
@@ -443,8 +461,9 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
         // If a host is tagged with a different guest OS category than the template, move it to a low priority list
         List<Host> highPriorityHosts = new ArrayList<Host>();
         List<Host> lowPriorityHosts = new ArrayList<Host>();
+        Map<Long, String> hostGuestOSCategories = getHostGuestOSCategories(hostsToCheck);
         for (Host host : hostsToCheck) {
-            String hostGuestOSCategory = getHostGuestOSCategory(host);
+            String hostGuestOSCategory = hostGuestOSCategories.get(host.getId());
             if (hostGuestOSCategory == null) {
                 continue;
             } else if (templateGuestOSCategory.equals(hostGuestOSCategory)) {
@@ -477,8 +496,9 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
 
             List<Host> gpuEnabledHosts = new ArrayList<Host>();
             // Check for GPU enabled hosts.
+            Set<Long> gpuHostIds = new HashSet<Long>(_hostGpuGroupsDao.listHostIds());
             for (Host host : prioritizedHosts) {
-                if (_resourceMgr.isHostGpuEnabled(host.getId())) {
+                if (gpuHostIds.contains(host.getId())) {
                     gpuEnabledHosts.add(host);
                 }
             }
@@ -534,6 +554,38 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
         }
     }
 
+    /**
+     * Bulk variant of {@link #getHostGuestOSCategory(Host)}, hosts without a guest OS category are left out of the result
+     */
+    protected Map<Long, String> getHostGuestOSCategories(List<? extends Host> hosts) {
+        List<Long> hostIds = new ArrayList<Long>(hosts.size());
+        for (Host host : hosts) {
+            hostIds.add(host.getId());
+        }
+
+        Map<Long, String> hostGuestOSCategories = new HashMap<Long, String>();
+        Map<Long, String> categoryNames = new HashMap<Long, String>();
+        for (Map.Entry<Long, String> hostDetail : _hostDetailsDao.findDetails(hostIds, "guest.os.category.id").entrySet()) {
+            long guestOSCategoryId;
+            try {
+                guestOSCategoryId = Long.parseLong(hostDetail.getValue());
+            } catch (Exception e) {
+                continue;
+            }
+
+            String categoryName = categoryNames.get(guestOSCategoryId);
+            if (categoryName == null && !categoryNames.containsKey(guestOSCategoryId)) {
+                GuestOSCategoryVO guestOSCategory = _guestOSCategoryDao.findById(guestOSCategoryId);
+                categoryName = guestOSCategory != null ? guestOSCategory.getName() : null;
+                categoryNames.put(guestOSCategoryId, categoryName);
+            }
+            if (categoryName != null) {
+                hostGuestOSCategories.put(hostDetail.getKey(), categoryName);
+            }
+        }
+        return hostGuestOSCategories;
+    }
+
     protected String getTemplateGuestOSCategory(VMTemplateVO template) {
         long guestOSId = template.getGuestOSId();
         GuestOSVO guestOS = _guestOSDao.findById(guestOSId);
@@ -19,6 +19,9 @@ package com.cloud.api.dispatch;
 
 import static org.apache.commons.lang.StringUtils.isNotBlank;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.text.DateFormat;
 import java.text.ParseException;
@@ -26,10 +29,14 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.text.SimpleDateFormat;
 
 import javax.inject.Inject;
@@ -47,6 +54,7 @@ import org.apache.cloudstack.api.BaseAsyncCreateCmd;
 import org.apache.cloudstack.api.BaseCmd;
 import org.apache.cloudstack.api.BaseCmd.CommandType;
 import org.apache.cloudstack.api.EntityReference;
+import org.apache.cloudstack.api.Identity;
 import org.apache.cloudstack.api.InternalIdentity;
 import org.apache.cloudstack.api.Parameter;
 import org.apache.cloudstack.api.ServerApiException;
@@ -63,14 +71,49 @@ import com.cloud.exception.InvalidParameterValueException;
 import com.cloud.user.Account;
 import com.cloud.user.AccountManager;
 import com.cloud.utils.DateUtil;
+import com.cloud.utils.ReflectUtil;
 import com.cloud.utils.db.EntityManager;
 import com.cloud.utils.exception.CloudRuntimeException;
 
 public class ParamProcessWorker implements DispatchWorker {
 
     private static final Logger s_logger = Logger.getLogger(ParamProcessWorker.class.getName());
+    private static final Pattern UUID_PATTERN = Pattern.compile("^[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}$");
     public final DateFormat inputFormat = new SimpleDateFormat("yyyy-MM-dd");
     public final DateFormat newInputFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+    // returned by a converter to leave the field at the value the command gave it
+    private static final Object NOT_SET = new Object();
+
+    /**
+     * Converts a request parameter into the value of the field it is bound to.
+     */
+    private interface ParamConverter {
+        Object convert(Object paramObj) throws ParseException;
+    }
+
+    /**
+     * A parameter field of a command class with what is needed to set it: the
+     * annotations, the converter for its type and a setter.
+     */
+    private static final class ParamBinding {
+        final Field field;
+        final Parameter annotation;
+        final ACL acl;
+        final ParamConverter converter;
+        final MethodHandle setter;
+
+        ParamBinding(final Field field, final Parameter annotation, final ParamConverter converter, final MethodHandle setter) {
+            this.field = field;
+            this.annotation = annotation;
+            acl = field.getAnnotation(ACL.class);
+            this.converter = converter;
+            this.setter = setter;
+        }
+    }
+
+    // the bindings of the parameter fields of each command class, built the first time the class is dispatched
+    private final Map<Class<?>, Map<Field, ParamBinding>> _bindings = new ConcurrentHashMap<Class<?>, Map<Field, ParamBinding>>();
 
     @Inject
     protected AccountManager _accountMgr;
@@ -148,9 +191,11 @@ public class ParamProcessWorker implements DispatchWorker {
         final Map<Object, AccessType> entitiesToAccess = new HashMap<Object, AccessType>();
 
         final List<Field> cmdFields = cmd.getParamFields();
+        final Map<Field, ParamBinding> bindings = getBindings(cmd.getClass());
 
         for (final Field field : cmdFields) {
-            final Parameter parameterAnnotation = field.getAnnotation(Parameter.class);
+            final ParamBinding binding = bindings.get(field);
+            final Parameter parameterAnnotation = binding.annotation;
             final Object paramObj = params.get(parameterAnnotation.name());
             if (paramObj == null) {
                 if (parameterAnnotation.required()) {
@@ -164,7 +209,7 @@ public class ParamProcessWorker implements DispatchWorker {
             // marshall the parameter into the correct type and set the field value
             try {
                 validateField(paramObj, parameterAnnotation);
-                setFieldValue(field, cmd, paramObj, parameterAnnotation);
+                setFieldValue(binding, cmd, paramObj);
             } catch (final IllegalArgumentException argEx) {
                 if (s_logger.isDebugEnabled()) {
                     s_logger.debug("Unable to execute API command " + cmd.getCommandName() + " due to invalid value " + paramObj + " for parameter " +
@@ -194,7 +239,7 @@ public class ParamProcessWorker implements DispatchWorker {
 
             //check access on the resource this field points to
             try {
-                final ACL checkAccess = field.getAnnotation(ACL.class);
+                final ACL checkAccess = binding.acl;
                 final CommandType fieldType = parameterAnnotation.type();
 
                 if (checkAccess != null) {
@@ -298,131 +343,217 @@ public class ParamProcessWorker implements DispatchWorker {
         }
     }
 
-    @SuppressWarnings({"unchecked", "rawtypes"})
-    private void setFieldValue(final Field field, final BaseCmd cmdObj, final Object paramObj, final Parameter annotation) throws IllegalArgumentException, ParseException {
+    private Map<Field, ParamBinding> getBindings(final Class<?> cmdClass) {
+        Map<Field, ParamBinding> bindings = _bindings.get(cmdClass);
+        if (bindings == null) {
+            bindings = new HashMap<Field, ParamBinding>();
+            for (final Field field : ReflectUtil.getAllFieldsForClass(cmdClass, BaseCmd.class)) {
+                final Parameter annotation = field.getAnnotation(Parameter.class);
+                if (annotation != null && annotation.expose()) {
+                    bindings.put(field, new ParamBinding(field, annotation, newConverter(cmdClass, field, annotation), newSetter(field)));
+                }
+            }
+            // concurrent requests may both build the bindings of a class, they come out the same
+            _bindings.put(cmdClass, bindings);
+        }
+        return bindings;
+    }
+
+    private static MethodHandle newSetter(final Field field) {
         try {
             field.setAccessible(true);
-            final CommandType fieldType = annotation.type();
-            switch (fieldType) {
-            case BOOLEAN:
-                field.set(cmdObj, Boolean.valueOf(paramObj.toString()));
-                break;
-            case DATE:
-                // This piece of code is for maintaining backward compatibility
-                // and support both the date formats(Bug 9724)
-                if (cmdObj instanceof ListEventsCmd || cmdObj instanceof DeleteEventsCmd || cmdObj instanceof ArchiveEventsCmd ||
-                        cmdObj instanceof ArchiveAlertsCmd || cmdObj instanceof DeleteAlertsCmd || cmdObj instanceof GetUsageRecordsCmd) {
-                    final boolean isObjInNewDateFormat = isObjInNewDateFormat(paramObj.toString());
-                    if (isObjInNewDateFormat) {
-                        final DateFormat newFormat = newInputFormat;
-                        synchronized (newFormat) {
-                            field.set(cmdObj, newFormat.parse(paramObj.toString()));
+            return MethodHandles.lookup().unreflectSetter(field).asType(SETTER_TYPE);
+        } catch (final IllegalAccessException e) {
+            throw new CloudRuntimeException("Internal error initializing parameters [field " + field.getName() + " of " + field.getDeclaringClass().getName() +
+                    " is not accessible]", e);
+        }
+    }
+
+    private ParamConverter newConverter(final Class<?> cmdClass, final Field field, final Parameter annotation) {
+        switch (annotation.type()) {
+        case BOOLEAN:
+            return new ParamConverter() {
+                @Override
+                public Object convert(final Object paramObj) {
+                    return Boolean.valueOf(paramObj.toString());
+                }
+            };
+        case DATE:
+            // This piece of code is for maintaining backward compatibility
+            // and support both the date formats(Bug 9724)
+            if (ListEventsCmd.class.isAssignableFrom(cmdClass) || DeleteEventsCmd.class.isAssignableFrom(cmdClass) || ArchiveEventsCmd.class.isAssignableFrom(cmdClass) ||
+                    ArchiveAlertsCmd.class.isAssignableFrom(cmdClass) || DeleteAlertsCmd.class.isAssignableFrom(cmdClass) || GetUsageRecordsCmd.class.isAssignableFrom(cmdClass)) {
+                final String fieldName = field.getName();
+                return new ParamConverter() {
+                    @Override
+                    public Object convert(final Object paramObj) throws ParseException {
+                        final boolean isObjInNewDateFormat = isObjInNewDateFormat(paramObj.toString());
+                        if (isObjInNewDateFormat) {
+                            final DateFormat newFormat = newInputFormat;
+                            synchronized (newFormat) {
+                                return newFormat.parse(paramObj.toString());
+                            }
                         }
-                    } else {
                         final DateFormat format = inputFormat;
                         synchronized (format) {
                             Date date = format.parse(paramObj.toString());
-                            if (field.getName().equals("startDate")) {
+                            if (fieldName.equals("startDate")) {
                                 date = messageDate(date, 0, 0, 0);
-                            } else if (field.getName().equals("endDate")) {
+                            } else if (fieldName.equals("endDate")) {
                                 date = messageDate(date, 23, 59, 59);
                             }
-                            field.set(cmdObj, date);
+                            return date;
                         }
                     }
-                } else {
+                };
+            }
+            return new ParamConverter() {
+                @Override
+                public Object convert(final Object paramObj) throws ParseException {
                     final DateFormat format = inputFormat;
                     synchronized (format) {
                         format.setLenient(false);
-                        field.set(cmdObj, format.parse(paramObj.toString()));
+                        return format.parse(paramObj.toString());
                     }
                 }
-                break;
-            case FLOAT:
-                // Assuming that the parameters have been checked for required before now,
-                // we ignore blank or null values and defer to the command to set a default
-                // value for optional parameters ...
-                if (paramObj != null && isNotBlank(paramObj.toString())) {
-                    field.set(cmdObj, Float.valueOf(paramObj.toString()));
+            };
+        case FLOAT:
+            // Assuming that the parameters have been checked for required before now,
+            // we ignore blank or null values and defer to the command to set a default
+            // value for optional parameters ...
+            return new ParamConverter() {
+                @Override
+                public Object convert(final Object paramObj) {
+                    return isNotBlank(paramObj.toString()) ? Float.valueOf(paramObj.toString()) : NOT_SET;
                 }
-                break;
-            case DOUBLE:
-                // Assuming that the parameters have been checked for required before now,
-                // we ignore blank or null values and defer to the command to set a default
-                // value for optional parameters ...
-                if (paramObj != null && isNotBlank(paramObj.toString())) {
-                    field.set(cmdObj, Double.valueOf(paramObj.toString()));
+            };
+        case DOUBLE:
+            return new ParamConverter() {
+                @Override
+                public Object convert(final Object paramObj) {
+                    return isNotBlank(paramObj.toString()) ? Double.valueOf(paramObj.toString()) : NOT_SET;
                 }
-                break;
-            case INTEGER:
-                // Assuming that the parameters have been checked for required before now,
-                // we ignore blank or null values and defer to the command to set a default
-                // value for optional parameters ...
-                if (paramObj != null && isNotBlank(paramObj.toString())) {
-                    field.set(cmdObj, Integer.valueOf(paramObj.toString()));
+            };
+        case INTEGER:
+            return new ParamConverter() {
+                @Override
+                public Object convert(final Object paramObj) {
+                    return isNotBlank(paramObj.toString()) ? Integer.valueOf(paramObj.toString()) : NOT_SET;
                 }
-                break;
-            case LIST:
-                final List listParam = new ArrayList();
-                final StringTokenizer st = new StringTokenizer(paramObj.toString(), ",");
-                while (st.hasMoreTokens()) {
-                    final String token = st.nextToken();
-                    final CommandType listType = annotation.collectionType();
-                    switch (listType) {
-                    case INTEGER:
-                        listParam.add(Integer.valueOf(token));
-                        break;
-                    case UUID:
-                        if (token.isEmpty())
-                            break;
-                        final Long internalId = translateUuidToInternalId(token, annotation);
-                        listParam.add(internalId);
-                        break;
-                    case LONG: {
-                        listParam.add(Long.valueOf(token));
+            };
+        case LIST:
+            final CommandType listType = annotation.collectionType();
+            if (listType == CommandType.UUID) {
+                return new ParamConverter() {
+                    @Override
+                    public Object convert(final Object paramObj) {
+                        final List<String> uuids = new ArrayList<String>();
+                        final StringTokenizer st = new StringTokenizer(paramObj.toString(), ",");
+                        while (st.hasMoreTokens()) {
+                            final String token = st.nextToken();
+                            if (!token.isEmpty()) {
+                                uuids.add(token);
+                            }
+                        }
+                        return translateUuidsToInternalIds(uuids, annotation);
                     }
-                    break;
-                    case SHORT:
-                        listParam.add(Short.valueOf(token));
-                        break;
-                    case STRING:
-                        listParam.add(token);
-                        break;
+                };
+            }
+            return new ParamConverter() {
+                @Override
+                public Object convert(final Object paramObj) {
+                    final List<Object> listParam = new ArrayList<Object>();
+                    final StringTokenizer st = new StringTokenizer(paramObj.toString(), ",");
+                    while (st.hasMoreTokens()) {
+                        final String token = st.nextToken();
+                        switch (listType) {
+                        case INTEGER:
+                            listParam.add(Integer.valueOf(token));
+                            break;
+                        case LONG:
+                            listParam.add(Long.valueOf(token));
+                            break;
+                        case SHORT:
+                            listParam.add(Short.valueOf(token));
+                            break;
+                        case STRING:
+                            listParam.add(token);
+                            break;
+                        default:
+                            break;
+                        }
                     }
+                    return listParam;
                 }
-                field.set(cmdObj, listParam);
-                break;
-            case UUID:
-                final Long internalId = translateUuidToInternalId(paramObj.toString(), annotation);
-                field.set(cmdObj, internalId);
-                break;
-            case LONG:
-                field.set(cmdObj, Long.valueOf(paramObj.toString()));
-                break;
-            case SHORT:
-                field.set(cmdObj, Short.valueOf(paramObj.toString()));
-                break;
-            case STRING:
-                if ((paramObj != null)) {
+            };
+        case UUID:
+            return new ParamConverter() {
+                @Override
+                public Object convert(final Object paramObj) {
+                    return translateUuidToInternalId(paramObj.toString(), annotation);
+                }
+            };
+        case LONG:
+            return new ParamConverter() {
+                @Override
+                public Object convert(final Object paramObj) {
+                    return Long.valueOf(paramObj.toString());
+                }
+            };
+        case SHORT:
+            return new ParamConverter() {
+                @Override
+                public Object convert(final Object paramObj) {
+                    return Short.valueOf(paramObj.toString());
+                }
+            };
+        case STRING:
+            final String fieldName = field.getName();
+            return new ParamConverter() {
+                @Override
+                public Object convert(final Object paramObj) {
                     if (paramObj.toString().length() > annotation.length()) {
-                        s_logger.error("Value greater than max allowed length " + annotation.length() + " for param: " + field.getName());
-                        throw new InvalidParameterValueException("Value greater than max allowed length " + annotation.length() + " for param: " + field.getName());
-                    } else {
-                        field.set(cmdObj, paramObj.toString());
+                        s_logger.error("Value greater than max allowed length " + annotation.length() + " for param: " + fieldName);
+                        throw new InvalidParameterValueException("Value greater than max allowed length " + annotation.length() + " for param: " + fieldName);
                     }
+                    return paramObj.toString();
                 }
-                break;
-            case TZDATE:
-                field.set(cmdObj, DateUtil.parseTZDateString(paramObj.toString()));
-                break;
-            case MAP:
-            default:
-                field.set(cmdObj, paramObj);
-                break;
-            }
-        } catch (final IllegalAccessException ex) {
-            s_logger.error("Error initializing command " + cmdObj.getCommandName() + ", field " + field.getName() + " is not accessible.");
-            throw new CloudRuntimeException("Internal error initializing parameters for command " + cmdObj.getCommandName() + " [field " + field.getName() +
+            };
+        case TZDATE:
+            return new ParamConverter() {
+                @Override
+                public Object convert(final Object paramObj) throws ParseException {
+                    return DateUtil.parseTZDateString(paramObj.toString());
+                }
+            };
+        case MAP:
+        default:
+            return new ParamConverter() {
+                @Override
+                public Object convert(final Object paramObj) {
+                    return paramObj;
+                }
+            };
+        }
+    }
+
+    private void setFieldValue(final ParamBinding binding, final BaseCmd cmdObj, final Object paramObj) throws IllegalArgumentException, ParseException {
+        final Object value = binding.converter.convert(paramObj);
+        if (value == NOT_SET) {
+            return;
+        }
+        if (value == null && binding.field.getType().isPrimitive()) {
+            throw new IllegalArgumentException("Can't set primitive field " + binding.field.getName() + " to null");
+        }
+        try {
+            binding.setter.invokeExact((Object)cmdObj, value);
+        } catch (final ClassCastException e) {
+            throw new IllegalArgumentException("Can't set field " + binding.field.getName() + " to " + value, e);
+        } catch (final RuntimeException | Error e) {
+            throw e;
+        } catch (final Throwable e) {
+            s_logger.error("Error initializing command " + cmdObj.getCommandName() + ", field " + binding.field.getName() + " is not accessible.");
+            throw new CloudRuntimeException("Internal error initializing parameters for command " + cmdObj.getCommandName() + " [field " + binding.field.getName() +
                     " is not accessible]");
         }
     }
@@ -441,6 +572,51 @@ public class ParamProcessWorker implements DispatchWorker {
         return cal.getTime();
     }
 
+    /**
+     * Translates the uuids of a list parameter with one query per entity class
+     * of the parameter, instead of one per uuid and entity class. Anything the
+     * query does not resolve, like -1, internal ids passed to pre 3.x apis or
+     * uuids that don't exist, goes through translateUuidToInternalId one by one.
+     */
+    private List<Long> translateUuidsToInternalIds(final List<String> uuids, final Parameter annotation) {
+        final Set<String> unresolved = new HashSet<String>();
+        for (final String uuid : uuids) {
+            if (UUID_PATTERN.matcher(uuid).matches()) {
+                unresolved.add(uuid);
+            }
+        }
+
+        final Map<String, Long> resolved = new HashMap<String, Long>();
+        final Class<?>[] entities = annotation.entityType()[0].getAnnotation(EntityReference.class).value();
+        for (final Class<?> entity : entities) {
+            if (unresolved.isEmpty()) {
+                break;
+            }
+            for (final Object objVO : _entityMgr.listByUuidsIncludingRemoved(entity, unresolved)) {
+                if (!(objVO instanceof Identity) || !(objVO instanceof InternalIdentity)) {
+                    continue;
+                }
+                final String uuid = ((Identity)objVO).getUuid();
+                if (unresolved.remove(uuid)) {
+                    resolved.put(uuid, ((InternalIdentity)objVO).getId());
+                    CallContext.current().putContextParameter(entity, uuid);
+                }
+            }
+        }
+
+        final List<Long> internalIds = new ArrayList<Long>(uuids.size());
+        for (final String uuid : uuids) {
+            final Long internalId = resolved.get(uuid);
+            if (internalId != null) {
+                validateNaturalNumber(internalId, annotation.name());
+                internalIds.add(internalId);
+            } else {
+                internalIds.add(translateUuidToInternalId(uuid, annotation));
+            }
+        }
+        return internalIds;
+    }
+
     private Long translateUuidToInternalId(final String uuid, final Parameter annotation) {
         if (uuid.equals("-1")) {
             // FIXME: This is to handle a lot of hardcoded special cases where -1 is sent
@@ -451,7 +627,7 @@ public class ParamProcessWorker implements DispatchWorker {
         // If annotation's empty, the cmd existed before 3.x try conversion to long
         final boolean isPre3x = annotation.since().isEmpty();
         // Match against Java's UUID regex to check if input is uuid string
-        final boolean isUuid = uuid.matches("^[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}$");
+        final boolean isUuid = UUID_PATTERN.matcher(uuid).matches();
         // Enforce that it's uuid for newly added apis from version 3.x
         if (!isPre3x && !isUuid)
             return null;
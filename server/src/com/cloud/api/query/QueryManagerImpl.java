@@ -31,6 +31,8 @@ import org.apache.cloudstack.affinity.AffinityGroupResponse;
 import org.apache.cloudstack.affinity.AffinityGroupVMMapVO;
 import org.apache.cloudstack.affinity.dao.AffinityGroupDomainMapDao;
 import org.apache.cloudstack.affinity.dao.AffinityGroupVMMapDao;
+import org.apache.cloudstack.api.ApiConstants;
+import org.apache.cloudstack.api.BaseListCmd;
 import org.apache.cloudstack.api.BaseListProjectAndAccountResourcesCmd;
 import org.apache.cloudstack.api.ResourceDetail;
 import org.apache.cloudstack.api.ResponseObject.ResponseView;
@@ -133,6 +135,7 @@ import com.cloud.api.query.dao.VolumeJoinDao;
 import com.cloud.api.query.vo.AccountJoinVO;
 import com.cloud.api.query.vo.AffinityGroupJoinVO;
 import com.cloud.api.query.vo.AsyncJobJoinVO;
+import com.cloud.api.query.vo.BaseViewVO;
 import com.cloud.api.query.vo.DataCenterJoinVO;
 import com.cloud.api.query.vo.DiskOfferingJoinVO;
 import com.cloud.api.query.vo.DomainJoinVO;
@@ -505,6 +508,10 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
         ListResponse<EventResponse> response = new ListResponse<EventResponse>();
         List<EventResponse> eventResponses = ViewResponseHelper.createEventResponse(result.first().toArray(new EventJoinVO[result.first().size()]));
         response.setResponses(eventResponses, result.second());
+        // offset pages are ordered by creation date, only keyset pages follow the id
+        if (cmd.getStartAfter() != null) {
+            response.setStartAfter(getNextStartAfter(cmd.getPageSizeVal(), eventResponses.size(), result.first(), false));
+        }
         return response;
     }
 
@@ -587,6 +594,10 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
 
         sc.setParameters("archived", false);
 
+        if (entryTime != null && duration != null && cmd.getStartAfter() != null) {
+            throw new InvalidParameterValueException("Parameter " + ApiConstants.START_AFTER + " can't be combined with entrytime and duration");
+        }
+
         Pair<List<EventJoinVO>, Integer> eventPair = null;
         // event_view will not have duplicate rows for each event, so
         // searchAndCount should be good enough.
@@ -611,6 +622,9 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
              * _eventDao.findCompletedEvent(event.getId()); if (completedEvent
              * == null) { pendingEvents.add(event); } } return pendingEvents;
              */
+        } else if (cmd.getStartAfter() != null) {
+            sc.setStartAfter(searchFilter, "id", false, descendingStartAfter(cmd.getStartAfter()));
+            eventPair = new Pair<List<EventJoinVO>, Integer>(_eventJoinDao.search(sc, searchFilter), null);
         } else {
             eventPair = _eventJoinDao.searchAndCount(sc, searchFilter);
         }
@@ -765,9 +779,39 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
                 result.first().toArray(new UserVmJoinVO[result.first().size()]));
 
         response.setResponses(vmResponses, result.second());
+        response.setStartAfter(getNextStartAfter(cmd.getPageSizeVal(), vmResponses.size(), result.first(), true));
         return response;
     }
 
+    /**
+     * Keyset paging newest first starts below the given id, or at the newest
+     * row for the first page.
+     */
+    private static long descendingStartAfter(long startAfter) {
+        return startAfter == 0 ? Long.MAX_VALUE : startAfter;
+    }
+
+    /**
+     * Returns the keyset pagination token of the page after the given one, or
+     * null if the page is not full and so is the last one. Only for pages
+     * ordered by id, a token taken from any other order would skip or repeat
+     * rows.
+     *
+     * @param pageSize page size of the list command.
+     * @param pageCount number of entities in the page, rows of a view can repeat an entity.
+     * @param ascending whether pages follow the id in ascending order.
+     */
+    private static String getNextStartAfter(Long pageSize, int pageCount, List<? extends BaseViewVO> rows, boolean ascending) {
+        if (pageSize == null || pageCount < pageSize || rows.isEmpty()) {
+            return null;
+        }
+        long last = rows.get(0).getId();
+        for (BaseViewVO row : rows) {
+            last = ascending ? Math.max(last, row.getId()) : Math.min(last, row.getId());
+        }
+        return BaseListCmd.toStartAfterToken(last);
+    }
+
     private Pair<List<UserVmJoinVO>, Integer> searchForUserVMsInternal(ListVMsCmd cmd) {
         Account caller = CallContext.current().getCallingAccount();
         List<Long> permittedAccounts = new ArrayList<Long>();
@@ -1013,13 +1057,21 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
             sc.setParameters("displayVm", 1);
         }
         // search vm details by ids
-        Pair<List<UserVmJoinVO>, Integer> uniqueVmPair = _userVmJoinDao.searchAndDistinctCount(sc, searchFilter);
+        Pair<List<UserVmJoinVO>, Integer> uniqueVmPair = null;
+        Long startAfter = cmd.getStartAfter();
+        if (startAfter != null) {
+            // keyset pages skip the count, it would scan all the matching rows again
+            sc.setStartAfter(searchFilter, "id", true, startAfter);
+            uniqueVmPair = new Pair<List<UserVmJoinVO>, Integer>(_userVmJoinDao.search(sc, searchFilter), null);
+        } else {
+            uniqueVmPair = _userVmJoinDao.searchAndDistinctCount(sc, searchFilter);
+        }
         Integer count = uniqueVmPair.second();
-        if (count.intValue() == 0) {
+        List<UserVmJoinVO> uniqueVms = uniqueVmPair.first();
+        if (uniqueVms.isEmpty()) {
             // handle empty result cases
             return uniqueVmPair;
         }
-        List<UserVmJoinVO> uniqueVms = uniqueVmPair.first();
         Long[] vmIds = new Long[uniqueVms.size()];
         int i = 0;
         for (UserVmJoinVO v : uniqueVms) {
@@ -1721,6 +1773,10 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
             }
         }
         response.setResponses(volumeResponses, result.second());
+        // offset pages are ordered by creation date, only keyset pages follow the id
+        if (cmd.getStartAfter() != null) {
+            response.setStartAfter(getNextStartAfter(cmd.getPageSizeVal(), volumeResponses.size(), result.first(), false));
+        }
         return response;
     }
 
@@ -1851,13 +1907,20 @@ public class QueryManagerImpl extends MutualExclusiveIdsManagerBase implements Q
         sc.setParameters("state", Volume.State.Destroy);
 
         // search Volume details by ids
-        Pair<List<VolumeJoinVO>, Integer> uniqueVolPair = _volumeJoinDao.searchAndCount(sc, searchFilter);
+        Pair<List<VolumeJoinVO>, Integer> uniqueVolPair = null;
+        Long startAfter = cmd.getStartAfter();
+        if (startAfter != null) {
+            sc.setStartAfter(searchFilter, "id", false, descendingStartAfter(startAfter));
+            uniqueVolPair = new Pair<List<VolumeJoinVO>, Integer>(_volumeJoinDao.search(sc, searchFilter), null);
+        } else {
+            uniqueVolPair = _volumeJoinDao.searchAndCount(sc, searchFilter);
+        }
         Integer count = uniqueVolPair.second();
-        if (count.intValue() == 0) {
+        List<VolumeJoinVO> uniqueVols = uniqueVolPair.first();
+        if (uniqueVols.isEmpty()) {
             // empty result
             return uniqueVolPair;
         }
-        List<VolumeJoinVO> uniqueVols = uniqueVolPair.first();
         Long[] vrIds = new Long[uniqueVols.size()];
         int i = 0;
         for (VolumeJoinVO v : uniqueVols) {
@@ -72,15 +72,23 @@ public class ApiResponseSerializer {
         }
     }
 
+    // list items past this many characters of the log copy are left out of the access log
+    private static final int MAX_LOGGED_LIST_LENGTH = 64 * 1024;
+
     private static final Pattern s_unicodeEscapePattern = Pattern.compile("\\\\u([0-9A-Fa-f]{4})");
 
     public static String unescape(String escaped) {
-        String str = escaped;
-        Matcher matcher = s_unicodeEscapePattern.matcher(str);
+        // single pass, serialized responses are large and most of them contain no escapes at all
+        if (escaped.indexOf("\\u") < 0) {
+            return escaped;
+        }
+        Matcher matcher = s_unicodeEscapePattern.matcher(escaped);
+        StringBuffer sb = new StringBuffer(escaped.length());
         while (matcher.find()) {
-            str = str.replaceAll("\\" + matcher.group(0), Character.toString((char)Integer.parseInt(matcher.group(1), 16)));
+            matcher.appendReplacement(sb, Matcher.quoteReplacement(Character.toString((char)Integer.parseInt(matcher.group(1), 16))));
         }
-        return str;
+        matcher.appendTail(sb);
+        return sb.toString();
     }
 
     public static String toJSONSerializedString(ResponseObject result, StringBuilder log) {
@@ -99,6 +107,11 @@ public class ApiResponseSerializer {
                 if (nonZeroCount) {
                     sb.append("{\"").append(ApiConstants.COUNT).append("\":").append(count);
                     log.append("{\"").append(ApiConstants.COUNT).append("\":").append(count);
+                    String startAfter = ((ListResponse)result).getStartAfter();
+                    if (startAfter != null) {
+                        sb.append(",\"").append(ApiConstants.START_AFTER).append("\":\"").append(startAfter).append("\"");
+                        log.append(",\"").append(ApiConstants.START_AFTER).append("\":\"").append(startAfter).append("\"");
+                    }
                 }
 
                 if ((responses != null) && !responses.isEmpty()) {
@@ -112,13 +125,21 @@ public class ApiResponseSerializer {
                         log.append(",\"").append(responses.get(0).getObjectName()).append("\":[").append(logStr);
                     }
 
+                    int notLogged = 0;
                     for (int i = 1; i < ((ListResponse)result).getResponses().size(); i++) {
                         jsonStr = responseBuilder.toJson(responses.get(i));
                         jsonStr = unescape(jsonStr);
-                        logStr = logBuilder.toJson(responses.get(i));
-                        logStr = unescape(logStr);
                         sb.append(",").append(jsonStr);
-                        log.append(",").append(logStr);
+                        if (log.length() < MAX_LOGGED_LIST_LENGTH) {
+                            logStr = logBuilder.toJson(responses.get(i));
+                            logStr = unescape(logStr);
+                            log.append(",").append(logStr);
+                        } else {
+                            notLogged++;
+                        }
+                    }
+                    if (notLogged > 0) {
+                        log.append(",\"").append(notLogged).append(" more not logged\"");
                     }
                     sb.append("]}");
                     log.append("]}");
@@ -184,11 +205,26 @@ public class ApiResponseSerializer {
                 if (count != null && count != 0) {
                     sb.append("<").append(ApiConstants.COUNT).append(">").append(((ListResponse)result).getCount()).append("</").append(ApiConstants.COUNT).append(">");
                     log.append("<").append(ApiConstants.COUNT).append(">").append(((ListResponse)result).getCount()).append("</").append(ApiConstants.COUNT).append(">");
+                    String startAfter = ((ListResponse)result).getStartAfter();
+                    if (startAfter != null) {
+                        sb.append("<").append(ApiConstants.START_AFTER).append(">").append(startAfter).append("</").append(ApiConstants.START_AFTER).append(">");
+                        log.append("<").append(ApiConstants.START_AFTER).append(">").append(startAfter).append("</").append(ApiConstants.START_AFTER).append(">");
+                    }
                 }
                 List<? extends ResponseObject> responses = ((ListResponse)result).getResponses();
                 if ((responses != null) && !responses.isEmpty()) {
+                    int notLogged = 0;
                     for (ResponseObject obj : responses) {
-                        serializeResponseObjXML(sb, log, obj);
+                        if (log.length() < MAX_LOGGED_LIST_LENGTH) {
+                            serializeResponseObjXML(sb, log, obj);
+                        } else {
+                            // the fields are written to both at once, keep only the response
+                            serializeResponseObjXML(sb, new StringBuilder(), obj);
+                            notLogged++;
+                        }
+                    }
+                    if (notLogged > 0) {
+                        log.append("<!-- ").append(notLogged).append(" more not logged -->");
                     }
                 }
             } else {
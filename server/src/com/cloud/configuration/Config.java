@@ -1297,6 +1297,14 @@ public enum Config {
             "00:15",
             "The time at which the usage statistics aggregation job will run as an HH24:MM time, e.g. 00:30 to run at 12:30am.",
             null),
+    UsageStatsJobParseWorkers(
+            "Usage",
+            ManagementServer.class,
+            Integer.class,
+            "usage.stats.job.parse.workers",
+            "1",
+            "The number of threads the usage job uses to parse the usage of accounts in parallel, 1 parses the accounts one after the other.",
+            null),
     EnableUsageServer("Usage", ManagementServer.class, Boolean.class, "enable.usage.server", "true", "Flag for enabling usage", null),
     DirectNetworkStatsInterval(
             "Usage",
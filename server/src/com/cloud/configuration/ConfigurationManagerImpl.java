@@ -539,6 +539,7 @@ public class ConfigurationManagerImpl extends ManagerBase implements Configurati
             default:
                 throw new InvalidParameterValueException("Scope provided is invalid");
             }
+            _configDepot.invalidateConfigCache(name, ConfigKey.Scope.valueOf(scope), resourceId);
             return value;
         }
 
@@ -629,6 +630,7 @@ public class ConfigurationManagerImpl extends ManagerBase implements Configurati
         }
 
         txn.commit();
+        _configDepot.invalidateConfigCache(name, ConfigKey.Scope.Global, null);
         return _configDao.getValue(name);
     }
 
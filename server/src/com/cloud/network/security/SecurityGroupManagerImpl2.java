@@ -16,7 +16,10 @@
 // under the License.
 package com.cloud.network.security;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -29,7 +32,9 @@ import javax.naming.ConfigurationException;
 
 import org.apache.cloudstack.managed.context.ManagedContext;
 
+import com.cloud.agent.api.Command.OnError;
 import com.cloud.agent.api.SecurityGroupRulesCmd;
+import com.cloud.agent.api.SecurityGroupRulesCmd.IpPortAndProto;
 import com.cloud.agent.manager.Commands;
 import com.cloud.configuration.Config;
 import com.cloud.exception.AgentUnavailableException;
@@ -48,6 +53,12 @@ import com.cloud.vm.VirtualMachine.State;
  *
  */
 public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
+    /**
+     * Maximum number of queued vms a worker picks up in one pass; the rulesets for
+     * vms of the same pass share group lookups and are sent per host as one command set.
+     */
+    static final int WORK_BATCH_SIZE = 50;
+
     SecurityGroupWorkQueue _workQueue = new LocalSecurityGroupWorkQueue();
     SecurityGroupWorkTracker _workTracker;
     SecurityManagerMBeanImpl _mBean;
@@ -140,12 +151,12 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
         s_logger.trace("Checking the work queue");
         List<SecurityGroupWork> workItems;
         try {
-            workItems = _workQueue.getWork(1);
+            workItems = _workQueue.getWork(WORK_BATCH_SIZE);
+            if (s_logger.isTraceEnabled()) {
+                s_logger.trace("Processing " + workItems.size() + " work items");
+            }
+            List<SecurityGroupWork> pending = new ArrayList<SecurityGroupWork>(workItems.size());
             for (SecurityGroupWork work : workItems) {
-                if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Processing " + work.getInstanceId());
-                }
-
                 try {
                     VmRulesetLogVO rulesetLog = _rulesetLogDao.findByVmId(work.getInstanceId());
                     if (rulesetLog == null) {
@@ -153,66 +164,116 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
                         continue;
                     }
                     work.setLogsequenceNumber(rulesetLog.getLogsequence());
-                    sendRulesetUpdates(work);
-                    _mBean.logUpdateDetails(work.getInstanceId(), work.getLogsequenceNumber());
+                    pending.add(work);
                 } catch (Exception e) {
                     s_logger.error("Problem during SG work " + work, e);
                     work.setStep(Step.Error);
                 }
             }
+            sendRulesetUpdates(pending);
+            for (SecurityGroupWork work : pending) {
+                _mBean.logUpdateDetails(work.getInstanceId(), work.getLogsequenceNumber());
+            }
         } catch (InterruptedException e1) {
             s_logger.warn("SG work: caught InterruptException", e1);
         }
     }
 
     public void sendRulesetUpdates(SecurityGroupWork work) {
-        Long userVmId = work.getInstanceId();
-        UserVm vm = _userVMDao.findById(userVmId);
+        sendRulesetUpdates(Collections.singletonList(work));
+    }
 
-        if (vm != null && vm.getState() == State.Running) {
-            if (s_logger.isTraceEnabled()) {
-                s_logger.trace("SecurityGroupManager v2: found vm, " + userVmId + " state=" + vm.getState());
-            }
-            Map<PortAndProto, Set<String>> ingressRules = generateRulesForVM(userVmId, SecurityRuleType.IngressRule);
-            Map<PortAndProto, Set<String>> egressRules = generateRulesForVM(userVmId, SecurityRuleType.EgressRule);
-            Long agentId = vm.getHostId();
-            if (agentId != null) {
-                String privateIp = vm.getPrivateIpAddress();
-                NicVO nic = _nicDao.findByIp4AddressAndVmId(privateIp, vm.getId());
-                List<String> nicSecIps = null;
-                if (nic != null) {
-                    if (nic.getSecondaryIp()) {
-                        nicSecIps = _nicSecIpDao.getSecondaryIpAddressesForNic(nic.getId());
-                    }
+    /**
+     * Generates the rulesets for the given work items and sends them grouped by host, so that
+     * a host running several of the affected vms receives a single command set instead of one
+     * command per vm.
+     */
+    protected void sendRulesetUpdates(List<SecurityGroupWork> workItems) {
+        RulesetCache cache = new RulesetCache();
+        Map<Long, List<SecurityGroupWork>> workByAgent = new LinkedHashMap<Long, List<SecurityGroupWork>>();
+        Map<Long, Commands> cmdsByAgent = new LinkedHashMap<Long, Commands>();
+        for (SecurityGroupWork work : workItems) {
+            try {
+                UserVm vm = _userVMDao.findById(work.getInstanceId());
+                SecurityGroupRulesCmd cmd = generateRulesetCmd(vm, work, cache);
+                if (cmd == null) {
+                    continue;
                 }
-                SecurityGroupRulesCmd cmd =
-                    generateRulesetCmd(vm.getInstanceName(), vm.getPrivateIpAddress(), vm.getPrivateMacAddress(), vm.getId(), null, work.getLogsequenceNumber(),
-                        ingressRules, egressRules, nicSecIps);
-                cmd.setMsId(_serverId);
-                if (s_logger.isDebugEnabled()) {
-                    s_logger.debug("SecurityGroupManager v2: sending ruleset update for vm " + vm.getInstanceName() + ":ingress num rules=" +
-                        cmd.getIngressRuleSet().size() + ":egress num rules=" + cmd.getEgressRuleSet().size() + " num cidrs=" + cmd.getTotalNumCidrs() + " sig=" +
-                        cmd.getSignature());
+                Long agentId = vm.getHostId();
+                Commands cmds = cmdsByAgent.get(agentId);
+                if (cmds == null) {
+                    cmds = new Commands(OnError.Continue);
+                    cmdsByAgent.put(agentId, cmds);
+                    workByAgent.put(agentId, new ArrayList<SecurityGroupWork>());
                 }
-                Commands cmds = new Commands(cmd);
-                try {
-                    _agentMgr.send(agentId, cmds, _answerListener);
-                    if (s_logger.isTraceEnabled()) {
-                        s_logger.trace("SecurityGroupManager v2: sent ruleset updates for " + vm.getInstanceName() + " curr queue size=" + _workQueue.size());
-                    }
-                } catch (AgentUnavailableException e) {
-                    s_logger.debug("Unable to send updates for vm: " + userVmId + "(agentid=" + agentId + ")");
-                    _workTracker.handleException(agentId);
+                cmds.addCommand(cmd);
+                workByAgent.get(agentId).add(work);
+            } catch (Exception e) {
+                s_logger.error("Problem during SG work " + work, e);
+                work.setStep(Step.Error);
+            }
+        }
+
+        for (Map.Entry<Long, Commands> entry : cmdsByAgent.entrySet()) {
+            Long agentId = entry.getKey();
+            List<SecurityGroupWork> sent = workByAgent.get(agentId);
+            try {
+                _agentMgr.send(agentId, entry.getValue(), _answerListener);
+                if (s_logger.isTraceEnabled()) {
+                    s_logger.trace("SecurityGroupManager v2: sent " + sent.size() + " ruleset updates to host " + agentId + " curr queue size=" + _workQueue.size());
                 }
+            } catch (AgentUnavailableException e) {
+                s_logger.debug("Unable to send updates for " + sent.size() + " vms (agentid=" + agentId + ")");
+                _workTracker.handleException(agentId);
             }
-        } else {
+        }
+    }
+
+    protected SecurityGroupRulesCmd generateRulesetCmd(UserVm vm, SecurityGroupWork work, RulesetCache cache) {
+        Long userVmId = work.getInstanceId();
+        if (vm == null || vm.getState() != State.Running) {
             if (s_logger.isDebugEnabled()) {
                 if (vm != null)
                     s_logger.debug("No rules sent to vm " + vm + "state=" + vm.getState());
                 else
                     s_logger.debug("Could not find vm: No rules sent to vm " + userVmId);
             }
+            return null;
+        }
+        if (s_logger.isTraceEnabled()) {
+            s_logger.trace("SecurityGroupManager v2: found vm, " + userVmId + " state=" + vm.getState());
+        }
+        Long agentId = vm.getHostId();
+        if (agentId == null) {
+            return null;
+        }
+        Set<Long> groupIds = new TreeSet<Long>();
+        for (SecurityGroupVMMapVO mapVO : _securityGroupVMMapDao.listByInstanceId(userVmId)) {
+            groupIds.add(mapVO.getSecurityGroupId());
+        }
+        Ruleset ruleset = cache.getRuleset(groupIds);
+        String privateIp = vm.getPrivateIpAddress();
+        NicVO nic = _nicDao.findByIp4AddressAndVmId(privateIp, vm.getId());
+        List<String> nicSecIps = null;
+        if (nic != null) {
+            if (nic.getSecondaryIp()) {
+                nicSecIps = _nicSecIpDao.getSecondaryIpAddressesForNic(nic.getId());
+            }
+        }
+        SecurityGroupRulesCmd cmd =
+            new SecurityGroupRulesCmd(vm.getPrivateIpAddress(), vm.getPrivateMacAddress(), vm.getInstanceName(), vm.getId(), ruleset.signature, work.getLogsequenceNumber(),
+                ruleset.ingressRules, ruleset.egressRules, nicSecIps);
+        if (ruleset.signature == null) {
+            // the signature only depends on the rules, so the first vm computes it for the others
+            ruleset.signature = cmd.getSignature();
+        }
+        cmd.setMsId(_serverId);
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("SecurityGroupManager v2: sending ruleset update for vm " + vm.getInstanceName() + ":ingress num rules=" +
+                cmd.getIngressRuleSet().size() + ":egress num rules=" + cmd.getEgressRuleSet().size() + " num cidrs=" + cmd.getTotalNumCidrs() + " sig=" +
+                cmd.getSignature());
         }
+        return cmd;
     }
 
     @Override
@@ -228,12 +289,19 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
      */
     @Override
     protected Map<PortAndProto, Set<String>> generateRulesForVM(Long userVmId, SecurityRuleType type) {
+        Set<Long> groupIds = new TreeSet<Long>();
+        for (SecurityGroupVMMapVO mapVO : _securityGroupVMMapDao.listByInstanceId(userVmId)) {
+            groupIds.add(mapVO.getSecurityGroupId());
+        }
+        return generateRulesForGroups(groupIds, type, new RulesetCache());
+    }
+
+    protected Map<PortAndProto, Set<String>> generateRulesForGroups(Set<Long> groupIds, SecurityRuleType type, RulesetCache cache) {
 
         Map<PortAndProto, Set<String>> allowed = new TreeMap<PortAndProto, Set<String>>();
 
-        List<SecurityGroupVMMapVO> groupsForVm = _securityGroupVMMapDao.listByInstanceId(userVmId);
-        for (SecurityGroupVMMapVO mapVO : groupsForVm) {
-            List<SecurityGroupRuleVO> rules = _securityGroupRuleDao.listBySecurityGroupId(mapVO.getSecurityGroupId(), type);
+        for (Long groupId : groupIds) {
+            List<SecurityGroupRuleVO> rules = cache.getRules(groupId, type);
             for (SecurityGroupRuleVO rule : rules) {
                 PortAndProto portAndProto = new PortAndProto(rule.getProtocol(), rule.getStartPort(), rule.getEndPort());
                 Set<String> cidrs = allowed.get(portAndProto);
@@ -241,7 +309,7 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
                     cidrs = new TreeSet<String>(new CidrComparator());
                 }
                 if (rule.getAllowedNetworkId() != null) {
-                    List<SecurityGroupVMMapVO> allowedInstances = _securityGroupVMMapDao.listBySecurityGroup(rule.getAllowedNetworkId(), State.Running);
+                    List<SecurityGroupVMMapVO> allowedInstances = cache.getRunningMembers(rule.getAllowedNetworkId());
                     for (SecurityGroupVMMapVO ngmapVO : allowedInstances) {
                         //here, we differ from the superclass: instead of creating N more queries to the
                         //nics table, we use what's already there in the VO since the listBySecurityGroup already
@@ -261,6 +329,66 @@ public class SecurityGroupManagerImpl2 extends SecurityGroupManagerImpl {
         return allowed;
     }
 
+    /**
+     * Ingress and egress rules generated for one combination of security groups, shared by
+     * every vm of a batch that is a member of exactly those groups.
+     */
+    protected static class Ruleset {
+        final IpPortAndProto[] ingressRules;
+        final IpPortAndProto[] egressRules;
+        String signature;
+
+        Ruleset(IpPortAndProto[] ingressRules, IpPortAndProto[] egressRules) {
+            this.ingressRules = ingressRules;
+            this.egressRules = egressRules;
+        }
+    }
+
+    /**
+     * Group rules, running group members and generated rulesets looked up while processing one
+     * batch of work. A rule change on a large group schedules every member, so the vms of a batch
+     * mostly share the same groups and the cidr lists are expanded once per group combination
+     * instead of once per vm; the cache lives only for the batch so it never goes stale.
+     */
+    protected class RulesetCache {
+        private final Map<SecurityRuleType, Map<Long, List<SecurityGroupRuleVO>>> _rules = new HashMap<SecurityRuleType, Map<Long, List<SecurityGroupRuleVO>>>();
+        private final Map<Long, List<SecurityGroupVMMapVO>> _runningMembers = new HashMap<Long, List<SecurityGroupVMMapVO>>();
+        private final Map<Set<Long>, Ruleset> _rulesets = new HashMap<Set<Long>, Ruleset>();
+
+        public Ruleset getRuleset(Set<Long> groupIds) {
+            Ruleset ruleset = _rulesets.get(groupIds);
+            if (ruleset == null) {
+                ruleset = new Ruleset(toIpPortAndProtos(generateRulesForGroups(groupIds, SecurityRuleType.IngressRule, this)),
+                    toIpPortAndProtos(generateRulesForGroups(groupIds, SecurityRuleType.EgressRule, this)));
+                _rulesets.put(groupIds, ruleset);
+            }
+            return ruleset;
+        }
+
+        public List<SecurityGroupRuleVO> getRules(long groupId, SecurityRuleType type) {
+            Map<Long, List<SecurityGroupRuleVO>> rulesByGroup = _rules.get(type);
+            if (rulesByGroup == null) {
+                rulesByGroup = new HashMap<Long, List<SecurityGroupRuleVO>>();
+                _rules.put(type, rulesByGroup);
+            }
+            List<SecurityGroupRuleVO> rules = rulesByGroup.get(groupId);
+            if (rules == null) {
+                rules = _securityGroupRuleDao.listBySecurityGroupId(groupId, type);
+                rulesByGroup.put(groupId, rules);
+            }
+            return rules;
+        }
+
+        public List<SecurityGroupVMMapVO> getRunningMembers(long groupId) {
+            List<SecurityGroupVMMapVO> members = _runningMembers.get(groupId);
+            if (members == null) {
+                members = _securityGroupVMMapDao.listBySecurityGroup(groupId, State.Running);
+                _runningMembers.put(groupId, members);
+            }
+            return members;
+        }
+    }
+
     public int getQueueSize() {
         return _workQueue.size();
     }
@@ -351,10 +351,20 @@ public class UsageServiceImpl extends ManagerBase implements UsageService, Manag
             return new Pair<List<? extends Usage>, Integer>(new ArrayList<Usage>(), new Integer(0)); // return an empty list if we fail to validate the dates
         }
 
+        Long startAfter = cmd.getStartAfter();
+        if (startAfter != null) {
+            sc.setStartAfter(usageFilter, "id", true, startAfter);
+        }
+
         Pair<List<UsageVO>, Integer> usageRecords = null;
         TransactionLegacy txn = TransactionLegacy.open(TransactionLegacy.USAGE_DB);
         try {
-            usageRecords = _usageDao.searchAndCountAllRecords(sc, usageFilter);
+            if (startAfter != null) {
+                // keyset pages skip the count, it would scan all the matching records again
+                usageRecords = new Pair<List<UsageVO>, Integer>(_usageDao.searchIncludingRemoved(sc, usageFilter, null, false), null);
+            } else {
+                usageRecords = _usageDao.searchAndCountAllRecords(sc, usageFilter);
+            }
         } finally {
             txn.close();
 
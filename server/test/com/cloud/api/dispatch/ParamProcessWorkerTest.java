@@ -18,7 +18,9 @@
  */
 package com.cloud.api.dispatch;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 
 import org.junit.After;
 import org.junit.Assert;
@@ -32,6 +34,7 @@ import org.mockito.runners.MockitoJUnitRunner;
 import org.apache.cloudstack.api.BaseCmd;
 import org.apache.cloudstack.api.Parameter;
 import org.apache.cloudstack.api.ServerApiException;
+import org.apache.cloudstack.api.response.AccountResponse;
 import org.apache.cloudstack.context.CallContext;
 
 import com.cloud.exception.ConcurrentOperationException;
@@ -42,6 +45,7 @@ import com.cloud.exception.ResourceUnavailableException;
 import com.cloud.user.Account;
 import com.cloud.user.AccountManager;
 import com.cloud.user.User;
+import com.cloud.utils.db.EntityManager;
 
 @RunWith(MockitoJUnitRunner.class)
 public class ParamProcessWorkerTest {
@@ -49,6 +53,9 @@ public class ParamProcessWorkerTest {
     @Mock
     protected AccountManager accountManager;
 
+    @Mock
+    protected EntityManager entityManager;
+
     protected ParamProcessWorker paramProcessWorker;
 
     public static class TestCmd extends BaseCmd {
@@ -65,6 +72,9 @@ public class ParamProcessWorkerTest {
         @Parameter(name = "doubleparam1", type = CommandType.DOUBLE)
         double doubleparam1;
 
+        @Parameter(name = "uuidlistparam1", type = CommandType.LIST, collectionType = CommandType.UUID, entityType = AccountResponse.class)
+        List<Long> uuidlistparam1;
+
         @Override
         public void execute() throws ResourceUnavailableException, InsufficientCapacityException, ServerApiException, ConcurrentOperationException,
             ResourceAllocationException, NetworkRuleConflictException {
@@ -88,6 +98,7 @@ public class ParamProcessWorkerTest {
         CallContext.register(Mockito.mock(User.class), Mockito.mock(Account.class));
         paramProcessWorker = new ParamProcessWorker();
         paramProcessWorker._accountMgr = accountManager;
+        paramProcessWorker._entityMgr = entityManager;
     }
 
     @After
@@ -109,4 +120,35 @@ public class ParamProcessWorkerTest {
         Assert.assertTrue(Double.compare(cmd.doubleparam1, 11.89) == 0);
     }
 
+    private static Account account(final long id, final String uuid) {
+        final Account account = Mockito.mock(Account.class);
+        Mockito.when(account.getId()).thenReturn(id);
+        Mockito.when(account.getUuid()).thenReturn(uuid);
+        return account;
+    }
+
+    @Test
+    public void processUuidListParameterInOneLookup() {
+        final String uuid1 = "6d8e4c3a-29e4-4c3e-a1a2-1f0000000001";
+        final String uuid2 = "6d8e4c3a-29e4-4c3e-a1a2-1f0000000002";
+        Mockito.doReturn(Arrays.asList(account(2L, uuid2), account(1L, uuid1))).when(entityManager)
+                .listByUuidsIncludingRemoved(Mockito.eq(Account.class), Mockito.anyCollectionOf(String.class));
+        final HashMap<String, String> params = new HashMap<String, String>();
+        params.put("uuidlistparam1", uuid1 + "," + uuid2 + ",-1," + uuid1);
+        final TestCmd cmd = new TestCmd();
+        paramProcessWorker.processParameters(cmd, params);
+        Assert.assertEquals(Arrays.asList(1L, 2L, -1L, 1L), cmd.uuidlistparam1);
+        Mockito.verify(entityManager).listByUuidsIncludingRemoved(Mockito.eq(Account.class), Mockito.anyCollectionOf(String.class));
+        Mockito.verify(entityManager, Mockito.never()).findByUuidIncludingRemoved(Mockito.eq(Account.class), Mockito.anyString());
+    }
+
+    @Test(expected = ServerApiException.class)
+    public void processUuidListParameterWithUnknownUuid() {
+        Mockito.doReturn(Arrays.asList()).when(entityManager)
+                .listByUuidsIncludingRemoved(Mockito.eq(Account.class), Mockito.anyCollectionOf(String.class));
+        final HashMap<String, String> params = new HashMap<String, String>();
+        params.put("uuidlistparam1", "6d8e4c3a-29e4-4c3e-a1a2-1f0000000003");
+        paramProcessWorker.processParameters(new TestCmd(), params);
+    }
+
 }
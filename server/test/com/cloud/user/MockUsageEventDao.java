@@ -191,6 +191,28 @@ public class MockUsageEventDao implements UsageEventDao{
         return entity;
     }
 
+    @Override
+    public List<Long> persistBatch(List<UsageEventVO> entities) {
+        List<Long> ids = new ArrayList<Long>(entities.size());
+        for (UsageEventVO entity : entities) {
+            persist(entity);
+            ids.add(entity.getId());
+        }
+        return ids;
+    }
+
+    @Override
+    public void insertBatch(List<UsageEventVO> entities) {
+        for (UsageEventVO entity : entities) {
+            persist(entity);
+        }
+    }
+
+    @Override
+    public int updateBatch(List<UsageEventVO> entities) {
+        return 0;
+    }
+
     @Override
     public boolean remove(Long id) {
         return false;
@@ -16,60 +16,82 @@
 // under the License.
 package com.cloud.consoleproxy;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.cloud.consoleproxy.util.Logger;
 
+/**
+ * FIFO cache of encoded ajax images, bounded both by the number of images and by their total size. The newest image is
+ * always kept, even when it alone exceeds the byte limit.
+ */
 public class AjaxFIFOImageCache {
     private static final Logger s_logger = Logger.getLogger(AjaxFIFOImageCache.class);
 
-    private List<Integer> fifoQueue;
-    private Map<Integer, byte[]> cache;
-    private int cacheSize;
-    private int nextKey = 0;
+    public static final long DEFAULT_MAX_BYTES = 8 * 1024 * 1024;
+
+    private final Queue<Integer> fifoQueue = new ConcurrentLinkedQueue<Integer>();
+    private final Map<Integer, byte[]> cache = new ConcurrentHashMap<Integer, byte[]>();
+    private final AtomicInteger nextKey = new AtomicInteger();
+    private final AtomicLong cachedBytes = new AtomicLong();
+    private final int cacheSize;
+    private final long maxBytes;
 
     public AjaxFIFOImageCache(int cacheSize) {
-        this.cacheSize = cacheSize;
-        fifoQueue = new ArrayList<Integer>();
-        cache = new HashMap<Integer, byte[]>();
+        this(cacheSize, DEFAULT_MAX_BYTES);
     }
 
-    public synchronized void clear() {
-        fifoQueue.clear();
-        cache.clear();
+    public AjaxFIFOImageCache(int cacheSize, long maxBytes) {
+        this.cacheSize = cacheSize;
+        this.maxBytes = maxBytes;
     }
 
-    public synchronized int putImage(byte[] image) {
-        while (cache.size() >= cacheSize) {
-            Integer keyToRemove = fifoQueue.remove(0);
-            cache.remove(keyToRemove);
-
-            if (s_logger.isTraceEnabled())
-                s_logger.trace("Remove image from cache, key: " + keyToRemove);
+    public void clear() {
+        Integer key;
+        while ((key = fifoQueue.poll()) != null) {
+            remove(key);
         }
+    }
 
+    public int putImage(byte[] image) {
         int key = getNextKey();
 
         if (s_logger.isTraceEnabled())
             s_logger.trace("Add image to cache, key: " + key);
 
         cache.put(key, image);
+        cachedBytes.addAndGet(image.length);
         fifoQueue.add(key);
+
+        while (cache.size() > cacheSize || (cachedBytes.get() > maxBytes && cache.size() > 1)) {
+            Integer keyToRemove = fifoQueue.peek();
+            if (keyToRemove == null || keyToRemove == key) {
+                break;
+            }
+            if (fifoQueue.remove(keyToRemove)) {
+                remove(keyToRemove);
+
+                if (s_logger.isTraceEnabled())
+                    s_logger.trace("Remove image from cache, key: " + keyToRemove);
+            }
+        }
         return key;
     }
 
-    public synchronized byte[] getImage(int key) {
+    public byte[] getImage(int key) {
         if (key == 0) {
-            key = nextKey;
+            key = nextKey.get();
         }
-        if (cache.containsKey(key)) {
+        byte[] image = cache.get(key);
+        if (image != null) {
             if (s_logger.isTraceEnabled())
                 s_logger.trace("Retrieve image from cache, key: " + key);
 
-            return cache.get(key);
+            return image;
         }
 
         if (s_logger.isTraceEnabled())
@@ -77,7 +99,14 @@ public class AjaxFIFOImageCache {
         return null;
     }
 
-    public synchronized int getNextKey() {
-        return ++nextKey;
+    public int getNextKey() {
+        return nextKey.incrementAndGet();
+    }
+
+    private void remove(Integer key) {
+        byte[] image = cache.remove(key);
+        if (image != null) {
+            cachedBytes.addAndGet(-image.length);
+        }
     }
-}
\ No newline at end of file
+}
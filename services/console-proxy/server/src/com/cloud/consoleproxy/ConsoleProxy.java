@@ -31,7 +31,10 @@ import java.security.SecureRandom;
 import java.util.Hashtable;
 import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.log4j.xml.DOMConfigurator;
@@ -41,6 +44,7 @@ import com.sun.net.httpserver.HttpServer;
 
 import com.cloud.consoleproxy.util.Logger;
 import com.cloud.utils.PropertiesUtil;
+import com.cloud.utils.concurrency.NamedThreadFactory;
 
 /**
  *
@@ -70,6 +74,9 @@ public class ConsoleProxy {
     static int httpCmdListenPort = 8001;
     static int reconnectMaxRetry = 5;
     static int readTimeoutSeconds = 90;
+    // ajax update requests park a worker for a few seconds each, so this has to cover a couple of requests per open session
+    static int httpMaxWorkers = 500;
+    static int httpCmdMaxWorkers = 10;
     static int keyboardType = KEYBOARD_RAW;
     static String factoryClzName;
     static boolean standaloneStart = false;
@@ -158,6 +165,12 @@ public class ConsoleProxy {
             readTimeoutSeconds = Integer.parseInt(s);
             s_logger.info("Setting readTimeoutSeconds=" + readTimeoutSeconds);
         }
+
+        s = conf.getProperty("consoleproxy.httpMaxWorkers");
+        if (s != null) {
+            httpMaxWorkers = Integer.parseInt(s);
+            s_logger.info("Setting httpMaxWorkers=" + httpMaxWorkers);
+        }
     }
 
     public static ConsoleProxyServerFactory getHttpServerFactory() {
@@ -358,7 +371,7 @@ public class ConsoleProxy {
             server.createContext("/resource/", new ConsoleProxyResourceHandler());
             server.createContext("/ajax", new ConsoleProxyAjaxHandler());
             server.createContext("/ajaximg", new ConsoleProxyAjaxImageHandler());
-            server.setExecutor(new ThreadExecutor()); // creates a default executor
+            server.setExecutor(createHttpExecutor("ConsoleProxy-Http", httpMaxWorkers));
             server.start();
         } catch (Exception e) {
             s_logger.error(e.getMessage(), e);
@@ -371,7 +384,7 @@ public class ConsoleProxy {
             s_logger.info("Listening for HTTP CMDs on port " + httpCmdListenPort);
             HttpServer cmdServer = HttpServer.create(new InetSocketAddress(httpCmdListenPort), 2);
             cmdServer.createContext("/cmd", new ConsoleProxyCmdHandler());
-            cmdServer.setExecutor(new ThreadExecutor()); // creates a default executor
+            cmdServer.setExecutor(createHttpExecutor("ConsoleProxy-HttpCmd", httpCmdMaxWorkers));
             cmdServer.start();
         } catch (Exception e) {
             s_logger.error(e.getMessage(), e);
@@ -531,10 +544,14 @@ public class ConsoleProxy {
         encryptorPassword = password;
     }
 
-    static class ThreadExecutor implements Executor {
-        @Override
-        public void execute(Runnable r) {
-            new Thread(r).start();
-        }
+    /**
+     * Bounded pool for HTTP exchanges. Requests beyond the limit queue up instead of each getting a new thread, and idle
+     * workers are released so a quiet proxy does not keep the peak thread count around.
+     */
+    static ExecutorService createHttpExecutor(String name, int maxWorkers) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxWorkers, maxWorkers, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new NamedThreadFactory(name));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 }
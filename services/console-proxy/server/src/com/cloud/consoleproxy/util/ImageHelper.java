@@ -19,14 +19,81 @@ package com.cloud.consoleproxy.util;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
 
 public class ImageHelper {
+    private static final int INITIAL_BUFFER_SIZE = 128000;
+    // buffers that grew past this after a full screen update are not kept in the pool
+    static final int MAX_REUSED_BUFFER_SIZE = 256 * 1024;
+    // the proxy runs hundreds of worker threads, but only this many encoders and buffers are kept between calls
+    static final int ENCODER_POOL_SIZE = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    private static final BlockingQueue<JpegEncoder> s_encoders = new ArrayBlockingQueue<JpegEncoder>(ENCODER_POOL_SIZE);
+
+    static class JpegEncoder {
+        private final ImageWriter writer;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+
+        JpegEncoder(ImageWriter writer) {
+            this.writer = writer;
+        }
+
+        byte[] encode(BufferedImage image) throws IOException {
+            buffer.reset();
+            ImageOutputStream ios = new MemoryCacheImageOutputStream(buffer);
+            try {
+                writer.setOutput(ios);
+                writer.write(image);
+            } finally {
+                writer.reset();
+                ios.close();
+            }
+            return buffer.toByteArray();
+        }
+
+        boolean isReusable() {
+            return buffer.size() <= MAX_REUSED_BUFFER_SIZE;
+        }
+
+        void dispose() {
+            writer.dispose();
+        }
+    }
+
     public static byte[] jpegFromImage(BufferedImage image) throws IOException {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream(128000);
-        javax.imageio.ImageIO.write(image, "jpg", bos);
+        JpegEncoder encoder = s_encoders.poll();
+        if (encoder == null) {
+            Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpg");
+            if (!writers.hasNext()) {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+                ImageIO.write(image, "jpg", bos);
+                return bos.toByteArray();
+            }
+            encoder = new JpegEncoder(writers.next());
+        }
+
+        // encode in memory with a pooled writer and buffer, ImageIO.write looks up a new writer on every call and may go
+        // through a temporary file cache
+        boolean reusable = false;
+        try {
+            byte[] jpegBits = encoder.encode(image);
+            reusable = encoder.isReusable();
+            return jpegBits;
+        } finally {
+            if (!reusable || !s_encoders.offer(encoder)) {
+                encoder.dispose();
+            }
+        }
+    }
 
-        byte[] jpegBits = bos.toByteArray();
-        bos.close();
-        return jpegBits;
+    static int getPooledEncoderCount() {
+        return s_encoders.size();
     }
 }
@@ -0,0 +1,77 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.consoleproxy;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AjaxFIFOImageCacheTest {
+
+    @Test
+    public void testOldestImagesAreDroppedPastTheByteLimit() {
+        AjaxFIFOImageCache cache = new AjaxFIFOImageCache(10, 100);
+        int first = cache.putImage(new byte[40]);
+        int second = cache.putImage(new byte[40]);
+        int third = cache.putImage(new byte[40]);
+
+        Assert.assertNull(cache.getImage(first));
+        Assert.assertNotNull(cache.getImage(second));
+        Assert.assertNotNull(cache.getImage(third));
+    }
+
+    @Test
+    public void testNewestImageIsKeptEvenWhenTooLarge() {
+        AjaxFIFOImageCache cache = new AjaxFIFOImageCache(10, 100);
+        int small = cache.putImage(new byte[10]);
+        int large = cache.putImage(new byte[200]);
+
+        Assert.assertNull(cache.getImage(small));
+        Assert.assertEquals(200, cache.getImage(large).length);
+        Assert.assertEquals(200, cache.getImage(0).length);
+
+        // the oversized image is dropped as soon as a newer one comes in
+        int next = cache.putImage(new byte[10]);
+        Assert.assertNull(cache.getImage(large));
+        Assert.assertNotNull(cache.getImage(next));
+    }
+
+    @Test
+    public void testOldestImagesAreDroppedPastTheCount() {
+        AjaxFIFOImageCache cache = new AjaxFIFOImageCache(2, 100);
+        int first = cache.putImage(new byte[1]);
+        int second = cache.putImage(new byte[1]);
+        int third = cache.putImage(new byte[1]);
+
+        Assert.assertNull(cache.getImage(first));
+        Assert.assertNotNull(cache.getImage(second));
+        Assert.assertNotNull(cache.getImage(third));
+    }
+
+    @Test
+    public void testClearReleasesTheBytes() {
+        AjaxFIFOImageCache cache = new AjaxFIFOImageCache(10, 100);
+        int old = cache.putImage(new byte[90]);
+        cache.clear();
+        Assert.assertNull(cache.getImage(old));
+
+        // nothing is left over from before the clear, so two images fit again
+        int first = cache.putImage(new byte[50]);
+        int second = cache.putImage(new byte[50]);
+        Assert.assertNotNull(cache.getImage(first));
+        Assert.assertNotNull(cache.getImage(second));
+    }
+}
@@ -0,0 +1,100 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.consoleproxy.util;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ImageHelperTest {
+
+    private static BufferedImage createImage(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.BLUE);
+        g.fillRect(0, 0, width / 2, height);
+        g.dispose();
+        return image;
+    }
+
+    @Test
+    public void testEncodedImageDecodes() throws Exception {
+        byte[] jpeg = ImageHelper.jpegFromImage(createImage(64, 32));
+
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(jpeg));
+        Assert.assertEquals(64, decoded.getWidth());
+        Assert.assertEquals(32, decoded.getHeight());
+        // a reused encoder does not carry anything over from the previous image
+        Assert.assertArrayEquals(jpeg, ImageHelper.jpegFromImage(createImage(64, 32)));
+    }
+
+    @Test
+    public void testConcurrentEncodesKeepAFixedNumberOfEncoders() throws Exception {
+        final BufferedImage image = createImage(64, 32);
+        final byte[] expected = ImageHelper.jpegFromImage(image);
+        ExecutorService executor = Executors.newFixedThreadPool(4 * ImageHelper.ENCODER_POOL_SIZE);
+        try {
+            List<Future<byte[]>> results = new ArrayList<Future<byte[]>>();
+            for (int i = 0; i < 200; i++) {
+                results.add(executor.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws Exception {
+                        return ImageHelper.jpegFromImage(image);
+                    }
+                }));
+            }
+            for (Future<byte[]> result : results) {
+                Assert.assertArrayEquals(expected, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertTrue(ImageHelper.getPooledEncoderCount() <= ImageHelper.ENCODER_POOL_SIZE);
+    }
+
+    @Test
+    public void testLargeBufferIsNotPooled() throws Exception {
+        ImageHelper.jpegFromImage(createImage(8, 8));
+        int pooled = ImageHelper.getPooledEncoderCount();
+
+        // noise does not compress, so the encoded image outgrows the reusable buffer size
+        BufferedImage noise = new BufferedImage(1024, 768, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(1);
+        for (int y = 0; y < noise.getHeight(); y++) {
+            for (int x = 0; x < noise.getWidth(); x++) {
+                noise.setRGB(x, y, random.nextInt());
+            }
+        }
+        byte[] jpeg = ImageHelper.jpegFromImage(noise);
+
+        Assert.assertTrue(jpeg.length > ImageHelper.MAX_REUSED_BUFFER_SIZE);
+        Assert.assertEquals(pooled - 1, ImageHelper.getPooledEncoderCount());
+    }
+}
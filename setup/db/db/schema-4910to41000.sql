@@ -45,4 +45,11 @@ CREATE TABLE `cloud`.`vlan_details` (
   `display` tinyint(1) NOT NULL DEFAULT 1 COMMENT 'Should detail be displayed to the end user',
   PRIMARY KEY (`id`),
   CONSTRAINT `fk_vlan_details__vlan_id` FOREIGN KEY `fk_vlan_details__vlan_id`(`vlan_id`) REFERENCES `vlan`(`id`) ON DELETE CASCADE
-) ENGINE=InnoDB DEFAULT CHARSET=utf8;
\ No newline at end of file
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+-- accounts a usage parse worker has committed for an aggregation interval, a failed job does not parse them again
+CREATE TABLE IF NOT EXISTS `cloud_usage`.`usage_parsed_account` (
+  `account_id` bigint unsigned NOT NULL,
+  `start_date` DATETIME NOT NULL,
+  `end_date` DATETIME NOT NULL,
+  PRIMARY KEY (`account_id`, `start_date`, `end_date`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
@@ -22,9 +22,13 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
@@ -82,6 +86,7 @@ import com.cloud.user.VmDiskStatisticsVO;
 import com.cloud.user.dao.AccountDao;
 import com.cloud.user.dao.UserStatisticsDao;
 import com.cloud.user.dao.VmDiskStatisticsDao;
+import com.cloud.utils.NumbersUtil;
 import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.cloud.utils.db.DB;
@@ -89,6 +94,7 @@ import com.cloud.utils.db.Filter;
 import com.cloud.utils.db.GlobalLock;
 import com.cloud.utils.db.SearchCriteria;
 import com.cloud.utils.db.TransactionLegacy;
+import com.cloud.utils.exception.CloudRuntimeException;
 
 @Component
 public class UsageManagerImpl extends ManagerBase implements UsageManager, Runnable {
@@ -155,6 +161,7 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
     private final Calendar _jobExecTime = Calendar.getInstance();
     private int _aggregationDuration = 0;
     private int _sanityCheckInterval = 0;
+    private int _parseWorkers = 1;
     private boolean _runQuota=false;
     String _hostname = null;
     int _pid = 0;
@@ -166,6 +173,7 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
     private final ScheduledExecutorService _executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("Usage-Job"));
     private final ScheduledExecutorService _heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("Usage-HB"));
     private final ScheduledExecutorService _sanityExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("Usage-Sanity"));
+    private ExecutorService _parseExecutor = null;
     private Future _scheduledFuture = null;
     private Future _heartbeat = null;
     private Future _sanity = null;
@@ -211,6 +219,10 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         if (sanityCheckInterval != null) {
             _sanityCheckInterval = Integer.parseInt(sanityCheckInterval);
         }
+        _parseWorkers = NumbersUtil.parseInt(configs.get("usage.stats.job.parse.workers"), 1);
+        if (_parseWorkers > 1) {
+            _parseExecutor = Executors.newFixedThreadPool(_parseWorkers, new NamedThreadFactory("Usage-Parser"));
+        }
 
         if (aggreagationTimeZone != null && !aggreagationTimeZone.isEmpty()) {
             _usageTimezone = TimeZone.getTimeZone(aggreagationTimeZone);
@@ -315,6 +327,9 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         if (_sanity != null) {
             _sanity.cancel(true);
         }
+        if (_parseExecutor != null) {
+            _parseExecutor.shutdownNow();
+        }
         return true;
     }
 
@@ -624,7 +639,9 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                     // - create the usage records using the parse methods below
                     for (UsageEventVO event : events) {
                         event.setProcessed(true);
-                        _usageEventDao.update(event.getId(), event);
+                    }
+                    _usageEventDao.updateBatch(events);
+                    for (UsageEventVO event : events) {
                         createHelperRecord(event);
                     }
                 }
@@ -760,10 +777,8 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                         Filter filter = new Filter(AccountVO.class, "id", true, offset, limit);
                         accounts = _accountDao.listAll(filter);
                         if ((accounts != null) && !accounts.isEmpty()) {
-                            for (AccountVO account : accounts) {
-                                parsed = parseHelperTables(account, currentStartDate, currentEndDate);
-                                numAcctsProcessed++;
-                            }
+                            parsed = parseAccounts(accounts, currentStartDate, currentEndDate);
+                            numAcctsProcessed += accounts.size();
                         }
                         offset = new Long(offset.longValue() + limit.longValue());
                     } while ((accounts != null) && !accounts.isEmpty());
@@ -782,8 +797,8 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                         accounts = _accountDao.findRecentlyDeletedAccounts(null, recentlyDeletedDate, filter);
 
                         if ((accounts != null) && !accounts.isEmpty()) {
+                            parsed = parseAccounts(accounts, currentStartDate, currentEndDate);
                             for (AccountVO account : accounts) {
-                                parsed = parseHelperTables(account, currentStartDate, currentEndDate);
                                 List<Long> publicTemplates = _usageDao.listPublicTemplatesByAccount(account.getId());
                                 for (Long templateId : publicTemplates) {
                                     //mark public templates owned by deleted accounts as deleted
@@ -821,6 +836,8 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
                 if (!parsed) {
                     usageTxn.rollback();
                 } else {
+                    // the intervals of this job are done, parse workers no longer need to know which accounts they committed
+                    _usageDao.removeParsedAccounts(endDate);
                     success = true;
                 }
             } catch (Exception ex) {
@@ -853,10 +870,130 @@ public class UsageManagerImpl extends ManagerBase implements UsageManager, Runna
         }
     }
 
-    private boolean parseHelperTables(AccountVO account, Date currentStartDate, Date currentEndDate) {
+    /**
+     * Parses the usage of the given accounts for one aggregation interval. With more than one
+     * parse worker configured the accounts are parsed in parallel, each account in its own usage
+     * DB transaction; an account whose parse fails is rolled back and parsed once more before the
+     * whole job is failed. A worker records the account as parsed for the interval in the same
+     * transaction, and accounts recorded by an earlier job that failed are skipped, so their
+     * committed usage records are not written a second time.
+     */
+    protected boolean parseAccounts(List<AccountVO> accounts, final Date currentStartDate, final Date currentEndDate) {
         boolean parsed = false;
+        List<Long> parsedAccountIds = _usageDao.listParsedAccounts(currentStartDate, currentEndDate);
+        if (!parsedAccountIds.isEmpty()) {
+            List<AccountVO> remaining = new ArrayList<AccountVO>(accounts.size());
+            for (AccountVO account : accounts) {
+                if (parsedAccountIds.contains(account.getId())) {
+                    parsed = true;
+                } else {
+                    remaining.add(account);
+                }
+            }
+            s_logger.info("Skipping usage of " + (accounts.size() - remaining.size()) + " accts already parsed between " + currentStartDate + " and " + currentEndDate);
+            if (remaining.isEmpty()) {
+                return parsed;
+            }
+            accounts = remaining;
+        }
+
+        final Map<Long, List<UsageVMInstanceVO>> vmUsageInstances = getVmUsageInstances(accounts, currentStartDate, currentEndDate);
+        if (_parseExecutor == null) {
+            for (AccountVO account : accounts) {
+                parsed = parseHelperTables(account, currentStartDate, currentEndDate, vmUsageInstances);
+            }
+            return parsed;
+        }
+
+        long timeStart = System.currentTimeMillis();
+        List<AccountVO> failedAccounts = new ArrayList<AccountVO>();
+        Map<AccountVO, Future<Boolean>> results = submitAccounts(accounts, currentStartDate, currentEndDate, vmUsageInstances);
+        for (Map.Entry<AccountVO, Future<Boolean>> result : results.entrySet()) {
+            try {
+                parsed = result.getValue().get();
+            } catch (ExecutionException e) {
+                s_logger.warn("Failed to parse usage for account: " + result.getKey().getId() + ", retrying", e.getCause());
+                failedAccounts.add(result.getKey());
+            } catch (InterruptedException e) {
+                throw new CloudRuntimeException("Interrupted while parsing usage", e);
+            }
+        }
 
-        parsed = VMInstanceUsageParser.parse(account, currentStartDate, currentEndDate);
+        if (!failedAccounts.isEmpty()) {
+            results = submitAccounts(failedAccounts, currentStartDate, currentEndDate, vmUsageInstances);
+            for (Map.Entry<AccountVO, Future<Boolean>> result : results.entrySet()) {
+                try {
+                    parsed = result.getValue().get();
+                } catch (ExecutionException e) {
+                    throw new CloudRuntimeException("Failed to parse usage for account: " + result.getKey().getId(), e.getCause());
+                } catch (InterruptedException e) {
+                    throw new CloudRuntimeException("Interrupted while parsing usage", e);
+                }
+            }
+        }
+
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("parsed usage for " + accounts.size() + " accts (" + failedAccounts.size() + " retried) between " + currentStartDate + " and " +
+                    currentEndDate + " using " + _parseWorkers + " workers in " + (System.currentTimeMillis() - timeStart) + " ms");
+        }
+        return parsed;
+    }
+
+    private Map<AccountVO, Future<Boolean>> submitAccounts(List<AccountVO> accounts, final Date currentStartDate, final Date currentEndDate,
+            final Map<Long, List<UsageVMInstanceVO>> vmUsageInstances) {
+        Map<AccountVO, Future<Boolean>> results = new LinkedHashMap<AccountVO, Future<Boolean>>();
+        for (final AccountVO account : accounts) {
+            results.put(account, _parseExecutor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    TransactionLegacy txn = TransactionLegacy.open(TransactionLegacy.USAGE_DB);
+                    try {
+                        txn.start();
+                        boolean parsed = parseHelperTables(account, currentStartDate, currentEndDate, vmUsageInstances);
+                        _usageDao.markAccountParsed(account.getId(), currentStartDate, currentEndDate);
+                        txn.commit();
+                        return parsed;
+                    } catch (RuntimeException e) {
+                        txn.rollback();
+                        throw e;
+                    } finally {
+                        txn.close();
+                    }
+                }
+            }));
+        }
+        return results;
+    }
+
+    /**
+     * Loads the usage_vm_instance records of a page of accounts with one query instead of one query
+     * per account. Returns null for an aggregation range that is still open, the parser then queries
+     * the records itself with the range clipped to the current time.
+     */
+    private Map<Long, List<UsageVMInstanceVO>> getVmUsageInstances(List<AccountVO> accounts, Date currentStartDate, Date currentEndDate) {
+        if ((currentEndDate == null) || currentEndDate.after(new Date())) {
+            return null;
+        }
+        List<Long> accountIds = new ArrayList<Long>(accounts.size());
+        Map<Long, List<UsageVMInstanceVO>> vmUsageInstances = new HashMap<Long, List<UsageVMInstanceVO>>();
+        for (AccountVO account : accounts) {
+            accountIds.add(account.getId());
+            vmUsageInstances.put(account.getId(), new ArrayList<UsageVMInstanceVO>());
+        }
+        for (UsageVMInstanceVO usageInstance : _usageInstanceDao.getUsageRecords(accountIds, currentStartDate, currentEndDate)) {
+            vmUsageInstances.get(usageInstance.getAccountId()).add(usageInstance);
+        }
+        return vmUsageInstances;
+    }
+
+    protected boolean parseHelperTables(AccountVO account, Date currentStartDate, Date currentEndDate, Map<Long, List<UsageVMInstanceVO>> vmUsageInstances) {
+        boolean parsed = false;
+
+        if (vmUsageInstances != null) {
+            parsed = VMInstanceUsageParser.parse(account, currentStartDate, currentEndDate, vmUsageInstances.get(account.getId()));
+        } else {
+            parsed = VMInstanceUsageParser.parse(account, currentStartDate, currentEndDate);
+        }
         if (s_logger.isDebugEnabled()) {
             if (!parsed) {
                 s_logger.debug("vm usage instances successfully parsed? " + parsed + " (for account: " + account.getAccountName() + ", id: " + account.getId() + ")");
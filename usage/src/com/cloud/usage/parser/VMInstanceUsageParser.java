@@ -34,7 +34,6 @@ import com.cloud.usage.UsageVO;
 import com.cloud.usage.dao.UsageDao;
 import com.cloud.usage.dao.UsageVMInstanceDao;
 import com.cloud.user.AccountVO;
-import com.cloud.utils.Pair;
 import com.cloud.utils.StringUtils;
 
 @Component
@@ -71,9 +70,21 @@ public class VMInstanceUsageParser {
         List<UsageVMInstanceVO> usageInstances = s_usageInstanceDao.getUsageRecords(account.getId(), startDate, endDate);
 //ToDo: Add domainID for getting usage records
 
+        return parse(account, startDate, endDate, usageInstances);
+    }
+
+    /**
+     * Same as {@link #parse(AccountVO, Date, Date)} for usage_vm_instance records of the account that
+     * were already loaded for the aggregation range, e.g. together with those of other accounts.
+     */
+    public static boolean parse(AccountVO account, Date startDate, Date endDate, List<UsageVMInstanceVO> usageInstances) {
+        if ((endDate == null) || endDate.after(new Date())) {
+            endDate = new Date();
+        }
+
         // This map has both the running time *and* the usage amount.
-        Map<String, Pair<String, Long>> usageVMUptimeMap = new HashMap<String, Pair<String, Long>>();
-        Map<String, Pair<String, Long>> allocatedVMMap = new HashMap<String, Pair<String, Long>>();
+        Map<String, VMUsage> usageVMUptimeMap = new HashMap<String, VMUsage>();
+        Map<String, VMUsage> allocatedVMMap = new HashMap<String, VMUsage>();
 
         Map<String, VMInfo> vmInfosMap = new HashMap<String, VMInfo>();
 
@@ -122,25 +133,25 @@ public class VMInstanceUsageParser {
         }
 
         for (String vmIdKey : usageVMUptimeMap.keySet()) {
-            Pair<String, Long> vmUptimeInfo = usageVMUptimeMap.get(vmIdKey);
-            long runningTime = vmUptimeInfo.second().longValue();
+            VMUsage vmUptimeInfo = usageVMUptimeMap.get(vmIdKey);
+            long runningTime = vmUptimeInfo.duration;
 
             // Only create a usage record if we have a runningTime of bigger than zero.
             if (runningTime > 0L) {
                 VMInfo info = vmInfosMap.get(vmIdKey);
-                createUsageRecord(UsageTypes.RUNNING_VM, runningTime, startDate, endDate, account, info.getVirtualMachineId(), vmUptimeInfo.first(), info.getZoneId(),
+                createUsageRecord(UsageTypes.RUNNING_VM, runningTime, startDate, endDate, account, info.getVirtualMachineId(), vmUptimeInfo.vmName, info.getZoneId(),
                     info.getServiceOfferingId(), info.getTemplateId(), info.getHypervisorType(), info.getCpuCores(), info.getCpuSpeed(), info.getMemory());
             }
         }
 
         for (String vmIdKey : allocatedVMMap.keySet()) {
-            Pair<String, Long> vmAllocInfo = allocatedVMMap.get(vmIdKey);
-            long allocatedTime = vmAllocInfo.second().longValue();
+            VMUsage vmAllocInfo = allocatedVMMap.get(vmIdKey);
+            long allocatedTime = vmAllocInfo.duration;
 
             // Only create a usage record if we have a runningTime of bigger than zero.
             if (allocatedTime > 0L) {
                 VMInfo info = vmInfosMap.get(vmIdKey);
-                createUsageRecord(UsageTypes.ALLOCATED_VM, allocatedTime, startDate, endDate, account, info.getVirtualMachineId(), vmAllocInfo.first(), info.getZoneId(),
+                createUsageRecord(UsageTypes.ALLOCATED_VM, allocatedTime, startDate, endDate, account, info.getVirtualMachineId(), vmAllocInfo.vmName, info.getZoneId(),
                     info.getServiceOfferingId(), info.getTemplateId(), info.getHypervisorType(), info.getCpuCores(), info.getCpuSpeed(), info.getMemory());
             }
         }
@@ -148,16 +159,13 @@ public class VMInstanceUsageParser {
         return true;
     }
 
-    private static void updateVmUsageData(Map<String, Pair<String, Long>> usageDataMap, String key, String vmName, long duration) {
-        Pair<String, Long> vmUsageInfo = usageDataMap.get(key);
+    private static void updateVmUsageData(Map<String, VMUsage> usageDataMap, String key, String vmName, long duration) {
+        VMUsage vmUsageInfo = usageDataMap.get(key);
         if (vmUsageInfo == null) {
-            vmUsageInfo = new Pair<String, Long>(vmName, new Long(duration));
+            usageDataMap.put(key, new VMUsage(vmName, duration));
         } else {
-            Long runningTime = vmUsageInfo.second();
-            runningTime = new Long(runningTime.longValue() + duration);
-            vmUsageInfo = new Pair<String, Long>(vmUsageInfo.first(), runningTime);
+            vmUsageInfo.duration += duration;
         }
-        usageDataMap.put(key, vmUsageInfo);
     }
 
     private static void createUsageRecord(int type, long runningTime, Date startDate, Date endDate, AccountVO account, long vmId, String vmName, long zoneId,
@@ -191,6 +199,16 @@ public class VMInstanceUsageParser {
         s_usageDao.persist(usageRecord);
     }
 
+    private static class VMUsage {
+        private final String vmName;
+        private long duration;
+
+        public VMUsage(String vmName, long duration) {
+            this.vmName = vmName;
+            this.duration = duration;
+        }
+    }
+
     private static class VMInfo {
         private final long virtualMachineId;
         private final long zoneId;
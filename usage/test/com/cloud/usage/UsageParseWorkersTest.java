@@ -0,0 +1,189 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.usage;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.cloud.usage.dao.UsageDao;
+import com.cloud.user.AccountVO;
+import com.cloud.utils.exception.CloudRuntimeException;
+
+public class UsageParseWorkersTest {
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    // stand in for the cloud_usage rows and the parsed accounts that survive a failed job
+    private final List<String> usageRows = Collections.synchronizedList(new ArrayList<String>());
+    private final Set<String> parsedAccounts = Collections.synchronizedSet(new HashSet<String>());
+    private final Set<Long> failingAccounts = Collections.synchronizedSet(new HashSet<Long>());
+    private final List<ExecutorService> executors = new ArrayList<ExecutorService>();
+
+    // intervals in the future, so the parse does not preload vm usage instances
+    private final Date start = new Date(System.currentTimeMillis() + HOUR);
+    private final Date[][] intervals = {{start, new Date(start.getTime() + HOUR - 1)}, {new Date(start.getTime() + HOUR), new Date(start.getTime() + 2 * HOUR - 1)}};
+
+    private class TestUsageManager extends UsageManagerImpl {
+        @Override
+        protected boolean parseHelperTables(AccountVO account, Date currentStartDate, Date currentEndDate, Map<Long, List<UsageVMInstanceVO>> vmUsageInstances) {
+            if (failingAccounts.contains(account.getId())) {
+                throw new CloudRuntimeException("Failed to parse account " + account.getId());
+            }
+            usageRows.add(account.getId() + ":" + currentStartDate.getTime() + "-" + currentEndDate.getTime());
+            return true;
+        }
+    }
+
+    @After
+    public void tearDown() {
+        for (ExecutorService executor : executors) {
+            executor.shutdownNow();
+        }
+    }
+
+    private static String parsedKey(Object accountId, Object startDate, Object endDate) {
+        return accountId + ":" + ((Date)startDate).getTime() + "-" + ((Date)endDate).getTime();
+    }
+
+    private static void setField(UsageManagerImpl mgr, String name, Object value) throws Exception {
+        Field field = UsageManagerImpl.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(mgr, value);
+    }
+
+    private UsageManagerImpl createManager(int workers) throws Exception {
+        UsageDao usageDao = mock(UsageDao.class);
+        when(usageDao.listParsedAccounts(any(Date.class), any(Date.class))).thenAnswer(new Answer<List<Long>>() {
+            @Override
+            public List<Long> answer(InvocationOnMock invocation) {
+                Object[] args = invocation.getArguments();
+                List<Long> accountIds = new ArrayList<Long>();
+                synchronized (parsedAccounts) {
+                    for (String key : parsedAccounts) {
+                        if (key.endsWith(parsedKey("", args[0], args[1]))) {
+                            accountIds.add(Long.valueOf(key.substring(0, key.indexOf(':'))));
+                        }
+                    }
+                }
+                return accountIds;
+            }
+        });
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                Object[] args = invocation.getArguments();
+                Assert.assertTrue("Account parsed twice for an interval", parsedAccounts.add(parsedKey(args[0], args[1], args[2])));
+                return null;
+            }
+        }).when(usageDao).markAccountParsed(anyLong(), any(Date.class), any(Date.class));
+
+        UsageManagerImpl mgr = new TestUsageManager();
+        setField(mgr, "_usageDao", usageDao);
+        setField(mgr, "_parseWorkers", workers);
+        if (workers > 1) {
+            ExecutorService executor = Executors.newFixedThreadPool(workers);
+            executors.add(executor);
+            setField(mgr, "_parseExecutor", executor);
+        }
+        return mgr;
+    }
+
+    private static List<AccountVO> createAccounts(int count) {
+        List<AccountVO> accounts = new ArrayList<AccountVO>();
+        for (long id = 1; id <= count; id++) {
+            AccountVO account = new AccountVO(id);
+            account.setAccountName("account" + id);
+            accounts.add(account);
+        }
+        return accounts;
+    }
+
+    private List<String> parseAll(UsageManagerImpl mgr, List<AccountVO> accounts) {
+        for (Date[] interval : intervals) {
+            mgr.parseAccounts(accounts, interval[0], interval[1]);
+        }
+        List<String> rows = new ArrayList<String>(usageRows);
+        Collections.sort(rows);
+        return rows;
+    }
+
+    @Test
+    public void testWorkersWriteTheSameRowsAsOneWorker() throws Exception {
+        List<AccountVO> accounts = createAccounts(20);
+        List<String> serialRows = parseAll(createManager(1), accounts);
+        usageRows.clear();
+        parsedAccounts.clear();
+
+        List<String> parallelRows = parseAll(createManager(4), accounts);
+
+        Assert.assertEquals(40, serialRows.size());
+        Assert.assertEquals(serialRows, parallelRows);
+    }
+
+    @Test
+    public void testFailedJobDoesNotDuplicateCommittedAccounts() throws Exception {
+        List<AccountVO> accounts = createAccounts(20);
+        List<String> serialRows = parseAll(createManager(1), accounts);
+        usageRows.clear();
+
+        UsageManagerImpl mgr = createManager(4);
+        failingAccounts.add(7L);
+        try {
+            mgr.parseAccounts(accounts, intervals[0][0], intervals[0][1]);
+            Assert.fail("The job fails when an account fails twice");
+        } catch (CloudRuntimeException e) {
+            // expected, the other accounts are committed by their workers
+        }
+        Assert.assertEquals(19, usageRows.size());
+
+        // the next job parses the same intervals again
+        failingAccounts.clear();
+        Assert.assertEquals(serialRows, parseAll(mgr, accounts));
+
+        // with the worker count lowered to one in between as well
+        usageRows.clear();
+        parsedAccounts.clear();
+        failingAccounts.add(7L);
+        try {
+            parseAll(createManager(4), accounts);
+            Assert.fail("The job fails when an account fails twice");
+        } catch (CloudRuntimeException e) {
+            // expected
+        }
+        failingAccounts.clear();
+        Assert.assertEquals(serialRows, parseAll(createManager(1), accounts));
+    }
+}
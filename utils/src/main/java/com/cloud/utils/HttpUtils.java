@@ -22,10 +22,14 @@ package com.cloud.utils;
 import org.apache.log4j.Logger;
 
 import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 public class HttpUtils {
 
@@ -36,6 +40,9 @@ public class HttpUtils {
     public static final String RESPONSE_TYPE_XML = "xml";
     public static final String JSON_CONTENT_TYPE = "application/json; charset=UTF-8";
     public static final String XML_CONTENT_TYPE = "text/xml; charset=UTF-8";
+    public static final String GZIP_ENCODING = "gzip";
+    // smaller responses are not worth the cost of compressing them
+    public static final int GZIP_MIN_RESPONSE_LENGTH = 8 * 1024;
 
     public static void addSecurityHeaders(final HttpServletResponse resp) {
         if (resp.containsHeader("X-Content-Type-Options")) {
@@ -52,8 +59,55 @@ public class HttpUtils {
         }
     }
 
+    /**
+     * @return whether the Accept-Encoding header of the request allows gzip. A gzip entry takes precedence over "*",
+     *         and a q value of 0 refuses the encoding.
+     */
+    public static boolean acceptsGzipEncoding(final HttpServletRequest req) {
+        final String acceptEncoding = req.getHeader("Accept-Encoding");
+        if (acceptEncoding == null) {
+            return false;
+        }
+        Double gzipQuality = null;
+        Double anyQuality = null;
+        for (final String entry : acceptEncoding.split(",")) {
+            final String[] parts = entry.split(";");
+            final String coding = parts[0].trim().toLowerCase();
+            double quality = 1;
+            for (int i = 1; i < parts.length; i++) {
+                final String param = parts[i].trim().toLowerCase();
+                if (param.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(param.substring(2).trim());
+                    } catch (final NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (coding.equals(GZIP_ENCODING) || coding.equals("x-gzip")) {
+                gzipQuality = gzipQuality == null ? quality : Math.max(gzipQuality, quality);
+            } else if (coding.equals("*")) {
+                anyQuality = quality;
+            }
+        }
+        if (gzipQuality != null) {
+            return gzipQuality > 0;
+        }
+        return anyQuality != null && anyQuality > 0;
+    }
+
     public static void writeHttpResponse(final HttpServletResponse resp, final String response,
                                          final Integer responseCode, final String responseType, final String jsonContentType) {
+        writeHttpResponse(resp, response, responseCode, responseType, jsonContentType, false);
+    }
+
+    /**
+     * Writes the response, gzip compressed if allowed and the response is large enough. Large list
+     * responses can be hundreds of MB, compressing them while they are encoded avoids holding an
+     * encoded copy in memory and cuts the time spent sending them.
+     */
+    public static void writeHttpResponse(final HttpServletResponse resp, final String response,
+                                         final Integer responseCode, final String responseType, final String jsonContentType, final boolean gzip) {
         try {
             if (RESPONSE_TYPE_JSON.equalsIgnoreCase(responseType)) {
                 if (jsonContentType != null && !jsonContentType.isEmpty()) {
@@ -68,7 +122,15 @@ public class HttpUtils {
                 resp.setStatus(responseCode);
             }
             addSecurityHeaders(resp);
-            resp.getWriter().print(response);
+            if (gzip && response != null && response.length() >= GZIP_MIN_RESPONSE_LENGTH) {
+                resp.setHeader("Content-Encoding", GZIP_ENCODING);
+                resp.addHeader("Vary", "Accept-Encoding");
+                try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(resp.getOutputStream()), resp.getCharacterEncoding())) {
+                    writer.write(response);
+                }
+            } else {
+                resp.getWriter().print(response);
+            }
         } catch (final IOException ioex) {
             if (s_logger.isTraceEnabled()) {
                 s_logger.trace("Exception writing http response: " + ioex);
@@ -0,0 +1,211 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.concurrency;
+
+import java.util.Collections;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * HashedWheelTimer keeps large numbers of mostly cancelled timeouts cheaply.
+ * Scheduling and cancelling a timeout are O(1); a single thread advances the
+ * wheel once per tick and hands the expired tasks to the given executor.
+ * Timeouts fire with the precision of one tick.
+ */
+public class HashedWheelTimer {
+    private static final Logger s_logger = Logger.getLogger(HashedWheelTimer.class);
+
+    private static final int ST_INIT = 0;
+    private static final int ST_CANCELLED = 1;
+    private static final int ST_EXPIRED = 2;
+
+    private final long _tickMillis;
+    private final int _mask;
+    private final Set<Timeout>[] _wheel;
+    private final Queue<Timeout> _pending;
+    private final Executor _executor;
+    private final ScheduledExecutorService _ticker;
+    private final long _startTime;
+    private final AtomicInteger _count;
+    private long _tick;
+
+    /**
+     * @param name name of the thread advancing the wheel.
+     * @param tickDuration duration of a tick, the precision of the timeouts.
+     * @param unit unit of tickDuration.
+     * @param wheelSize number of buckets, rounded up to a power of two.
+     * @param executor executor running the expired tasks.
+     */
+    @SuppressWarnings("unchecked")
+    public HashedWheelTimer(final String name, final long tickDuration, final TimeUnit unit, final int wheelSize, final Executor executor) {
+        if (tickDuration <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException("tickDuration and wheelSize must be positive");
+        }
+        int size = 1;
+        while (size < wheelSize) {
+            size <<= 1;
+        }
+        _tickMillis = Math.max(1, unit.toMillis(tickDuration));
+        _mask = size - 1;
+        _wheel = new Set[size];
+        for (int i = 0; i < size; i++) {
+            _wheel[i] = Collections.newSetFromMap(new ConcurrentHashMap<Timeout, Boolean>());
+        }
+        _pending = new ConcurrentLinkedQueue<Timeout>();
+        _executor = executor;
+        _count = new AtomicInteger();
+        _tick = 0;
+        _startTime = System.currentTimeMillis();
+        _ticker = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory(name));
+        _ticker.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    advance();
+                } catch (final Throwable th) {
+                    s_logger.warn("Unable to advance the timer wheel", th);
+                }
+            }
+        }, _tickMillis, _tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Schedules the task to be run once the delay has elapsed.
+     *
+     * @return handle that can be used to cancel the timeout.
+     */
+    public Timeout schedule(final Runnable task, final long delay, final TimeUnit unit) {
+        final Timeout timeout = new Timeout(task, System.currentTimeMillis() + unit.toMillis(delay));
+        _count.incrementAndGet();
+        _pending.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * @return number of timeouts that have neither expired nor been cancelled.
+     */
+    public int getPendingCount() {
+        return _count.get();
+    }
+
+    public void stop() {
+        _ticker.shutdownNow();
+    }
+
+    /**
+     * Only called from the ticker thread.
+     */
+    protected void advance() {
+        transferPending();
+
+        final Set<Timeout> bucket = _wheel[(int)(_tick & _mask)];
+        for (final Timeout timeout : bucket) {
+            if (timeout._remainingRounds > 0) {
+                timeout._remainingRounds--;
+                continue;
+            }
+            bucket.remove(timeout);
+            timeout.expire();
+        }
+        _tick++;
+    }
+
+    private void transferPending() {
+        Timeout timeout;
+        while ((timeout = _pending.poll()) != null) {
+            if (timeout.isCancelled()) {
+                continue;
+            }
+            final long deadlineTick = Math.max((timeout._deadline - _startTime + _tickMillis - 1) / _tickMillis - 1, _tick);
+            timeout._remainingRounds = (deadlineTick - _tick) / _wheel.length;
+            final Set<Timeout> bucket = _wheel[(int)(deadlineTick & _mask)];
+            timeout._bucket = bucket;
+            bucket.add(timeout);
+            if (timeout.isCancelled()) {
+                // cancelled while being placed
+                bucket.remove(timeout);
+            }
+        }
+    }
+
+    public class Timeout {
+        private final Runnable _task;
+        private final long _deadline;
+        private final AtomicInteger _state;
+        private volatile Set<Timeout> _bucket;
+        private long _remainingRounds;
+
+        protected Timeout(final Runnable task, final long deadline) {
+            _task = task;
+            _deadline = deadline;
+            _state = new AtomicInteger(ST_INIT);
+        }
+
+        /**
+         * @return true if the timeout was cancelled by this call, false if it
+         * already expired or was cancelled before.
+         */
+        public boolean cancel() {
+            if (!_state.compareAndSet(ST_INIT, ST_CANCELLED)) {
+                return false;
+            }
+            _count.decrementAndGet();
+            final Set<Timeout> bucket = _bucket;
+            if (bucket != null) {
+                bucket.remove(this);
+            }
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return _state.get() == ST_CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return _state.get() == ST_EXPIRED;
+        }
+
+        public long getDeadline() {
+            return _deadline;
+        }
+
+        private void expire() {
+            if (!_state.compareAndSet(ST_INIT, ST_EXPIRED)) {
+                return;
+            }
+            _count.decrementAndGet();
+            try {
+                _executor.execute(_task);
+            } catch (final RejectedExecutionException e) {
+                s_logger.warn("Unable to run expired task " + _task, e);
+            }
+        }
+    }
+}
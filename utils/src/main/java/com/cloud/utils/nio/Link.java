@@ -57,17 +57,21 @@ public class Link {
     private final ConcurrentLinkedQueue<ByteBuffer[]> _writeQueue;
     private ByteBuffer _readBuffer;
     private ByteBuffer _plaintextBuffer;
+    private ByteBuffer _sslPacketBuffer;
+    private final ByteBuffer _frameHeaderBuffer;
     private Object _attach;
     private boolean _readHeader;
     private boolean _gotFollowingPacket;
 
     private SSLEngine _sslEngine;
+    private static final ByteBuffer[] CLOSE_MARKER = new ByteBuffer[0];
     public static final String keystoreFile = "/cloudmanagementserver.keystore";
 
     public Link(InetSocketAddress addr, NioConnection connection) {
         _addr = addr;
         _connection = connection;
-        _readBuffer = ByteBuffer.allocate(2048);
+        _readBuffer = allocate(2048);
+        _frameHeaderBuffer = allocate(4);
         _attach = null;
         _key = null;
         _writeQueue = new ConcurrentLinkedQueue<ByteBuffer[]>();
@@ -140,12 +144,16 @@ public class Link {
     }
      */
 
-    private static void doWrite(SocketChannel ch, ByteBuffer[] buffers, SSLEngine sslEngine) throws IOException {
-        SSLSession sslSession = sslEngine.getSession();
-        ByteBuffer pkgBuf = ByteBuffer.allocate(sslSession.getPacketBufferSize() + 40);
+    private static ByteBuffer allocate(final int capacity) {
+        LinkStatistics.bufferAllocated(capacity);
+        return ByteBuffer.allocate(capacity);
+    }
+
+    private static void doWrite(SocketChannel ch, ByteBuffer[] buffers, SSLEngine sslEngine, ByteBuffer pkgBuf, ByteBuffer headBuf) throws IOException {
         SSLEngineResult engResult;
 
-        ByteBuffer headBuf = ByteBuffer.allocate(4);
+        // Header and SSL packet go out in a single gathering write.
+        final ByteBuffer[] frame = new ByteBuffer[] {headBuf, pkgBuf};
 
         int totalLen = 0;
         for (ByteBuffer buffer : buffers) {
@@ -169,7 +177,6 @@ public class Link {
 
             int dataRemaining = pkgBuf.position();
             int header = dataRemaining;
-            int headRemaining = 4;
             pkgBuf.flip();
             if (processedLen < totalLen) {
                 header = header | HEADER_FLAG_FOLLOWING;
@@ -177,23 +184,25 @@ public class Link {
             headBuf.putInt(header);
             headBuf.flip();
 
-            while (headRemaining > 0) {
+            long frameRemaining = headBuf.remaining() + dataRemaining;
+            while (frameRemaining > 0) {
                 if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Writing Header " + headRemaining);
+                    s_logger.trace("Writing Frame " + frameRemaining);
                 }
-                long count = ch.write(headBuf);
-                headRemaining -= count;
-            }
-            while (dataRemaining > 0) {
-                if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Writing Data " + dataRemaining);
-                }
-                long count = ch.write(pkgBuf);
-                dataRemaining -= count;
+                frameRemaining -= ch.write(frame);
             }
+            LinkStatistics.packetSent(dataRemaining);
         }
     }
 
+    private ByteBuffer getSslPacketBuffer() {
+        final int size = _sslEngine.getSession().getPacketBufferSize() + 40;
+        if (_sslPacketBuffer == null || _sslPacketBuffer.capacity() < size) {
+            _sslPacketBuffer = allocate(size);
+        }
+        return _sslPacketBuffer;
+    }
+
     /**
      * write method to write to a socket.  This method writes to completion so
      * it doesn't follow the nio standard.  We use this to make sure we write
@@ -205,13 +214,16 @@ public class Link {
      */
     public static void write(SocketChannel ch, ByteBuffer[] buffers, SSLEngine sslEngine) throws IOException {
         synchronized (ch) {
-            doWrite(ch, buffers, sslEngine);
+            doWrite(ch, buffers, sslEngine, allocate(sslEngine.getSession().getPacketBufferSize() + 40), allocate(4));
         }
     }
 
     /* SSL has limitation of 16k, we may need to split packets. 18000 is 16k + some extra SSL informations */
     protected static final int MAX_SIZE_PER_PACKET = 18000;
     protected static final int HEADER_FLAG_FOLLOWING = 0x10000;
+    /* Plaintext buffers grown beyond this for a large message are not kept around for the next one */
+    protected static final int MAX_RETAINED_PLAINTEXT_SIZE = 64 * 1024;
+    protected static final int INITIAL_PLAINTEXT_SIZE = 2000;
 
     public byte[] read(SocketChannel ch) throws IOException {
         if (_readHeader) {   // Start of a packet
@@ -239,7 +251,11 @@ public class Link {
             }
 
             if (!_gotFollowingPacket) {
-                _plaintextBuffer = ByteBuffer.allocate(2000);
+                if (_plaintextBuffer == null || _plaintextBuffer.capacity() > MAX_RETAINED_PLAINTEXT_SIZE) {
+                    _plaintextBuffer = allocate(INITIAL_PLAINTEXT_SIZE);
+                } else {
+                    _plaintextBuffer.clear();
+                }
             }
 
             if ((header & HEADER_FLAG_FOLLOWING) != 0) {
@@ -255,7 +271,7 @@ public class Link {
                 if (s_logger.isTraceEnabled()) {
                     s_logger.trace("Resizing the byte buffer from " + _readBuffer.capacity());
                 }
-                _readBuffer = ByteBuffer.allocate(readSize);
+                _readBuffer = allocate(readSize);
             }
             _readBuffer.limit(readSize);
         }
@@ -273,16 +289,23 @@ public class Link {
 
         _readBuffer.flip();
 
-        ByteBuffer appBuf;
-
         SSLSession sslSession = _sslEngine.getSession();
         SSLEngineResult engResult;
         int remaining = 0;
 
+        LinkStatistics.packetReceived(_readBuffer.remaining());
         while (_readBuffer.hasRemaining()) {
             remaining = _readBuffer.remaining();
-            appBuf = ByteBuffer.allocate(sslSession.getApplicationBufferSize() + 40);
-            engResult = _sslEngine.unwrap(_readBuffer, appBuf);
+            final int appBufferSize = sslSession.getApplicationBufferSize() + 40;
+            if (_plaintextBuffer.remaining() < appBufferSize) {
+                // Make room so the data can be unwrapped straight into _plaintextBuffer
+                ByteBuffer newBuffer = allocate(Math.max(_plaintextBuffer.capacity() * 2, _plaintextBuffer.position() + appBufferSize));
+                _plaintextBuffer.flip();
+                newBuffer.put(_plaintextBuffer);
+                _plaintextBuffer = newBuffer;
+            }
+            final int unwrapStart = _plaintextBuffer.position();
+            engResult = _sslEngine.unwrap(_readBuffer, _plaintextBuffer);
             if (engResult.getHandshakeStatus() != HandshakeStatus.FINISHED && engResult.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING &&
                     engResult.getStatus() != SSLEngineResult.Status.OK) {
                 throw new IOException("SSL: SSLEngine return bad result! " + engResult);
@@ -291,17 +314,8 @@ public class Link {
                 throw new IOException("SSL: Unable to unwrap received data! still remaining " + remaining + "bytes!");
             }
 
-            appBuf.flip();
-            if (_plaintextBuffer.remaining() < appBuf.limit()) {
-                // We need to expand _plaintextBuffer for more data
-                ByteBuffer newBuffer = ByteBuffer.allocate(_plaintextBuffer.capacity() + appBuf.limit() * 5);
-                _plaintextBuffer.flip();
-                newBuffer.put(_plaintextBuffer);
-                _plaintextBuffer = newBuffer;
-            }
-            _plaintextBuffer.put(appBuf);
             if (s_logger.isTraceEnabled()) {
-                s_logger.trace("Done with packet: " + appBuf.limit());
+                s_logger.trace("Done with packet: " + (_plaintextBuffer.position() - unwrapStart));
             }
         }
 
@@ -330,24 +344,19 @@ public class Link {
     }
 
     public void send(ByteBuffer[] data, boolean close) throws ClosedChannelException {
-        ByteBuffer[] item = new ByteBuffer[data.length + 1];
-        int remaining = 0;
-        for (int i = 0; i < data.length; i++) {
-            remaining += data[i].remaining();
-            item[i + 1] = data[i];
-        }
-
-        item[0] = ByteBuffer.allocate(4);
-        item[0].putInt(remaining);
-        item[0].flip();
-
         if (s_logger.isTraceEnabled()) {
+            int remaining = 0;
+            for (ByteBuffer buffer : data) {
+                remaining += buffer.remaining();
+            }
             s_logger.trace("Sending packet of length " + remaining);
         }
 
-        _writeQueue.add(item);
+        // The frame headers are produced by doWrite() per SSL packet, so the
+        // buffers are queued as is.
+        _writeQueue.add(data);
         if (close) {
-            _writeQueue.add(new ByteBuffer[0]);
+            _writeQueue.add(CLOSE_MARKER);
         }
         synchronized (this) {
             if (_key == null) {
@@ -370,17 +379,14 @@ public class Link {
     public boolean write(SocketChannel ch) throws IOException {
         ByteBuffer[] data = null;
         while ((data = _writeQueue.poll()) != null) {
-            if (data.length == 0) {
+            if (data == CLOSE_MARKER) {
                 if (s_logger.isTraceEnabled()) {
                     s_logger.trace("Closing connection requested");
                 }
                 return true;
             }
 
-            ByteBuffer[] raw_data = new ByteBuffer[data.length - 1];
-            System.arraycopy(data, 1, raw_data, 0, data.length - 1);
-
-            doWrite(ch, raw_data, _sslEngine);
+            doWrite(ch, data, _sslEngine, getSslPacketBuffer(), _frameHeaderBuffer);
         }
         return false;
     }
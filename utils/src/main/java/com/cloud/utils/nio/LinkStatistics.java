@@ -0,0 +1,113 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.nio;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.StandardMBean;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.utils.mgmt.JmxUtil;
+
+/**
+ * Process wide counters for the traffic and the buffer allocations done by
+ * all the Links in this JVM.  Exposed through JMX as com.cloud:type=NioLink.
+ */
+public class LinkStatistics extends StandardMBean implements LinkStatisticsMBean {
+    private static final Logger s_logger = Logger.getLogger(LinkStatistics.class);
+    private static final LinkStatistics s_instance = new LinkStatistics();
+
+    private final AtomicLong _packetsSent = new AtomicLong();
+    private final AtomicLong _packetsReceived = new AtomicLong();
+    private final AtomicLong _bytesSent = new AtomicLong();
+    private final AtomicLong _bytesReceived = new AtomicLong();
+    private final AtomicLong _buffersAllocated = new AtomicLong();
+    private final AtomicLong _bytesAllocated = new AtomicLong();
+
+    private LinkStatistics() {
+        super(LinkStatisticsMBean.class, false);
+        try {
+            JmxUtil.registerMBean("NioLink", "LinkStatistics", this);
+        } catch (Exception e) {
+            s_logger.warn("Unable to register the nio link statistics", e);
+        }
+    }
+
+    public static LinkStatistics getInstance() {
+        return s_instance;
+    }
+
+    static void packetSent(final long bytes) {
+        s_instance._packetsSent.incrementAndGet();
+        s_instance._bytesSent.addAndGet(bytes);
+    }
+
+    static void packetReceived(final long bytes) {
+        s_instance._packetsReceived.incrementAndGet();
+        s_instance._bytesReceived.addAndGet(bytes);
+    }
+
+    static void bufferAllocated(final long bytes) {
+        s_instance._buffersAllocated.incrementAndGet();
+        s_instance._bytesAllocated.addAndGet(bytes);
+    }
+
+    @Override
+    public long getPacketsSent() {
+        return _packetsSent.get();
+    }
+
+    @Override
+    public long getPacketsReceived() {
+        return _packetsReceived.get();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return _bytesSent.get();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return _bytesReceived.get();
+    }
+
+    @Override
+    public long getBuffersAllocated() {
+        return _buffersAllocated.get();
+    }
+
+    @Override
+    public long getBytesAllocated() {
+        return _bytesAllocated.get();
+    }
+
+    @Override
+    public String reset() {
+        _packetsSent.set(0);
+        _packetsReceived.set(0);
+        _bytesSent.set(0);
+        _bytesReceived.set(0);
+        _buffersAllocated.set(0);
+        _bytesAllocated.set(0);
+        return "Reset";
+    }
+}
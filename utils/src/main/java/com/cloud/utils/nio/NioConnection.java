@@ -48,6 +48,7 @@ import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.cloud.utils.AutoCloseableUtil.closeAutoCloseable;
 
@@ -70,6 +71,10 @@ public abstract class NioConnection implements Callable<Boolean> {
     protected String _name;
     protected ExecutorService _executor;
     protected ExecutorService _sslHandshakeExecutor;
+    // Selectors doing the I/O of accepted links, null if it is all done by _selector
+    protected IoReactor[] _ioReactors;
+    protected ExecutorService _ioReactorExecutor;
+    private final AtomicInteger _nextIoReactor = new AtomicInteger();
 
     public NioConnection(final String name, final int port, final int workers, final HandlerFactory factory) {
         _name = name;
@@ -101,6 +106,13 @@ public abstract class NioConnection implements Callable<Boolean> {
         _threadExecutor = Executors.newSingleThreadExecutor();
         _futureTask = _threadExecutor.submit(this);
 
+        if (_ioReactors != null) {
+            _ioReactorExecutor = Executors.newFixedThreadPool(_ioReactors.length, new NamedThreadFactory(_name + "-IoReactor"));
+            for (final IoReactor reactor : _ioReactors) {
+                _ioReactorExecutor.submit(reactor);
+            }
+        }
+
         _isRunning = true;
     }
 
@@ -111,6 +123,14 @@ public abstract class NioConnection implements Callable<Boolean> {
             _futureTask.cancel(false);
             _threadExecutor.shutdown();
         }
+        if (_ioReactors != null) {
+            for (final IoReactor reactor : _ioReactors) {
+                reactor.shutdown();
+            }
+        }
+        if (_ioReactorExecutor != null) {
+            _ioReactorExecutor.shutdown();
+        }
     }
 
     public boolean isRunning() {
@@ -126,39 +146,7 @@ public abstract class NioConnection implements Callable<Boolean> {
         while (_isRunning) {
             try {
                 _selector.select(100);
-
-                // Someone is ready for I/O, get the ready keys
-                final Set<SelectionKey> readyKeys = _selector.selectedKeys();
-                final Iterator<SelectionKey> i = readyKeys.iterator();
-
-                if (s_logger.isTraceEnabled()) {
-                    s_logger.trace("Keys Processing: " + readyKeys.size());
-                }
-                // Walk through the ready keys collection.
-                while (i.hasNext()) {
-                    final SelectionKey sk = i.next();
-                    i.remove();
-
-                    if (!sk.isValid()) {
-                        if (s_logger.isTraceEnabled()) {
-                            s_logger.trace("Selection Key is invalid: " + sk.toString());
-                        }
-                        final Link link = (Link)sk.attachment();
-                        if (link != null) {
-                            link.terminated();
-                        } else {
-                            closeConnection(sk);
-                        }
-                    } else if (sk.isReadable()) {
-                        read(sk);
-                    } else if (sk.isWritable()) {
-                        write(sk);
-                    } else if (sk.isAcceptable()) {
-                        accept(sk);
-                    } else if (sk.isConnectable()) {
-                        connect(sk);
-                    }
-                }
+                processSelectedKeys(_selector);
 
                 s_logger.trace("Keys Done Processing.");
 
@@ -177,6 +165,41 @@ public abstract class NioConnection implements Callable<Boolean> {
         return true;
     }
 
+    protected void processSelectedKeys(final Selector selector) throws IOException {
+        // Someone is ready for I/O, get the ready keys
+        final Set<SelectionKey> readyKeys = selector.selectedKeys();
+        final Iterator<SelectionKey> i = readyKeys.iterator();
+
+        if (s_logger.isTraceEnabled()) {
+            s_logger.trace("Keys Processing: " + readyKeys.size());
+        }
+        // Walk through the ready keys collection.
+        while (i.hasNext()) {
+            final SelectionKey sk = i.next();
+            i.remove();
+
+            if (!sk.isValid()) {
+                if (s_logger.isTraceEnabled()) {
+                    s_logger.trace("Selection Key is invalid: " + sk.toString());
+                }
+                final Link link = (Link)sk.attachment();
+                if (link != null) {
+                    link.terminated();
+                } else {
+                    closeConnection(sk);
+                }
+            } else if (sk.isReadable()) {
+                read(sk);
+            } else if (sk.isWritable()) {
+                write(sk);
+            } else if (sk.isAcceptable()) {
+                accept(sk);
+            } else if (sk.isConnectable()) {
+                connect(sk);
+            }
+        }
+    }
+
     abstract void init() throws IOException;
 
     abstract void registerLink(InetSocketAddress saddr, Link link);
@@ -218,7 +241,9 @@ public abstract class NioConnection implements Callable<Boolean> {
                         final InetSocketAddress saddr = (InetSocketAddress)socket.getRemoteSocketAddress();
                         final Link link = new Link(saddr, nioConnection);
                         link.setSSLEngine(sslEngine);
-                        link.setKey(socketChannel.register(key.selector(), SelectionKey.OP_READ, link));
+                        final Selector ioSelector = nextIoSelector(key.selector());
+                        ioSelector.wakeup();
+                        link.setKey(socketChannel.register(ioSelector, SelectionKey.OP_READ, link));
                         final Task task = _factory.create(Task.Type.CONNECT, link, null);
                         registerLink(saddr, link);
                         _executor.submit(task);
@@ -326,6 +351,10 @@ public abstract class NioConnection implements Callable<Boolean> {
             _todos = new ArrayList<ChangeRequest>();
         }
 
+        processTodos(todos, _selector);
+    }
+
+    protected void processTodos(final List<ChangeRequest> todos, final Selector selector) {
         if (s_logger.isTraceEnabled()) {
             s_logger.trace("Todos Processing: " + todos.size());
         }
@@ -349,7 +378,7 @@ public abstract class NioConnection implements Callable<Boolean> {
                 break;
             case ChangeRequest.REGISTER:
                 try {
-                    key = ((SocketChannel)todo.key).register(_selector, todo.ops, todo.att);
+                    key = ((SocketChannel)todo.key).register(selector, todo.ops, todo.att);
                     if (todo.att != null) {
                         final Link link = (Link)todo.att;
                         link.setKey(key);
@@ -469,28 +498,125 @@ public abstract class NioConnection implements Callable<Boolean> {
     }
 
     public void change(final int ops, final SelectionKey key, final Object att) {
-        final ChangeRequest todo = new ChangeRequest(key, ChangeRequest.CHANGEOPS, ops, att);
-        synchronized (this) {
-            _todos.add(todo);
-        }
-        _selector.wakeup();
+        queueChangeRequest(key, new ChangeRequest(key, ChangeRequest.CHANGEOPS, ops, att));
     }
 
     public void close(final SelectionKey key) {
-        final ChangeRequest todo = new ChangeRequest(key, ChangeRequest.CLOSE, 0, null);
+        queueChangeRequest(key, new ChangeRequest(key, ChangeRequest.CLOSE, 0, null));
+    }
+
+    /**
+     * Key changes have to be applied by the thread owning the key's selector,
+     * so queue them on the io reactor the key is registered with, if any.
+     */
+    protected void queueChangeRequest(final SelectionKey key, final ChangeRequest todo) {
+        final IoReactor reactor = key != null ? getIoReactor(key.selector()) : null;
+        if (reactor != null) {
+            reactor.queue(todo);
+            return;
+        }
         synchronized (this) {
             _todos.add(todo);
         }
         _selector.wakeup();
     }
 
+    protected IoReactor getIoReactor(final Selector selector) {
+        if (_ioReactors != null) {
+            for (final IoReactor reactor : _ioReactors) {
+                if (reactor.getSelector() == selector) {
+                    return reactor;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the selector the next accepted link should be registered with,
+     * the io reactors are used round robin.
+     */
+    protected Selector nextIoSelector(final Selector defaultSelector) {
+        if (_ioReactors == null || _ioReactors.length == 0) {
+            return defaultSelector;
+        }
+        final int next = (_nextIoReactor.getAndIncrement() & Integer.MAX_VALUE) % _ioReactors.length;
+        return _ioReactors[next].getSelector();
+    }
+
     /* Release the resource used by the instance */
     public void cleanUp() throws IOException {
+        if (_ioReactors != null) {
+            for (final IoReactor reactor : _ioReactors) {
+                reactor.close();
+            }
+        }
         if (_selector != null) {
             _selector.close();
         }
     }
 
+    /**
+     * IoReactor runs a selector of its own on a dedicated thread and does the
+     * reads, writes and key changes of the links registered with it.  The
+     * connection's main selector is then left with accepting connections.
+     */
+    protected class IoReactor implements Runnable {
+        private final Selector _ioSelector;
+        private List<ChangeRequest> _ioTodos;
+        private volatile boolean _active;
+
+        public IoReactor() throws IOException {
+            _ioSelector = Selector.open();
+            _ioTodos = new ArrayList<ChangeRequest>();
+            _active = true;
+        }
+
+        public Selector getSelector() {
+            return _ioSelector;
+        }
+
+        protected void queue(final ChangeRequest todo) {
+            synchronized (this) {
+                _ioTodos.add(todo);
+            }
+            _ioSelector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (_active) {
+                try {
+                    _ioSelector.select(100);
+                    processSelectedKeys(_ioSelector);
+
+                    final List<ChangeRequest> todos;
+                    synchronized (this) {
+                        if (_ioTodos.isEmpty()) {
+                            continue;
+                        }
+                        todos = _ioTodos;
+                        _ioTodos = new ArrayList<ChangeRequest>();
+                    }
+                    processTodos(todos, _ioSelector);
+                } catch (final ClosedSelectorException e) {
+                    break;
+                } catch (final IOException e) {
+                    s_logger.warn("Unable to select on io reactor of " + _name, e);
+                }
+            }
+        }
+
+        protected void shutdown() {
+            _active = false;
+            _ioSelector.wakeup();
+        }
+
+        protected void close() throws IOException {
+            _ioSelector.close();
+        }
+    }
+
     public class ChangeRequest {
         public static final int REGISTER = 1;
         public static final int CHANGEOPS = 2;
@@ -36,11 +36,22 @@ public class NioServer extends NioConnection {
     private ServerSocketChannel _serverSocket;
 
     protected WeakHashMap<InetSocketAddress, Link> _links;
+    protected int _ioThreads;
 
     public NioServer(final String name, final int port, final int workers, final HandlerFactory factory) {
+        this(name, port, workers, 0, factory);
+    }
+
+    /**
+     * @param ioThreads number of selectors, each on its own thread, doing the
+     * reads and writes of the accepted links.  With 0 the thread accepting
+     * the connections does all the I/O as well.
+     */
+    public NioServer(final String name, final int port, final int workers, final int ioThreads, final HandlerFactory factory) {
         super(name, port, workers, factory);
         _localAddr = null;
         _links = new WeakHashMap<InetSocketAddress, Link>(1024);
+        _ioThreads = ioThreads;
     }
 
     public int getPort() {
@@ -59,7 +70,14 @@ public class NioServer extends NioConnection {
 
         _serverSocket.register(_selector, SelectionKey.OP_ACCEPT, null);
 
-        s_logger.info("NioConnection started and listening on " + _serverSocket.socket().getLocalSocketAddress());
+        if (_ioThreads > 0) {
+            _ioReactors = new IoReactor[_ioThreads];
+            for (int i = 0; i < _ioThreads; i++) {
+                _ioReactors[i] = new IoReactor();
+            }
+        }
+
+        s_logger.info("NioConnection started and listening on " + _serverSocket.socket().getLocalSocketAddress() + " with " + _ioThreads + " io threads");
     }
 
     @Override
@@ -19,14 +19,20 @@
 
 package com.cloud.utils;
 
+import org.apache.commons.io.IOUtils;
 import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.mock.web.MockHttpSession;
 
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpSession;
+import java.io.ByteArrayInputStream;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
@@ -91,4 +97,50 @@ public class HttpUtilsTest {
         params.put(sessionKeyString, new String[]{sessionKeyValue});
         assertTrue(HttpUtils.validateSessionKey(session, params, cookies, sessionKeyString));
     }
+
+    @Test
+    public void acceptsGzipEncodingTest() {
+        MockHttpServletRequest req = new MockHttpServletRequest();
+        assertFalse(HttpUtils.acceptsGzipEncoding(req));
+        req.addHeader("Accept-Encoding", "deflate, GZIP");
+        assertTrue(HttpUtils.acceptsGzipEncoding(req));
+    }
+
+    private static boolean acceptsGzipEncoding(final String acceptEncoding) {
+        MockHttpServletRequest req = new MockHttpServletRequest();
+        req.addHeader("Accept-Encoding", acceptEncoding);
+        return HttpUtils.acceptsGzipEncoding(req);
+    }
+
+    @Test
+    public void acceptsGzipEncodingQualityTest() {
+        assertTrue(acceptsGzipEncoding("gzip;q=0.5, deflate"));
+        assertTrue(acceptsGzipEncoding("x-gzip"));
+        assertTrue(acceptsGzipEncoding("*"));
+        assertFalse(acceptsGzipEncoding("gzip;q=0"));
+        assertFalse(acceptsGzipEncoding("gzip; Q=0.0, deflate"));
+        assertFalse("An explicit refusal overrides *", acceptsGzipEncoding("*, gzip;q=0"));
+        assertFalse(acceptsGzipEncoding("*;q=0"));
+        assertFalse(acceptsGzipEncoding("deflate, gzipx"));
+        assertFalse(acceptsGzipEncoding("identity"));
+    }
+
+    @Test
+    public void writeHttpResponseGzipTest() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < HttpUtils.GZIP_MIN_RESPONSE_LENGTH) {
+            sb.append("{\"name\":\"d\u00e9j\u00e0 vu\"},");
+        }
+        final String response = sb.toString();
+
+        MockHttpServletResponse resp = new MockHttpServletResponse();
+        HttpUtils.writeHttpResponse(resp, response, 200, HttpUtils.RESPONSE_TYPE_JSON, null, true);
+        assertEquals(HttpUtils.GZIP_ENCODING, resp.getHeader("Content-Encoding"));
+        assertEquals(response, IOUtils.toString(new GZIPInputStream(new ByteArrayInputStream(resp.getContentAsByteArray())), HttpUtils.UTF_8));
+
+        MockHttpServletResponse smallResp = new MockHttpServletResponse();
+        HttpUtils.writeHttpResponse(smallResp, "{}", 200, HttpUtils.RESPONSE_TYPE_JSON, null, true);
+        assertNull(smallResp.getHeader("Content-Encoding"));
+        assertEquals("{}", smallResp.getContentAsString());
+    }
 }
@@ -0,0 +1,92 @@
+//
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+//
+
+package com.cloud.utils.concurrency;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HashedWheelTimerTest {
+    private final Executor _sameThreadExecutor = new Executor() {
+        @Override
+        public void execute(final Runnable command) {
+            command.run();
+        }
+    };
+
+    private HashedWheelTimer _timer;
+
+    @Before
+    public void setUp() {
+        _timer = new HashedWheelTimer("HashedWheelTimerTest", 10, TimeUnit.MILLISECONDS, 8, _sameThreadExecutor);
+    }
+
+    @After
+    public void tearDown() {
+        _timer.stop();
+    }
+
+    @Test
+    public void expiredTimeoutsAreRun() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(2);
+        final Runnable countDown = new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        };
+        // the second one needs more than one round of the wheel
+        final HashedWheelTimer.Timeout shortTimeout = _timer.schedule(countDown, 20, TimeUnit.MILLISECONDS);
+        final HashedWheelTimer.Timeout longTimeout = _timer.schedule(countDown, 200, TimeUnit.MILLISECONDS);
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(shortTimeout.isExpired());
+        Assert.assertTrue(longTimeout.isExpired());
+        Assert.assertTrue(System.currentTimeMillis() >= longTimeout.getDeadline());
+        Assert.assertEquals(0, _timer.getPendingCount());
+    }
+
+    @Test
+    public void cancelledTimeoutsAreNotRun() throws InterruptedException {
+        final AtomicInteger runs = new AtomicInteger();
+        final HashedWheelTimer.Timeout timeout = _timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        }, 50, TimeUnit.MILLISECONDS);
+        Assert.assertEquals(1, _timer.getPendingCount());
+
+        Assert.assertTrue(timeout.cancel());
+        Assert.assertFalse(timeout.cancel());
+        Assert.assertEquals(0, _timer.getPendingCount());
+
+        Thread.sleep(200);
+        Assert.assertEquals(0, runs.get());
+        Assert.assertTrue(timeout.isCancelled());
+        Assert.assertFalse(timeout.isExpired());
+    }
+}
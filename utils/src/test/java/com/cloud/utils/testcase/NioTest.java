@@ -98,7 +98,7 @@ public class NioTest {
         testBytes = new byte[1000000];
         randomGenerator.nextBytes(testBytes);
 
-        server = new NioServer("NioTestServer", 0, 1, new NioTestServer());
+        server = createServer();
         try {
             server.start();
         } catch (final NioConnectionException e) {
@@ -116,6 +116,10 @@ public class NioTest {
         }
     }
 
+    protected NioServer createServer() {
+        return new NioServer("NioTestServer", 0, 1, new NioTestServer());
+    }
+
     @After
     public void tearDown() {
         stopClient();